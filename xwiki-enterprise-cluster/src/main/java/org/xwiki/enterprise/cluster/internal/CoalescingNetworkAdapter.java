@@ -0,0 +1,406 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.cluster.internal;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.observation.event.AbstractFilterableEvent;
+import org.xwiki.observation.event.filter.EventFilter;
+import org.xwiki.observation.event.filter.FixedNameEventFilter;
+import org.xwiki.observation.remote.NetworkAdapter;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.RemoteEventException;
+
+/**
+ * Network adapter merging the repeated {@link DocumentUpdatedEvent}s of a document before sending them to the other
+ * cluster members through another network adapter. The first update of a document is sent right away; the following
+ * updates of the same document received within the configured window are merged, and only the last one is sent at
+ * the end of the window. The other members thus invalidate their cache once per window instead of once per save
+ * when a document is saved many times in a burst (imports, scripts). The translations of a document are separate
+ * documents: their updates are never merged together.
+ * <p>
+ * Enabled with the following {@code xwiki.properties} configuration:
+ * <ul>
+ * <li>{@code observation.remote.networkadapter=coalescing}</li>
+ * <li>{@code observation.remote.coalescing.window}: the window in milliseconds, {@value #DEFAULT_WINDOW} by default, 0
+ * to send all the events right away</li>
+ * <li>{@code observation.remote.coalescing.networkadapter}: the network adapter actually sending the events,
+ * {@value #DEFAULT_NETWORK_ADAPTER} by default</li>
+ * </ul>
+ * Other events are never merged. To keep the order of the events sent by a thread, the merged updates waiting for the
+ * end of their window are sent before the other events targeting the same document (e.g. its deletion) or its wiki
+ * (e.g. the deletion of the wiki), and the window of the document is closed; the windows of the other documents stay
+ * open. The merged updates are sent before an event whose target is unknown, and all the windows are closed. The
+ * events are sent outside of the lock protecting the windows so that a slow network adapter doesn't block the threads
+ * whose updates are merged.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+@Component
+@Named("coalescing")
+@Singleton
+public class CoalescingNetworkAdapter implements NetworkAdapter, Initializable, Disposable
+{
+    /** The default window, in milliseconds. */
+    private static final long DEFAULT_WINDOW = 200;
+
+    /** The default network adapter actually sending the events. */
+    private static final String DEFAULT_NETWORK_ADAPTER = "jgroups";
+
+    /** The prefix of the configuration properties. */
+    private static final String PREFIX = "observation.remote.coalescing.";
+
+    /** The key of the language in the serialized source of the document events. */
+    private static final String DOC_LANGUAGE = "doclanguage";
+
+    /** Separates the wiki from the rest of a serialized document reference. */
+    private static final char WIKI_SEPARATOR = ':';
+
+    /** Used to lookup the network adapter actually sending the events. */
+    @Inject
+    private ComponentManager componentManager;
+
+    /** Used to read the configuration. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** The logger to log. */
+    @Inject
+    private Logger logger;
+
+    /** The network adapter actually sending the events. */
+    private NetworkAdapter networkAdapter;
+
+    /** The window, in milliseconds. */
+    private volatile long window;
+
+    /** The documents whose window is open, indexed by event key. */
+    private final Map<String, PendingEvent> pendingEvents = new LinkedHashMap<String, PendingEvent>();
+
+    /** Closes the windows. */
+    private ScheduledExecutorService scheduler;
+
+    /** The number of events received from the remote observation manager. */
+    private final AtomicLong submittedEventCount = new AtomicLong();
+
+    /** The number of events successfully sent to the other members. */
+    private final AtomicLong sentEventCount = new AtomicLong();
+
+    /**
+     * The window of a document.
+     */
+    private static class PendingEvent
+    {
+        /** The serialized reference of the document. */
+        private final String document;
+
+        /** The last event received during the window, {@code null} if none. */
+        private RemoteEventData event;
+
+        /**
+         * @param document the serialized reference of the document
+         */
+        PendingEvent(String document)
+        {
+            this.document = document;
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.window = this.configuration.getProperty(PREFIX + "window", DEFAULT_WINDOW);
+        String hint = this.configuration.getProperty(PREFIX + "networkadapter", DEFAULT_NETWORK_ADAPTER);
+        try {
+            this.networkAdapter = this.componentManager.getInstance(NetworkAdapter.class, hint);
+        } catch (ComponentLookupException e) {
+            throw new InitializationException(String.format("Failed to lookup network adapter [%s]", hint), e);
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "Remote event coalescing");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        // Flush while the network adapter is still usable, the other components may be disposed right after.
+        flush();
+        this.scheduler.shutdownNow();
+    }
+
+    @Override
+    public void send(RemoteEventData remoteEvent)
+    {
+        this.submittedEventCount.incrementAndGet();
+
+        String key = this.window > 0 ? getKey(remoteEvent) : null;
+        List<RemoteEventData> events;
+        synchronized (this.pendingEvents) {
+            if (key == null) {
+                events = removePendingEvents(getTarget(remoteEvent));
+                events.add(remoteEvent);
+            } else {
+                PendingEvent pendingEvent = this.pendingEvents.get(key);
+                if (pendingEvent == null) {
+                    // First update of the document: send it right away and open the window.
+                    events = Collections.singletonList(remoteEvent);
+                    pendingEvent = new PendingEvent(getTarget(remoteEvent));
+                    this.pendingEvents.put(key, pendingEvent);
+                    scheduleWindowEnd(key, pendingEvent);
+                } else {
+                    events = Collections.emptyList();
+                    pendingEvent.event = remoteEvent;
+                }
+            }
+        }
+
+        doSend(events);
+    }
+
+    @Override
+    public void startChannel(String channelId) throws RemoteEventException
+    {
+        this.networkAdapter.startChannel(channelId);
+    }
+
+    @Override
+    public void stopChannel(String channelId) throws RemoteEventException
+    {
+        flush();
+        this.networkAdapter.stopChannel(channelId);
+    }
+
+    @Override
+    public void stopAllChannels() throws RemoteEventException
+    {
+        flush();
+        this.networkAdapter.stopAllChannels();
+    }
+
+    /**
+     * @return the window, in milliseconds
+     */
+    public long getWindow()
+    {
+        return this.window;
+    }
+
+    /**
+     * @param window the new window, in milliseconds, 0 to send all the events right away
+     */
+    public void setWindow(long window)
+    {
+        this.window = window;
+        if (window <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * @return the number of events received from the remote observation manager
+     */
+    public long getSubmittedEventCount()
+    {
+        return this.submittedEventCount.get();
+    }
+
+    /**
+     * @return the number of events successfully sent to the other members
+     */
+    public long getSentEventCount()
+    {
+        return this.sentEventCount.get();
+    }
+
+    /**
+     * The filter of the document events is the reference of the document without its language, so the language of the
+     * translation is read from the serialized document sent as source of the event.
+     *
+     * @param remoteEvent an event
+     * @return the key identifying the events that can be merged with the given one, {@code null} if it cannot be
+     *         merged
+     */
+    private String getKey(RemoteEventData remoteEvent)
+    {
+        Serializable event = remoteEvent.getEvent();
+        Serializable source = remoteEvent.getSource();
+        String document = getTarget(remoteEvent);
+        if (event instanceof DocumentUpdatedEvent && source instanceof Map && document != null) {
+            Object language = ((Map< ? , ? >) source).get(DOC_LANGUAGE);
+
+            return event.getClass().getName() + ':' + document + ':' + (language != null ? language : "");
+        }
+
+        // Unknown source: can't tell which translation was updated.
+        return null;
+    }
+
+    /**
+     * The document events are filtered on the serialized reference of the document and the wiki events on the
+     * identifier of the wiki.
+     *
+     * @param remoteEvent an event
+     * @return the name of the entity targeted by the given event, {@code null} if unknown
+     */
+    private String getTarget(RemoteEventData remoteEvent)
+    {
+        Serializable event = remoteEvent.getEvent();
+        if (event instanceof AbstractFilterableEvent) {
+            EventFilter filter = ((AbstractFilterableEvent) event).getEventFilter();
+            if (filter instanceof FixedNameEventFilter) {
+                return filter.getFilter();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Closes the window of a document after the configured delay, sending the last event received in the meantime.
+     *
+     * @param key the key of the document
+     * @param pendingEvent the window of the document
+     */
+    private void scheduleWindowEnd(final String key, final PendingEvent pendingEvent)
+    {
+        this.scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                RemoteEventData event;
+                synchronized (pendingEvents) {
+                    if (pendingEvents.get(key) != pendingEvent) {
+                        // Already flushed.
+                        return;
+                    }
+                    event = pendingEvent.event;
+                    if (event == null) {
+                        pendingEvents.remove(key);
+                    } else {
+                        // Keep the window open as long as the document keeps being updated.
+                        pendingEvent.event = null;
+                        scheduleWindowEnd(key, pendingEvent);
+                    }
+                }
+
+                if (event != null) {
+                    doSend(event);
+                }
+            }
+        }, this.window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends all the events waiting for the end of their window and closes all the windows.
+     */
+    private void flush()
+    {
+        List<RemoteEventData> events;
+        synchronized (this.pendingEvents) {
+            events = removePendingEvents(null);
+        }
+
+        doSend(events);
+    }
+
+    /**
+     * Closes the windows of the documents an event must stay ordered with. Must be called while holding the lock on
+     * {@link #pendingEvents}.
+     *
+     * @param target the document or the wiki targeted by the event, {@code null} to close all the windows
+     * @return the events which were waiting for the end of the closed windows
+     */
+    private List<RemoteEventData> removePendingEvents(String target)
+    {
+        List<RemoteEventData> events = new ArrayList<RemoteEventData>();
+        Iterator<PendingEvent> iterator = this.pendingEvents.values().iterator();
+        while (iterator.hasNext()) {
+            PendingEvent pendingEvent = iterator.next();
+            if (target == null || target.equals(pendingEvent.document)
+                || pendingEvent.document.startsWith(target + WIKI_SEPARATOR)) {
+                if (pendingEvent.event != null) {
+                    events.add(pendingEvent.event);
+                }
+                iterator.remove();
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * @param remoteEvents the events to send to the other members, in order
+     */
+    private void doSend(List<RemoteEventData> remoteEvents)
+    {
+        for (RemoteEventData remoteEvent : remoteEvents) {
+            doSend(remoteEvent);
+        }
+    }
+
+    /**
+     * @param remoteEvent the event to send to the other members
+     */
+    private void doSend(RemoteEventData remoteEvent)
+    {
+        try {
+            this.networkAdapter.send(remoteEvent);
+            this.sentEventCount.incrementAndGet();
+        } catch (Exception e) {
+            this.logger.error("Failed to send remote event [{}]", remoteEvent, e);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.cluster.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.event.ActionExecutingEvent;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+/**
+ * Warms the document cache of a starting cluster node up with the most accessed documents, so that a rolling restart
+ * doesn't make the node serve every page from the database for minutes.
+ * <p>
+ * While running, the node counts the documents accessed by the requests and regularly saves the most accessed ones
+ * in a snapshot file. The documents displayed by the actions are counted, as well as the documents loaded in the
+ * document cache by any request, e.g. through REST. When the node starts, the documents listed in the snapshot are
+ * loaded by the first request handled by an action (usually the health check of the load balancer), once the wiki is
+ * initialized, and the other requests handled by an action wait until they are loaded so that the node doesn't serve
+ * them with a cold cache. The snapshot file can be placed on a storage shared by the cluster members, in which case a
+ * joining node is warmed up with the snapshot of its peers.
+ * <p>
+ * Only a bounded number of documents is tracked: when a new document is accessed while the limit is reached, it
+ * replaces the least accessed one and inherits its count (like the Space-Saving algorithm), so that a document
+ * becoming popular can climb instead of being evicted right away. The counts are halved each time the snapshot is
+ * saved so that the snapshot follows the recent accesses.
+ * <p>
+ * Enabled with the following {@code xwiki.properties} configuration:
+ * <ul>
+ * <li>{@code cluster.warmstart.enabled=true}</li>
+ * <li>{@code cluster.warmstart.file}: the snapshot file, {@code cluster/warmstart.txt} in the permanent directory by
+ * default</li>
+ * <li>{@code cluster.warmstart.size}: the number of documents in the snapshot, {@value #DEFAULT_SIZE} by default;
+ * loading more documents than the document cache can hold is useless</li>
+ * <li>{@code cluster.warmstart.interval}: how often the snapshot is saved, in seconds, {@value #DEFAULT_INTERVAL} by
+ * default; it is also saved when the node stops</li>
+ * <li>{@code cluster.warmstart.timeout}: how long the requests wait for the documents of the snapshot to be loaded,
+ * in seconds, {@value #DEFAULT_TIMEOUT} by default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+@Component
+@Named(WarmStartListener.NAME)
+@Singleton
+public class WarmStartListener implements EventListener, Initializable, Disposable
+{
+    /** The name of the listener. */
+    public static final String NAME = "warmstart";
+
+    /** The default number of documents in the snapshot. */
+    private static final int DEFAULT_SIZE = 100;
+
+    /** The default interval between two snapshots, in seconds. */
+    private static final long DEFAULT_INTERVAL = 60;
+
+    /** The maximum number of documents whose accesses are counted, relative to the size of the snapshot. */
+    private static final int TRACKED_FACTOR = 10;
+
+    /** The default time the requests wait for the documents of the snapshot to be loaded, in seconds. */
+    private static final long DEFAULT_TIMEOUT = 60;
+
+    /** The prefix of the configuration properties. */
+    private static final String PREFIX = "cluster.warmstart.";
+
+    /** Used to read the configuration. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Used to locate the default snapshot file. */
+    @Inject
+    private Environment environment;
+
+    /** Used to get the current document and to load the documents of the snapshot. */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /** Used to write the snapshot. */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /** Used to read the snapshot. */
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    /** The logger to log. */
+    @Inject
+    private Logger logger;
+
+    /** Whether the warm start is enabled. */
+    private boolean enabled;
+
+    /** The snapshot file. */
+    private File file;
+
+    /** The number of documents in the snapshot. */
+    private int size;
+
+    /** How long the requests wait for the documents of the snapshot to be loaded, in seconds. */
+    private long timeout;
+
+    /** Whether a request started loading the documents of the snapshot. */
+    private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+
+    /** Released once the documents of the snapshot are loaded. */
+    private final CountDownLatch warmUpDone = new CountDownLatch(1);
+
+    /** The number of accesses of the tracked documents, guarded by itself. */
+    private final Map<DocumentReference, Long> accesses = new HashMap<DocumentReference, Long>();
+
+    /** Saves the snapshot regularly. */
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.enabled = this.configuration.getProperty(PREFIX + "enabled", Boolean.FALSE);
+        if (!this.enabled) {
+            return;
+        }
+
+        String path = this.configuration.getProperty(PREFIX + "file", String.class);
+        this.file =
+            path != null ? new File(path) : new File(this.environment.getPermanentDirectory(), "cluster/warmstart.txt");
+        this.size = this.configuration.getProperty(PREFIX + "size", DEFAULT_SIZE);
+        this.timeout = this.configuration.getProperty(PREFIX + "timeout", DEFAULT_TIMEOUT);
+
+        long interval = this.configuration.getProperty(PREFIX + "interval", DEFAULT_INTERVAL);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "Warm start");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                saveSnapshot();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.enabled) {
+            this.scheduler.shutdownNow();
+            saveSnapshot();
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ActionExecutingEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (!this.enabled) {
+            return;
+        }
+
+        if (this.warmUpStarted.compareAndSet(false, true)) {
+            warmUp((XWikiContext) data);
+        } else {
+            awaitWarmUp();
+        }
+
+        DocumentReference reference = this.documentAccessBridge.getCurrentDocumentReference();
+        if (reference != null) {
+            recordAccess(reference);
+        }
+    }
+
+    /**
+     * Counts an access to a document.
+     *
+     * @param reference the accessed document
+     */
+    private void recordAccess(DocumentReference reference)
+    {
+        synchronized (this.accesses) {
+            Long count = this.accesses.get(reference);
+            if (count == null && this.accesses.size() >= this.size * TRACKED_FACTOR) {
+                count = evictLeastAccessed();
+            }
+            this.accesses.put(reference, count != null ? count + 1 : 1L);
+        }
+    }
+
+    /**
+     * Stops tracking the least accessed document. Must be called while holding the lock of {@link #accesses}.
+     *
+     * @return the number of accesses of the evicted document
+     */
+    private Long evictLeastAccessed()
+    {
+        Map.Entry<DocumentReference, Long> least = null;
+        for (Map.Entry<DocumentReference, Long> entry : this.accesses.entrySet()) {
+            if (least == null || entry.getValue() < least.getValue()) {
+                least = entry;
+            }
+        }
+        this.accesses.remove(least.getKey());
+
+        return least.getValue();
+    }
+
+    /**
+     * Loads the documents of the snapshot, then starts counting the documents loaded in the document cache. Called by
+     * the first request handled by an action, the wiki being initialized by then.
+     *
+     * @param context the XWiki context of the request
+     */
+    private void warmUp(XWikiContext context)
+    {
+        try {
+            loadSnapshot();
+            // Only now so that the documents of the snapshot are not counted.
+            trackDocumentLoads(context);
+        } finally {
+            this.warmUpDone.countDown();
+        }
+    }
+
+    /**
+     * Waits until the documents of the snapshot are loaded, at most the configured timeout.
+     */
+    private void awaitWarmUp()
+    {
+        try {
+            if (!this.warmUpDone.await(this.timeout, TimeUnit.SECONDS)) {
+                this.logger.warn("Serving the request before the end of the warm start, which takes more than [{}] s",
+                    this.timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts the documents loaded in the document cache, which includes the documents read by requests that are not
+     * handled by an action, e.g. REST requests.
+     *
+     * @param context the XWiki context
+     */
+    private void trackDocumentLoads(XWikiContext context)
+    {
+        XWikiStoreInterface store = context.getWiki().getStore();
+        if (!(store instanceof XWikiCacheStore)) {
+            this.logger.info("The document cache is disabled, only the documents displayed by actions are counted");
+            return;
+        }
+
+        ((XWikiCacheStore) store).getCache().addCacheEntryListener(new CacheEntryListener<XWikiDocument>()
+        {
+            @Override
+            public void cacheEntryAdded(CacheEntryEvent<XWikiDocument> event)
+            {
+                recordLoad(event.getEntry().getValue());
+            }
+
+            @Override
+            public void cacheEntryModified(CacheEntryEvent<XWikiDocument> event)
+            {
+                recordLoad(event.getEntry().getValue());
+            }
+
+            @Override
+            public void cacheEntryRemoved(CacheEntryEvent<XWikiDocument> event)
+            {
+                // Removed documents keep their count.
+            }
+        });
+    }
+
+    /**
+     * Counts a document loaded in the document cache.
+     *
+     * @param document the loaded document
+     */
+    private void recordLoad(XWikiDocument document)
+    {
+        // The cache also remembers the documents that don't exist.
+        if (document != null && !document.isNew()) {
+            recordAccess(document.getDocumentReference());
+        }
+    }
+
+    /**
+     * Loads the documents of the snapshot.
+     */
+    private void loadSnapshot()
+    {
+        try {
+            if (this.file.exists()) {
+                long start = System.currentTimeMillis();
+                int loaded = 0;
+                for (String line : FileUtils.readLines(this.file, "UTF-8")) {
+                    if (line.trim().length() > 0 && loaded < this.size) {
+                        try {
+                            this.documentAccessBridge.getDocument(this.resolver.resolve(line.trim()));
+                            loaded++;
+                        } catch (Exception e) {
+                            this.logger.warn("Failed to load document [{}] during the warm start: {}", line,
+                                e.getMessage());
+                        }
+                    }
+                }
+                this.logger.info("Loaded [{}] documents from [{}] in [{}] ms", loaded, this.file,
+                    System.currentTimeMillis() - start);
+            }
+        } catch (IOException e) {
+            this.logger.error("Failed to read the warm start snapshot [{}]", this.file, e);
+        }
+    }
+
+    /**
+     * Saves the most accessed documents in the snapshot file and halves the counts.
+     */
+    private void saveSnapshot()
+    {
+        List<Map.Entry<DocumentReference, Long>> entries;
+        synchronized (this.accesses) {
+            if (this.accesses.isEmpty()) {
+                // Keep the snapshot of the previous run, or of the peers, until this node served some documents.
+                return;
+            }
+
+            entries = new ArrayList<Map.Entry<DocumentReference, Long>>();
+            Iterator<Map.Entry<DocumentReference, Long>> iterator = this.accesses.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<DocumentReference, Long> entry = iterator.next();
+                entries.add(new SimpleImmutableEntry<DocumentReference, Long>(entry));
+                if (entry.getValue() > 1) {
+                    entry.setValue(entry.getValue() / 2);
+                } else {
+                    iterator.remove();
+                }
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Map.Entry<DocumentReference, Long>>()
+        {
+            @Override
+            public int compare(Map.Entry<DocumentReference, Long> entry1, Map.Entry<DocumentReference, Long> entry2)
+            {
+                return entry2.getValue().compareTo(entry1.getValue());
+            }
+        });
+
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<DocumentReference, Long> entry : entries.subList(0, Math.min(this.size, entries.size()))) {
+            lines.add(this.serializer.serialize(entry.getKey()));
+        }
+
+        try {
+            writeSnapshot(lines);
+        } catch (IOException e) {
+            this.logger.error("Failed to save the warm start snapshot [{}]", this.file, e);
+        }
+    }
+
+    /**
+     * Replaces the snapshot file. The lines are written in a temporary file, unique to this node since the snapshot
+     * file can be shared, which is then renamed so that a starting node never reads a partial snapshot.
+     *
+     * @param lines the lines of the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void writeSnapshot(List<String> lines) throws IOException
+    {
+        File directory = this.file.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        File temporaryFile = File.createTempFile(this.file.getName() + '.', ".tmp", directory);
+        try {
+            FileUtils.writeLines(temporaryFile, "UTF-8", lines);
+            // The rename replaces the snapshot atomically on POSIX filesystems but fails on Windows if the snapshot
+            // exists, in which case the snapshot is deleted first (a starting node then simply finds no snapshot).
+            if (!temporaryFile.renameTo(this.file) && !(this.file.delete() && temporaryFile.renameTo(this.file))) {
+                throw new IOException(String.format("Failed to rename [%s] to [%s]", temporaryFile, this.file));
+            }
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                this.logger.warn("Failed to delete the temporary warm start snapshot [{}]", temporaryFile);
+            }
+        }
+    }
+}
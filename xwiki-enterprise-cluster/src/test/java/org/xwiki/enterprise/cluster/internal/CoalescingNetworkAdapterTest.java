@@ -0,0 +1,319 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.cluster.internal;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.remote.NetworkAdapter;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CoalescingNetworkAdapter}.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class CoalescingNetworkAdapterTest
+{
+    /** Long enough for the windows to never end during a test, unless flushed. */
+    private static final long WINDOW = 60000L;
+
+    @Rule
+    public final MockitoComponentMockingRule<NetworkAdapter> mocker =
+        new MockitoComponentMockingRule<NetworkAdapter>(CoalescingNetworkAdapter.class);
+
+    private NetworkAdapter jgroups;
+
+    private CoalescingNetworkAdapter adapter;
+
+    private final DocumentReference reference = new DocumentReference("wiki", "Space", "Page");
+
+    @Before
+    public void setUp() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("observation.remote.coalescing.window", 200L)).thenReturn(WINDOW);
+        when(configuration.getProperty("observation.remote.coalescing.networkadapter", "jgroups")).thenReturn(
+            "jgroups");
+        this.jgroups = this.mocker.registerMockComponent(NetworkAdapter.class, "jgroups");
+
+        this.adapter = (CoalescingNetworkAdapter) this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void sendFirstUpdateRightAway() throws Exception
+    {
+        RemoteEventData update = createUpdate(this.reference, "");
+
+        this.adapter.send(update);
+
+        verify(this.jgroups).send(update);
+        Assert.assertEquals(1, this.adapter.getSentEventCount());
+    }
+
+    @Test
+    public void sendOnlyLastUpdateOfWindow() throws Exception
+    {
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+        RemoteEventData third = createUpdate(this.reference, "");
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+        this.adapter.send(third);
+        verify(this.jgroups, never()).send(third);
+
+        this.adapter.stopAllChannels();
+
+        InOrder order = inOrder(this.jgroups);
+        order.verify(this.jgroups).send(first);
+        order.verify(this.jgroups).send(third);
+        verify(this.jgroups, never()).send(second);
+        Assert.assertEquals(3, this.adapter.getSubmittedEventCount());
+        Assert.assertEquals(2, this.adapter.getSentEventCount());
+    }
+
+    @Test
+    public void sendLastUpdateAtEndOfWindow() throws Exception
+    {
+        this.adapter.setWindow(50);
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+
+        verify(this.jgroups).send(first);
+        verify(this.jgroups, timeout(10000)).send(second);
+    }
+
+    @Test
+    public void doNotMergeTranslations() throws Exception
+    {
+        RemoteEventData defaultUpdate = createUpdate(this.reference, "");
+        RemoteEventData frenchUpdate = createUpdate(this.reference, "fr");
+        RemoteEventData lastDefaultUpdate = createUpdate(this.reference, "");
+        RemoteEventData lastFrenchUpdate = createUpdate(this.reference, "fr");
+
+        this.adapter.send(defaultUpdate);
+        this.adapter.send(frenchUpdate);
+        this.adapter.send(lastFrenchUpdate);
+        this.adapter.send(lastDefaultUpdate);
+
+        verify(this.jgroups).send(defaultUpdate);
+        verify(this.jgroups).send(frenchUpdate);
+
+        this.adapter.stopAllChannels();
+
+        verify(this.jgroups).send(lastDefaultUpdate);
+        verify(this.jgroups).send(lastFrenchUpdate);
+    }
+
+    @Test
+    public void doNotMergeDifferentDocuments() throws Exception
+    {
+        RemoteEventData update = createUpdate(this.reference, "");
+        RemoteEventData otherUpdate = createUpdate(new DocumentReference("wiki", "Space", "Other"), "");
+
+        this.adapter.send(update);
+        this.adapter.send(otherUpdate);
+
+        verify(this.jgroups).send(update);
+        verify(this.jgroups).send(otherUpdate);
+    }
+
+    @Test
+    public void doNotMergeUpdatesWithUnknownSource() throws Exception
+    {
+        RemoteEventData first = new RemoteEventData(new DocumentUpdatedEvent(this.reference), "source", null);
+        RemoteEventData second = new RemoteEventData(new DocumentUpdatedEvent(this.reference), "source", null);
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+
+        verify(this.jgroups).send(first);
+        verify(this.jgroups).send(second);
+    }
+
+    @Test
+    public void sendMergedUpdatesBeforeOtherEvents() throws Exception
+    {
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+        RemoteEventData deletion =
+            new RemoteEventData(new DocumentDeletedEvent(this.reference), createSource(""), null);
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+        this.adapter.send(deletion);
+
+        InOrder order = inOrder(this.jgroups);
+        order.verify(this.jgroups).send(first);
+        order.verify(this.jgroups).send(second);
+        order.verify(this.jgroups).send(deletion);
+    }
+
+    @Test
+    public void keepWindowsOfOtherDocumentsOpen() throws Exception
+    {
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+        RemoteEventData deletion = new RemoteEventData(
+            new DocumentDeletedEvent(new DocumentReference("wiki", "Space", "Other")), createSource(""), null);
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+        this.adapter.send(deletion);
+
+        verify(this.jgroups).send(first);
+        verify(this.jgroups).send(deletion);
+        verify(this.jgroups, never()).send(second);
+
+        this.adapter.stopAllChannels();
+
+        verify(this.jgroups).send(second);
+    }
+
+    @Test
+    public void sendMergedUpdatesBeforeWikiEvents() throws Exception
+    {
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+        RemoteEventData otherWikiFirst = createUpdate(new DocumentReference("otherwiki", "Space", "Page"), "");
+        RemoteEventData otherWikiSecond = createUpdate(new DocumentReference("otherwiki", "Space", "Page"), "");
+        RemoteEventData deletion = new RemoteEventData(new WikiDeletedEvent("wiki"), "source", null);
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+        this.adapter.send(otherWikiFirst);
+        this.adapter.send(otherWikiSecond);
+        this.adapter.send(deletion);
+
+        InOrder order = inOrder(this.jgroups);
+        order.verify(this.jgroups).send(first);
+        order.verify(this.jgroups).send(second);
+        order.verify(this.jgroups).send(deletion);
+        verify(this.jgroups, never()).send(otherWikiSecond);
+    }
+
+    @Test
+    public void sendAllMergedUpdatesBeforeEventsWithUnknownTarget() throws Exception
+    {
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+        RemoteEventData otherFirst = createUpdate(new DocumentReference("otherwiki", "Space", "Other"), "");
+        RemoteEventData otherSecond = createUpdate(new DocumentReference("otherwiki", "Space", "Other"), "");
+        RemoteEventData unknown = new RemoteEventData(new DocumentUpdatedEvent(), "source", null);
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+        this.adapter.send(otherFirst);
+        this.adapter.send(otherSecond);
+        this.adapter.send(unknown);
+
+        InOrder order = inOrder(this.jgroups);
+        order.verify(this.jgroups).send(second);
+        order.verify(this.jgroups).send(unknown);
+        order = inOrder(this.jgroups);
+        order.verify(this.jgroups).send(otherSecond);
+        order.verify(this.jgroups).send(unknown);
+    }
+
+    @Test
+    public void sendEverythingWithoutWindow() throws Exception
+    {
+        this.adapter.setWindow(0);
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+
+        verify(this.jgroups).send(first);
+        verify(this.jgroups).send(second);
+    }
+
+    @Test
+    public void doNotCountFailedSends() throws Exception
+    {
+        RemoteEventData update = createUpdate(this.reference, "");
+        RuntimeException exception = new RuntimeException();
+        doThrow(exception).when(this.jgroups).send(update);
+
+        this.adapter.send(update);
+
+        Assert.assertEquals(1, this.adapter.getSubmittedEventCount());
+        Assert.assertEquals(0, this.adapter.getSentEventCount());
+        verify(this.mocker.getMockedLogger()).error(eq("Failed to send remote event [{}]"), same(update),
+            any(RuntimeException.class));
+    }
+
+    @Test
+    public void flushOnDispose() throws Exception
+    {
+        RemoteEventData first = createUpdate(this.reference, "");
+        RemoteEventData second = createUpdate(this.reference, "");
+
+        this.adapter.send(first);
+        this.adapter.send(second);
+        this.adapter.dispose();
+
+        verify(this.jgroups).send(second);
+    }
+
+    private RemoteEventData createUpdate(DocumentReference documentReference, String language)
+    {
+        return new RemoteEventData(new DocumentUpdatedEvent(documentReference), createSource(language), null);
+    }
+
+    /**
+     * @return the document as serialized by the remote observation manager
+     */
+    private HashMap<String, Serializable> createSource(String language)
+    {
+        HashMap<String, Serializable> source = new HashMap<String, Serializable>();
+        source.put("docname", this.reference.getName());
+        source.put("doclanguage", language);
+
+        return source;
+    }
+}
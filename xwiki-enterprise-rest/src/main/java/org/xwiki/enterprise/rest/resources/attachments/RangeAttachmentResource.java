@@ -0,0 +1,247 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.rest.resources.attachments;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Named;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.rest.resources.attachments.AttachmentResource;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.api.Attachment;
+
+/**
+ * Replaces the attachment resource of the platform to support conditional and partial downloads: the attachment is
+ * returned with an {@code ETag} and a {@code Last-Modified} header, {@code If-None-Match} and
+ * {@code If-Modified-Since} requests get a {@code 304} answer when the attachment didn't change, and a single
+ * {@code Range} of bytes (optionally guarded by {@code If-Range}) gets a {@code 206} answer holding only the requested
+ * bytes. The attachment content is streamed instead of being loaded in memory, and the bytes before the requested
+ * range are skipped rather than read when the store allows it (e.g. files of the filesystem attachment store).
+ * <p>
+ * Requests for several ranges at once are answered with the whole attachment, as allowed by the HTTP specification.
+ * Uploading and deleting attachments is left to the platform resource.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+@Component
+@Named("org.xwiki.rest.resources.attachments.AttachmentResource")
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+@Path("/wikis/{wikiName}/spaces/{spaceName}/pages/{pageName}/attachments/{attachmentName}")
+public class RangeAttachmentResource extends AttachmentResource
+{
+    /** The status of a response holding a range of the attachment, missing from {@link Status}. */
+    private static final int PARTIAL_CONTENT = 206;
+
+    /** The status of a response to a range starting after the end of the attachment, missing from {@link Status}. */
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+    /** The only range unit supported. */
+    private static final String BYTES = "bytes";
+
+    /** Parses a single byte range, the multiple ranges requests don't match. */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    /** The format of the HTTP dates. */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /** Used to evaluate the {@code If-None-Match} and {@code If-Modified-Since} headers. */
+    @Context
+    private Request request;
+
+    /** Used to read the {@code Range} and {@code If-Range} headers. */
+    @Context
+    private HttpHeaders headers;
+
+    @GET
+    @Override
+    public Response getAttachment(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
+        @PathParam("pageName") String pageName, @PathParam("attachmentName") String attachmentName)
+        throws XWikiException
+    {
+        DocumentInfo documentInfo = getDocumentInfo(wikiName, spaceName, pageName, null, null, true, false);
+        Attachment attachment = documentInfo.getDocument().getAttachment(attachmentName);
+        if (attachment == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+
+        // HTTP dates have a precision of one second.
+        Date lastModified = new Date(attachment.getDate().getTime() / 1000 * 1000);
+        // The version alone is not enough since it starts again from 1.1 when the attachment is deleted and uploaded
+        // again.
+        EntityTag entityTag = new EntityTag(attachment.getVersion() + '-' + attachment.getDate().getTime());
+
+        ResponseBuilder builder = this.request.evaluatePreconditions(lastModified, entityTag);
+        if (builder != null) {
+            // 304 Not Modified
+            return builder.tag(entityTag).lastModified(lastModified).build();
+        }
+
+        long size = attachment.getFilesize();
+        long[] range = getRange(size, entityTag, lastModified);
+        if (range == null) {
+            builder = Response.ok(attachment.getContentInputStream());
+        } else if (range.length == 0) {
+            return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header("Content-Range", String.format("%s */%d", BYTES, size)).build();
+        } else {
+            InputStream content = skip(attachment.getContentInputStream(), range[0]);
+            builder =
+                Response.status(PARTIAL_CONTENT).entity(new BoundedInputStream(content, range[1] - range[0] + 1))
+                    .header("Content-Range", String.format("%s %d-%d/%d", BYTES, range[0], range[1], size));
+        }
+
+        return builder.type(attachment.getMimeType()).tag(entityTag).lastModified(lastModified)
+            .header("Accept-Ranges", BYTES).build();
+    }
+
+    /**
+     * @param size the size of the attachment
+     * @param entityTag the entity tag of the attachment
+     * @param lastModified the date of the attachment
+     * @return the first and last positions of the requested range (both included), an empty array if the range
+     *         starts after the end of the attachment, or {@code null} if the whole attachment should be returned
+     */
+    private long[] getRange(long size, EntityTag entityTag, Date lastModified)
+    {
+        List<String> values = this.headers.getRequestHeader("Range");
+        if (values == null || values.size() != 1 || !isIfRangeMatching(entityTag, lastModified)) {
+            return null;
+        }
+
+        Matcher matcher = RANGE_PATTERN.matcher(values.get(0).trim());
+        if (!matcher.matches()) {
+            // Other units or several ranges: ignore the header.
+            return null;
+        }
+
+        try {
+            String first = matcher.group(1);
+            String last = matcher.group(2);
+            if (first.isEmpty()) {
+                // Suffix range: the last bytes of the attachment.
+                long length = last.isEmpty() ? 0 : Long.parseLong(last);
+                if (length == 0) {
+                    return last.isEmpty() ? null : new long[0];
+                }
+
+                return size == 0 ? new long[0] : new long[] {Math.max(size - length, 0), size - 1};
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+            if (end < start) {
+                // Syntactically invalid, ignore the header.
+                return null;
+            }
+
+            return start >= size ? new long[0] : new long[] {start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            // Too large to be a position in the attachment.
+            return null;
+        }
+    }
+
+    /**
+     * @param entityTag the entity tag of the attachment
+     * @param lastModified the date of the attachment
+     * @return {@code true} if there is no {@code If-Range} header or if it matches the attachment, i.e. if the
+     *         {@code Range} header can be taken into account
+     */
+    private boolean isIfRangeMatching(EntityTag entityTag, Date lastModified)
+    {
+        String ifRange = this.headers.getRequestHeaders().getFirst("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Only strong entity tags match.
+            return ifRange.equals(entityTag.toString());
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(ifRange).getTime() == lastModified.getTime();
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Moves the content of the attachment to the start of the requested range. {@link InputStream#skip(long)} is
+     * used so that file streams move their position instead of reading the skipped bytes.
+     *
+     * @param content the content of the attachment
+     * @param offset the number of bytes to skip
+     * @return the content of the attachment, positioned at the given offset
+     */
+    private InputStream skip(InputStream content, long offset)
+    {
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = content.skip(remaining);
+                if (skipped <= 0) {
+                    // Some streams only skip what is buffered, make progress by reading.
+                    if (content.read() < 0) {
+                        throw new EOFException(String.format("The attachment is shorter than [%d] bytes", offset));
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            IOUtils.closeQuietly(content);
+            throw new WebApplicationException(e, Status.INTERNAL_SERVER_ERROR);
+        }
+
+        return content;
+    }
+}
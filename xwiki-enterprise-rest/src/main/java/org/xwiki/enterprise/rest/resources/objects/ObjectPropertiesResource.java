@@ -0,0 +1,209 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.rest.resources.objects;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.rest.Utils;
+import org.xwiki.rest.XWikiResource;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.api.Document;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Updates the properties of many objects of a page at once, with a single save and thus a single new revision of the
+ * page, instead of one {@code PUT} (and one revision) per property with the {@code ObjectPropertyResource}.
+ * <p>
+ * The properties are sent as a form, using the same field names as the object editor:
+ * {@code <className>_<objectNumber>_<propertyName>=<value>}. Either all the properties are updated or none is: the
+ * request fails with {@code 404} if an object doesn't exist and with {@code 400} if a field name is malformed or if a
+ * property is not defined by the class of its object.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+@Component
+@Named("org.xwiki.enterprise.rest.resources.objects.ObjectPropertiesResource")
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+@Path("/wikis/{wikiName}/spaces/{spaceName}/pages/{pageName}/objectproperties")
+public class ObjectPropertiesResource extends XWikiResource
+{
+    /** Parses the form field names, the class name itself can contain underscores. */
+    private static final Pattern FIELD_PATTERN = Pattern.compile("^(.+?)_(\\d+)_(.+)$");
+
+    /** Used to resolve the class names relative to the updated page. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    /**
+     * @param wikiName the wiki of the page
+     * @param spaceName the space of the page
+     * @param pageName the name of the page
+     * @param comment the comment of the new revision
+     * @param minorRevision whether the new revision is a minor one
+     * @param form the new values of the properties
+     * @return {@code 202} once the page is saved
+     * @throws XWikiException if loading or saving the page fails
+     */
+    @PUT
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    public Response updateProperties(@PathParam("wikiName") String wikiName,
+        @PathParam("spaceName") String spaceName, @PathParam("pageName") String pageName,
+        @QueryParam("comment") @DefaultValue("") String comment,
+        @QueryParam("minorRevision") @DefaultValue("false") Boolean minorRevision,
+        MultivaluedMap<String, String> form) throws XWikiException
+    {
+        DocumentInfo documentInfo = getDocumentInfo(wikiName, spaceName, pageName, null, null, true, true);
+        Document doc = documentInfo.getDocument();
+
+        if (!doc.hasAccessLevel("edit", Utils.getXWikiUser(this.componentManager))) {
+            throw new WebApplicationException(Status.UNAUTHORIZED);
+        }
+
+        Map<ObjectKey, Map<String, String>> changes = parse(form);
+        if (changes.isEmpty()) {
+            throw new WebApplicationException(Status.BAD_REQUEST);
+        }
+
+        XWikiContext context = Utils.getXWikiContext(this.componentManager);
+        XWiki xwiki = Utils.getXWiki(this.componentManager);
+        // Work on a copy so that nothing is left modified in the document cache if a change is rejected.
+        XWikiDocument xwikiDocument = xwiki.getDocument(doc.getDocumentReference(), context).clone();
+
+        for (Map.Entry<ObjectKey, Map<String, String>> entry : changes.entrySet()) {
+            DocumentReference classReference = this.resolver.resolve(entry.getKey().className);
+            BaseObject baseObject = xwikiDocument.getXObject(classReference, entry.getKey().number);
+            if (baseObject == null) {
+                throw new WebApplicationException(Status.NOT_FOUND);
+            }
+            for (Map.Entry<String, String> property : entry.getValue().entrySet()) {
+                if (baseObject.getXClass(context).get(property.getKey()) == null) {
+                    throw new WebApplicationException(Status.BAD_REQUEST);
+                }
+                baseObject.set(property.getKey(), property.getValue(), context);
+            }
+        }
+
+        xwikiDocument.setAuthorReference(context.getUserReference());
+        xwiki.saveDocument(xwikiDocument, comment, minorRevision, context);
+
+        return Response.status(Status.ACCEPTED).build();
+    }
+
+    /**
+     * @param form the submitted form
+     * @return the new property values, indexed by object
+     */
+    private Map<ObjectKey, Map<String, String>> parse(MultivaluedMap<String, String> form)
+    {
+        Map<ObjectKey, Map<String, String>> changes = new LinkedHashMap<ObjectKey, Map<String, String>>();
+        for (Map.Entry<String, List<String>> field : form.entrySet()) {
+            Matcher matcher = FIELD_PATTERN.matcher(field.getKey());
+            if (!matcher.matches() || field.getValue().isEmpty()) {
+                throw new WebApplicationException(Status.BAD_REQUEST);
+            }
+
+            int number;
+            try {
+                number = Integer.parseInt(matcher.group(2));
+            } catch (NumberFormatException e) {
+                // Too large to be an object number.
+                throw new WebApplicationException(Status.BAD_REQUEST);
+            }
+
+            ObjectKey key = new ObjectKey(matcher.group(1), number);
+            Map<String, String> properties = changes.get(key);
+            if (properties == null) {
+                properties = new LinkedHashMap<String, String>();
+                changes.put(key, properties);
+            }
+            properties.put(matcher.group(3), field.getValue().get(0));
+        }
+
+        return changes;
+    }
+
+    /**
+     * Identifies an object of the updated page.
+     */
+    private static final class ObjectKey
+    {
+        /** The class of the object. */
+        private final String className;
+
+        /** The number of the object. */
+        private final int number;
+
+        /**
+         * @param className the class of the object
+         * @param number the number of the object
+         */
+        ObjectKey(String className, int number)
+        {
+            this.className = className;
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof ObjectKey)) {
+                return false;
+            }
+            ObjectKey other = (ObjectKey) object;
+
+            return this.number == other.number && this.className.equals(other.className);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * this.className.hashCode() + this.number;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+
+import org.apache.commons.io.FileUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Locates and moves the files of the stores of this module.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public final class AttachmentFiles
+{
+    /** The encoding of the file names. */
+    private static final String ENCODING = "UTF-8";
+
+    /** How many times a file is renamed before being copied, see {@link #move(File, File)}. */
+    private static final int MOVE_ATTEMPTS = 5;
+
+    /** How long to wait before renaming a file again, in milliseconds. */
+    private static final long MOVE_RETRY_DELAY = 50;
+
+    /** Utility class. */
+    private AttachmentFiles()
+    {
+    }
+
+    /**
+     * @param environment the environment providing the permanent directory
+     * @return the directory holding the files of the stores of this module, next to the ones of the filesystem
+     *         attachment store
+     */
+    public static File getStorageDirectory(Environment environment)
+    {
+        return new File(new File(environment.getPermanentDirectory(), "storage"), "~dedup");
+    }
+
+    /**
+     * @param root the directory holding the files of all the attachments
+     * @param attachment an attachment
+     * @return the file of the attachment, in one directory per wiki, space and page
+     * @throws IOException if the names cannot be encoded
+     */
+    public static File getAttachmentFile(File root, XWikiAttachment attachment) throws IOException
+    {
+        DocumentReference documentReference = attachment.getDoc().getDocumentReference();
+        File directory = new File(root, encode(documentReference.getWikiReference().getName()));
+        directory = new File(directory, encode(documentReference.getLastSpaceReference().getName()));
+        directory = new File(directory, encode(documentReference.getName()));
+
+        return new File(directory, encode(attachment.getFilename()));
+    }
+
+    /**
+     * Moves a file, replacing the target file if it exists. The rename replaces the target atomically on POSIX
+     * filesystems but fails on Windows when the target exists, or is open, in which case the target is deleted and
+     * the rename is tried again a few times before the file is copied over the target as a last resort.
+     *
+     * @param source the file to move
+     * @param target the file to replace
+     * @throws IOException if the file cannot be moved
+     */
+    public static void move(File source, File target) throws IOException
+    {
+        for (int attempt = 0; attempt < MOVE_ATTEMPTS; attempt++) {
+            if (source.renameTo(target) || (target.delete() && source.renameTo(target))) {
+                return;
+            }
+            try {
+                Thread.sleep(MOVE_RETRY_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        FileUtils.copyFile(source, target);
+        FileUtils.deleteQuietly(source);
+    }
+
+    /**
+     * @param name a wiki, space, page or attachment name
+     * @return the name, safe to be used as a file name
+     * @throws IOException if the encoding is not supported
+     */
+    private static String encode(String name) throws IOException
+    {
+        // URL encoding keeps '.' which must not be used alone as a file name.
+        return URLEncoder.encode(name, ENCODING).replace(".", "%2E");
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.suigeneris.jrcs.rcs.Archive;
+import org.suigeneris.jrcs.rcs.Version;
+import org.suigeneris.jrcs.util.ToString;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+
+/**
+ * The history of an attachment stored by the {@link CompressedAttachmentVersioningStore}: only the metadata of the
+ * revisions is loaded, the content of a revision is read from its own file when the revision is requested. The
+ * revisions added since the history was loaded are kept in memory until they are saved.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class CompressedAttachmentArchive extends XWikiAttachmentArchive
+{
+    /** The directory holding the files of the revisions. */
+    private final File directory;
+
+    /** The revisions, oldest first. */
+    private final List<Revision> revisions;
+
+    /** How many of the revisions are already saved, the others are new. */
+    private int savedRevisions;
+
+    /**
+     * @param attachment the attachment this history belongs to
+     * @param directory the directory holding the files of the revisions
+     * @param revisions the saved revisions, oldest first
+     */
+    public CompressedAttachmentArchive(XWikiAttachment attachment, File directory, List<Revision> revisions)
+    {
+        setAttachment(attachment);
+        this.directory = directory;
+        this.revisions = new ArrayList<Revision>(revisions);
+        this.savedRevisions = revisions.size();
+    }
+
+    /**
+     * @return the directory holding the files of the revisions
+     */
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * @return all the revisions, oldest first
+     */
+    public List<Revision> getRevisions()
+    {
+        return new ArrayList<Revision>(this.revisions);
+    }
+
+    /**
+     * @return the revisions added since the history was loaded or saved, oldest first
+     */
+    public List<Revision> getNewRevisions()
+    {
+        return new ArrayList<Revision>(this.revisions.subList(this.savedRevisions, this.revisions.size()));
+    }
+
+    /**
+     * Marks all the revisions as saved.
+     */
+    public void setSaved()
+    {
+        this.savedRevisions = this.revisions.size();
+    }
+
+    @Override
+    public void updateArchive(byte[] data, XWikiContext context) throws XWikiException
+    {
+        XWikiAttachment attachment = getAttachment();
+        attachment.incrementVersion();
+        attachment.setDate(new Date());
+        this.revisions.add(new Revision(attachment, data != null ? data : attachment.getContent(context)));
+    }
+
+    @Override
+    public Version[] getVersions()
+    {
+        Version[] versions = new Version[this.revisions.size()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = new Version(this.revisions.get(i).getVersion());
+        }
+
+        return versions;
+    }
+
+    @Override
+    public XWikiAttachment getRevision(XWikiAttachment attachment, String rev, XWikiContext context)
+        throws XWikiException
+    {
+        for (Revision revision : this.revisions) {
+            if (revision.getVersion().equals(rev)) {
+                try {
+                    return revision.toAttachment(attachment, this.directory);
+                } catch (IOException e) {
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                        XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_ATTACHMENT, String.format(
+                            "Failed to load revision [%s] of attachment [%s] of document [%s]", rev,
+                            attachment.getFilename(), attachment.getDoc().getDocumentReference()), e);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Builds the archive in the format of the database versioning store, which loads the content of every revision.
+     * Only used to export the history of the attachment.
+     *
+     * @param context the XWiki context
+     * @return the archive of all the revisions
+     * @throws XWikiException if a revision cannot be loaded
+     */
+    @Override
+    public byte[] getArchive(XWikiContext context) throws XWikiException
+    {
+        try {
+            Archive archive = null;
+            for (Revision revision : this.revisions) {
+                XWikiAttachment attachment = revision.toAttachment(getAttachment(), this.directory);
+                Object[] lines = ToString.stringToArray(attachment.toStringXML(true, false, context));
+                if (archive == null) {
+                    archive = new Archive(lines, attachment.getFilename(), attachment.getVersion());
+                } else {
+                    archive.addRevision(lines, "");
+                }
+            }
+
+            return archive == null ? new byte[0] : archive.toByteArray();
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_ATTACHMENT_ARCHIVEFORMAT, String.format(
+                    "Failed to export the history of attachment [%s]", getAttachment().getFilename()), e);
+        }
+    }
+
+    @Override
+    public Object clone()
+    {
+        CompressedAttachmentArchive archive = new CompressedAttachmentArchive(getAttachment(), this.directory,
+            this.revisions);
+        archive.savedRevisions = this.savedRevisions;
+
+        return archive;
+    }
+
+    /**
+     * The metadata of a revision of an attachment, stored as one line of the index of the history, and the content of
+     * the revision until it is saved.
+     */
+    public static class Revision
+    {
+        /** The separator of the fields in the index. */
+        private static final String SEPARATOR = "\t";
+
+        /** The number of fields in the index. */
+        private static final int FIELDS = 5;
+
+        /** The encoding of the author and the comment in the index. */
+        private static final String ENCODING = "UTF-8";
+
+        /** The version of the attachment. */
+        private final String version;
+
+        /** The date of the revision, in milliseconds. */
+        private final long date;
+
+        /** The size of the content. */
+        private final int filesize;
+
+        /** The author of the revision. */
+        private final String author;
+
+        /** The comment of the revision. */
+        private final String comment;
+
+        /** The content of the revision, {@code null} once it is saved. */
+        private final byte[] content;
+
+        /**
+         * @param attachment the attachment, at the version of the revision
+         * @param content the content of the revision, {@code null} if it is already saved
+         */
+        public Revision(XWikiAttachment attachment, byte[] content)
+        {
+            this(attachment.getVersion(), attachment.getDate().getTime(), attachment.getFilesize(),
+                attachment.getAuthor(), attachment.getComment(), content);
+        }
+
+        /**
+         * @param version the version of the attachment
+         * @param date the date of the revision, in milliseconds
+         * @param filesize the size of the content
+         * @param author the author of the revision
+         * @param comment the comment of the revision
+         * @param content the content of the revision, {@code null} if it is already saved
+         */
+        private Revision(String version, long date, int filesize, String author, String comment, byte[] content)
+        {
+            this.version = version;
+            this.date = date;
+            this.filesize = filesize;
+            this.author = author;
+            this.comment = comment;
+            this.content = content;
+        }
+
+        /**
+         * @param line a line of the index
+         * @return the revision, {@code null} if the line is incomplete, e.g. when the server stopped while writing it
+         * @throws IOException if the encoding is not supported
+         */
+        public static Revision parse(String line) throws IOException
+        {
+            String[] fields = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+            if (fields.length != FIELDS) {
+                return null;
+            }
+
+            try {
+                return new Revision(fields[0], Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+                    URLDecoder.decode(fields[3], ENCODING), URLDecoder.decode(fields[4], ENCODING), null);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the line of the index describing this revision
+         * @throws UnsupportedEncodingException if the encoding is not supported
+         */
+        public String format() throws UnsupportedEncodingException
+        {
+            return StringUtils.join(new Object[] {this.version, this.date, this.filesize,
+                URLEncoder.encode(StringUtils.defaultString(this.author), ENCODING),
+                URLEncoder.encode(StringUtils.defaultString(this.comment), ENCODING)}, SEPARATOR);
+        }
+
+        /**
+         * @return the version of the attachment
+         */
+        public String getVersion()
+        {
+            return this.version;
+        }
+
+        /**
+         * @return the content of the revision, {@code null} if it is already saved
+         */
+        public byte[] getContent()
+        {
+            return this.content;
+        }
+
+        /**
+         * @param directory the directory holding the files of the revisions
+         * @return the file holding the content of the revision, without the compressed file extension
+         */
+        public File getFile(File directory)
+        {
+            return new File(directory, this.version);
+        }
+
+        /**
+         * @param attachment the current version of the attachment
+         * @param directory the directory holding the files of the revisions
+         * @return the attachment at this revision
+         * @throws IOException if the content of the revision cannot be read
+         */
+        private XWikiAttachment toAttachment(XWikiAttachment attachment, File directory) throws IOException
+        {
+            XWikiAttachment revision = new XWikiAttachment(attachment.getDoc(), attachment.getFilename());
+            InputStream input;
+            if (this.content != null) {
+                input = new ByteArrayInputStream(this.content);
+            } else {
+                input = CompressedFiles.open(getFile(directory));
+            }
+            try {
+                revision.setContent(input);
+            } finally {
+                input.close();
+            }
+            revision.setVersion(this.version);
+            revision.setDate(new Date(this.date));
+            revision.setFilesize(this.filesize);
+            revision.setAuthor(this.author);
+            revision.setComment(this.comment);
+
+            return revision;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.suigeneris.jrcs.rcs.Version;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.enterprise.store.internal.CompressedAttachmentArchive.Revision;
+import org.xwiki.environment.Environment;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.store.AttachmentVersioningStore;
+
+/**
+ * Attachment versioning store keeping each revision of an attachment in its own file, compressed according to the
+ * {@link CompressionPolicy}, next to an index holding one line of metadata per revision.
+ * <p>
+ * Enabled with {@code xwiki.store.attachment.versioning.hint=compressed} in {@code xwiki.cfg}. The files are kept in
+ * the {@code storage/~dedup/archives} directory of the permanent directory, in one directory per attachment. Unlike
+ * with the database store, saving a new revision only writes that revision and appends a line to the index, and
+ * loading the history only reads the index: the content of a revision is read when the revision is requested. The
+ * history of another store, e.g. imported with the document, is converted the first time it is saved.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+@Component
+@Named("compressed")
+@Singleton
+public class CompressedAttachmentVersioningStore implements AttachmentVersioningStore, Initializable
+{
+    /** The name of the index file of each attachment. */
+    private static final String INDEX = "index";
+
+    /** The encoding of the index. */
+    private static final String ENCODING = "UTF-8";
+
+    /** Used to find the permanent directory. */
+    @Inject
+    private Environment environment;
+
+    /** Used to read the compression policy. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** The logger to log. */
+    @Inject
+    private Logger logger;
+
+    /** Decides which revisions are compressed. */
+    private CompressionPolicy compressionPolicy;
+
+    /** The directory holding the histories. */
+    private File archiveDirectory;
+
+    /** Prevents two threads from appending the same revisions to an index. */
+    private final Object indexLock = new Object();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.archiveDirectory = new File(AttachmentFiles.getStorageDirectory(this.environment), "archives");
+        this.archiveDirectory.mkdirs();
+        this.compressionPolicy = new CompressionPolicy(this.configuration);
+    }
+
+    @Override
+    public XWikiAttachmentArchive loadArchive(XWikiAttachment attachment, XWikiContext context, boolean bTransaction)
+        throws XWikiException
+    {
+        CompressedAttachmentArchive archive;
+        try {
+            File directory = AttachmentFiles.getAttachmentFile(this.archiveDirectory, attachment);
+            archive = new CompressedAttachmentArchive(attachment, directory, readIndex(directory));
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_ATTACHMENT, String.format(
+                    "Failed to load the history of attachment [%s] of document [%s]", attachment.getFilename(),
+                    attachment.getDoc().getDocumentReference()), e);
+        }
+
+        attachment.setAttachment_archive(archive);
+
+        return archive;
+    }
+
+    @Override
+    public void saveArchive(XWikiAttachmentArchive archive, XWikiContext context, boolean bTransaction)
+        throws XWikiException
+    {
+        XWikiAttachment attachment = archive.getAttachment();
+        boolean compress = this.compressionPolicy.isCompressed(attachment.getMimeType(context));
+
+        try {
+            File directory = AttachmentFiles.getAttachmentFile(this.archiveDirectory, attachment);
+            synchronized (this.indexLock) {
+                if (archive instanceof CompressedAttachmentArchive
+                    && ((CompressedAttachmentArchive) archive).getDirectory().equals(directory)) {
+                    saveNewRevisions((CompressedAttachmentArchive) archive, compress);
+                } else {
+                    // The history of another store, or of another attachment when a document is copied.
+                    saveAllRevisions(archive, directory, compress, context);
+                }
+            }
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_ATTACHMENT, String.format(
+                    "Failed to save the history of attachment [%s] of document [%s]", attachment.getFilename(),
+                    attachment.getDoc().getDocumentReference()), e);
+        }
+    }
+
+    @Override
+    public void deleteArchive(XWikiAttachment attachment, XWikiContext context, boolean bTransaction)
+        throws XWikiException
+    {
+        try {
+            synchronized (this.indexLock) {
+                FileUtils.deleteDirectory(AttachmentFiles.getAttachmentFile(this.archiveDirectory, attachment));
+            }
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_DELETING_ATTACHMENT, String.format(
+                    "Failed to delete the history of attachment [%s] of document [%s]", attachment.getFilename(),
+                    attachment.getDoc().getDocumentReference()), e);
+        }
+    }
+
+    /**
+     * Writes the revisions added since the history was loaded and appends them to the index.
+     *
+     * @param archive the history of the attachment
+     * @param compress whether to compress the revisions
+     * @throws IOException if the revisions cannot be written
+     */
+    private void saveNewRevisions(CompressedAttachmentArchive archive, boolean compress) throws IOException
+    {
+        List<Revision> revisions = archive.getNewRevisions();
+        if (revisions.isEmpty()) {
+            return;
+        }
+
+        for (Revision revision : revisions) {
+            writeRevision(revision.getFile(archive.getDirectory()), new ByteArrayInputStream(revision.getContent()),
+                compress);
+        }
+        // The index is written last so that it never lists a revision whose file is missing.
+        writeIndex(archive.getDirectory(), revisions, true);
+        archive.setSaved();
+    }
+
+    /**
+     * Writes all the revisions of a history loaded by another store and replaces the index.
+     *
+     * @param archive the history of the attachment
+     * @param directory the directory holding the files of the revisions
+     * @param compress whether to compress the revisions
+     * @param context the XWiki context
+     * @throws IOException if the revisions cannot be written
+     * @throws XWikiException if the revisions cannot be read
+     */
+    private void saveAllRevisions(XWikiAttachmentArchive archive, File directory, boolean compress,
+        XWikiContext context) throws IOException, XWikiException
+    {
+        XWikiAttachment attachment = archive.getAttachment();
+        List<Revision> revisions = new ArrayList<Revision>();
+        for (Version version : archive.getVersions()) {
+            XWikiAttachment revisionAttachment = archive.getRevision(attachment, version.toString(), context);
+            if (revisionAttachment != null) {
+                Revision revision = new Revision(revisionAttachment, null);
+                InputStream input = revisionAttachment.getContentInputStream(context);
+                try {
+                    writeRevision(revision.getFile(directory), input, compress);
+                } finally {
+                    input.close();
+                }
+                revisions.add(revision);
+            }
+        }
+        writeIndex(directory, revisions, false);
+
+        // Keep the new revisions of the attachment out of the converted history.
+        attachment.setAttachment_archive(new CompressedAttachmentArchive(attachment, directory, revisions));
+    }
+
+    /**
+     * @param file the file of the revision, without the compressed file extension
+     * @param input the content of the revision
+     * @param compress whether to compress the revision
+     * @throws IOException if the revision cannot be written
+     */
+    private void writeRevision(File file, InputStream input, boolean compress) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        File temporaryFile = File.createTempFile(file.getName() + '.', ".tmp", file.getParentFile());
+        try {
+            OutputStream output = CompressedFiles.wrap(new FileOutputStream(temporaryFile), compress);
+            try {
+                IOUtils.copy(input, output);
+            } finally {
+                output.close();
+            }
+            AttachmentFiles.move(temporaryFile, compress ? CompressedFiles.getCompressedFile(file) : file);
+        } finally {
+            temporaryFile.delete();
+        }
+
+        // Drop the other version of the revision in case the policy changed since it was first written. The
+        // compressed version is read first so a stale one hides the new content.
+        File staleFile = compress ? file : CompressedFiles.getCompressedFile(file);
+        if (staleFile.exists() && !staleFile.delete()) {
+            this.logger.warn("Failed to delete [{}], the stale copy of an attachment revision", staleFile);
+        }
+    }
+
+    /**
+     * @param directory the directory holding the files of the revisions
+     * @return the saved revisions, oldest first
+     * @throws IOException if the index cannot be read
+     */
+    private List<Revision> readIndex(File directory) throws IOException
+    {
+        List<Revision> revisions = new ArrayList<Revision>();
+        File indexFile = new File(directory, INDEX);
+        if (indexFile.exists()) {
+            for (String line : FileUtils.readLines(indexFile, ENCODING)) {
+                Revision revision = Revision.parse(line);
+                if (revision != null) {
+                    revisions.add(revision);
+                }
+            }
+        }
+
+        return revisions;
+    }
+
+    /**
+     * @param directory the directory holding the files of the revisions
+     * @param revisions the revisions to write to the index
+     * @param append {@code true} to append the revisions, {@code false} to replace the index
+     * @throws IOException if the index cannot be written
+     */
+    private void writeIndex(File directory, List<Revision> revisions, boolean append) throws IOException
+    {
+        directory.mkdirs();
+        File indexFile = new File(directory, INDEX);
+        File targetFile = append ? indexFile : File.createTempFile(INDEX + '.', ".tmp", directory);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(targetFile, append), ENCODING);
+            try {
+                for (Revision revision : revisions) {
+                    writer.write(revision.format());
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            if (!append) {
+                AttachmentFiles.move(targetFile, indexFile);
+            }
+        } finally {
+            if (!append) {
+                targetFile.delete();
+            }
+        }
+    }
+}
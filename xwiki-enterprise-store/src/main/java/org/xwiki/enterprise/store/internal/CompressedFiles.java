@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes the files of the stores of this module, which are either stored as is or compressed with gzip. A
+ * compressed file has the {@value #EXTENSION} extension added to its name, so that reading a file doesn't depend on
+ * the compression policy in use when it was written.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public final class CompressedFiles
+{
+    /** The extension of the compressed files. */
+    public static final String EXTENSION = ".gz";
+
+    /** The size of the buffers of the gzip streams. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The size of the gzip trailer field holding the uncompressed size. */
+    private static final int SIZE_FIELD_LENGTH = 4;
+
+    /** Utility class. */
+    private CompressedFiles()
+    {
+    }
+
+    /**
+     * @param file a file, without the compressed file extension
+     * @return the name of the file when it is compressed
+     */
+    public static File getCompressedFile(File file)
+    {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    /**
+     * @param file a file, without the compressed file extension
+     * @return {@code true} if the file exists, compressed or not
+     */
+    public static boolean exists(File file)
+    {
+        return file.exists() || getCompressedFile(file).exists();
+    }
+
+    /**
+     * Deletes both the compressed and the uncompressed version of a file.
+     *
+     * @param file a file, without the compressed file extension
+     * @return {@code true} if neither version exists anymore
+     */
+    public static boolean delete(File file)
+    {
+        file.delete();
+        getCompressedFile(file).delete();
+
+        return !exists(file);
+    }
+
+    /**
+     * @param file a file, without the compressed file extension
+     * @return the uncompressed content of the file
+     * @throws IOException if the file doesn't exist or cannot be read
+     */
+    public static InputStream open(File file) throws IOException
+    {
+        File compressedFile = getCompressedFile(file);
+        if (compressedFile.exists()) {
+            return new GZIPInputStream(new FileInputStream(compressedFile), BUFFER_SIZE);
+        }
+
+        return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * @param output the stream writing a file
+     * @param compress whether to compress what is written
+     * @return the stream to write the content of the file to
+     * @throws IOException if the stream cannot be created
+     */
+    public static OutputStream wrap(OutputStream output, boolean compress) throws IOException
+    {
+        return compress ? new GZIPOutputStream(output, BUFFER_SIZE) : output;
+    }
+
+    /**
+     * @param file a file, without the compressed file extension
+     * @return the uncompressed size of the file, modulo 4GB when compressed since gzip doesn't store more
+     * @throws IOException if the size of the compressed file cannot be read
+     */
+    public static long getSize(File file) throws IOException
+    {
+        File compressedFile = getCompressedFile(file);
+        if (!compressedFile.exists()) {
+            return file.length();
+        }
+
+        // The last 4 bytes of a gzip file hold the uncompressed size, in little-endian order.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(compressedFile, "r");
+        try {
+            randomAccessFile.seek(randomAccessFile.length() - SIZE_FIELD_LENGTH);
+            long size = 0;
+            for (int i = 0; i < SIZE_FIELD_LENGTH; i++) {
+                size |= ((long) randomAccessFile.read()) << (8 * i);
+            }
+
+            return size;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Decides which attachments are compressed on disk by the stores of this module, depending on their MIME type.
+ * <p>
+ * Configured with the following {@code xwiki.properties} properties:
+ * <ul>
+ * <li>{@code store.compression.enabled}: {@code true} to compress, {@code false} by default</li>
+ * <li>{@code store.compression.mimetypes}: the comma separated list of MIME types to compress, {@code type/*}
+ * matching all the subtypes of a type; by default the text formats which are not already compressed</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class CompressionPolicy
+{
+    /** The prefix of the configuration properties. */
+    private static final String PREFIX = "store.compression.";
+
+    /** The wildcard matching all the subtypes of a type. */
+    private static final String WILDCARD = "/*";
+
+    /** The MIME types compressed by default. */
+    private static final List<String> DEFAULT_MIME_TYPES = Arrays.asList("text/*", "application/xml",
+        "application/xhtml+xml", "application/json", "application/javascript", "application/x-javascript",
+        "application/x-sh", "application/rtf", "application/postscript", "image/svg+xml", "image/bmp");
+
+    /** Whether the compression is enabled. */
+    private final boolean enabled;
+
+    /** The compressed MIME types. */
+    private final List<String> mimeTypes = new ArrayList<String>();
+
+    /**
+     * @param configuration the configuration to read the policy from
+     */
+    public CompressionPolicy(ConfigurationSource configuration)
+    {
+        this.enabled = configuration.getProperty(PREFIX + "enabled", false);
+
+        List< ? > configuredMimeTypes = configuration.getProperty(PREFIX + "mimetypes", List.class);
+        if (configuredMimeTypes == null || configuredMimeTypes.isEmpty()) {
+            this.mimeTypes.addAll(DEFAULT_MIME_TYPES);
+        } else {
+            for (Object mimeType : configuredMimeTypes) {
+                this.mimeTypes.add(mimeType.toString().trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the compression is enabled
+     */
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @param mimeType the MIME type of an attachment, possibly with parameters
+     * @return {@code true} if the attachment should be compressed
+     */
+    public boolean isCompressed(String mimeType)
+    {
+        if (!this.enabled || mimeType == null) {
+            return false;
+        }
+
+        String type = mimeType.toLowerCase(Locale.ROOT);
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters);
+        }
+        type = type.trim();
+
+        for (String pattern : this.mimeTypes) {
+            if (pattern.endsWith(WILDCARD) ? type.startsWith(pattern.substring(0, pattern.length() - 1))
+                : type.equals(pattern)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
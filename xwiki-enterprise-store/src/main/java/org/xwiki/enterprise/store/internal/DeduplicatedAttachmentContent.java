@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+
+/**
+ * The content of an attachment stored by the {@link DeduplicatingAttachmentStore}, read (and uncompressed if needed)
+ * from the shared content file on demand. Once the content is replaced (i.e. once it is dirty) the new content is used
+ * instead.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class DeduplicatedAttachmentContent extends XWikiAttachmentContent
+{
+    /** The shared content file, without the compressed file extension. */
+    private final File contentFile;
+
+    /** The hash of the content. */
+    private final String hash;
+
+    /**
+     * @param attachment the attachment this content belongs to
+     * @param contentFile the shared content file, without the compressed file extension
+     * @param hash the hash of the content
+     */
+    public DeduplicatedAttachmentContent(XWikiAttachment attachment, File contentFile, String hash)
+    {
+        super(attachment);
+        this.contentFile = contentFile;
+        this.hash = hash;
+    }
+
+    /**
+     * Copies another content, including its new content if it has been replaced since it was loaded.
+     *
+     * @param original the content to copy
+     */
+    protected DeduplicatedAttachmentContent(DeduplicatedAttachmentContent original)
+    {
+        super(original);
+        this.contentFile = original.contentFile;
+        this.hash = original.hash;
+    }
+
+    /**
+     * @return the hash of the stored content, {@code null} if the content has been replaced since it was loaded
+     */
+    public String getHash()
+    {
+        return isContentDirty() ? null : this.hash;
+    }
+
+    @Override
+    public DeduplicatedAttachmentContent clone()
+    {
+        return new DeduplicatedAttachmentContent(this);
+    }
+
+    @Override
+    @Deprecated
+    public byte[] getContent()
+    {
+        if (isContentDirty()) {
+            return super.getContent();
+        }
+
+        InputStream stream = getContentInputStream();
+        try {
+            return IOUtils.toByteArray(stream);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to read the content file [%s]", this.contentFile), e);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    @Override
+    public InputStream getContentInputStream()
+    {
+        if (isContentDirty()) {
+            return super.getContentInputStream();
+        }
+
+        try {
+            return CompressedFiles.open(this.contentFile);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to open the content file [%s]", this.contentFile), e);
+        }
+    }
+
+    @Override
+    public int getSize()
+    {
+        if (isContentDirty()) {
+            return super.getSize();
+        }
+
+        try {
+            return (int) CompressedFiles.getSize(this.contentFile);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to read the size of [%s]", this.contentFile), e);
+        }
+    }
+}
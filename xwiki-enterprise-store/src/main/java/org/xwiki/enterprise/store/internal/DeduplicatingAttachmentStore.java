@@ -0,0 +1,444 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
+
+/**
+ * Attachment store keeping a single copy of each distinct attachment content, whatever the number of attachments
+ * having this content. The contents are stored in files named after the SHA-256 hash of the content, along with the
+ * number of attachments referencing them; each attachment is a small file holding the hash of its content. A content
+ * file is deleted once the last attachment referencing it is deleted or gets another content. Since a request may
+ * still be reading a content loaded just before, the content file is only deleted after a delay
+ * ({@code store.dedup.removalDelay} seconds in {@code xwiki.properties}, {@value #DEFAULT_REMOVAL_DELAY} by
+ * default), provided it is still not referenced. The contents waiting to be deleted are marked with a file named after
+ * their hash in the {@code orphans} directory, so that they are still deleted after a restart.
+ * <p>
+ * Enabled with {@code xwiki.store.attachment.hint=dedup} in {@code xwiki.cfg}. The files are kept in the
+ * {@code storage/~dedup} directory of the permanent directory. The reference counts are protected by a lock of this
+ * JVM, so the storage directory must not be shared by several cluster members. Only the current content of the
+ * attachments is deduplicated, the revisions are saved by the configured attachment versioning store.
+ * <p>
+ * The contents are compressed according to the {@link CompressionPolicy}. The hash is computed on the uncompressed
+ * content, so identical attachments still share their content whatever the policy when they were saved.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+@Component
+@Named("dedup")
+@Singleton
+public class DeduplicatingAttachmentStore implements XWikiAttachmentStoreInterface, Initializable
+{
+    /** The encoding of the files holding the hashes and the reference counts. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The hash algorithm identifying the contents. */
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /** The extension of the files holding the number of attachments referencing a content. */
+    private static final String REFERENCES_EXTENSION = ".refs";
+
+    /** The default delay before deleting a content which is not referenced anymore, in seconds. */
+    private static final long DEFAULT_REMOVAL_DELAY = 600;
+
+    /** Used to find the permanent directory. */
+    @Inject
+    private Environment environment;
+
+    /** Used to read the compression policy. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Decides which contents are compressed. */
+    private CompressionPolicy compressionPolicy;
+
+    /** The directory holding the contents. */
+    private File contentDirectory;
+
+    /** The directory holding the attachments, i.e. the hash of their content. */
+    private File attachmentDirectory;
+
+    /** The directory holding the markers of the contents which are not referenced anymore. */
+    private File orphanDirectory;
+
+    /** The delay before deleting a content which is not referenced anymore, in milliseconds. */
+    private long removalDelay;
+
+    /** When the orphan contents were last deleted, guarded by {@link #referenceLock}. */
+    private long lastRemoval;
+
+    /** Protects the reference counts, the attachment files and the orphan markers. */
+    private final Object referenceLock = new Object();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        File root = AttachmentFiles.getStorageDirectory(this.environment);
+        this.contentDirectory = new File(root, "contents");
+        this.attachmentDirectory = new File(root, "attachments");
+        this.orphanDirectory = new File(root, "orphans");
+        this.contentDirectory.mkdirs();
+        this.attachmentDirectory.mkdirs();
+        this.orphanDirectory.mkdirs();
+        this.compressionPolicy = new CompressionPolicy(this.configuration);
+        long delay = this.configuration.getProperty("store.dedup.removalDelay", DEFAULT_REMOVAL_DELAY);
+        this.removalDelay = TimeUnit.SECONDS.toMillis(delay);
+    }
+
+    @Override
+    public void saveAttachmentContent(XWikiAttachment attachment, XWikiContext context, boolean bTransaction)
+        throws XWikiException
+    {
+        saveAttachmentContent(attachment, true, context, bTransaction);
+    }
+
+    @Override
+    public void saveAttachmentContent(XWikiAttachment attachment, boolean parentUpdate, XWikiContext context,
+        boolean bTransaction) throws XWikiException
+    {
+        XWikiAttachmentContent content = attachment.getAttachment_content();
+        if (content != null) {
+            if (content.isContentDirty()) {
+                attachment.updateContentArchive(context);
+            }
+
+            try {
+                store(attachment, content, this.compressionPolicy.isCompressed(attachment.getMimeType(context)));
+            } catch (IOException e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_ATTACHMENT, String.format(
+                        "Failed to save the content of attachment [%s] of document [%s]", attachment.getFilename(),
+                        attachment.getDoc().getDocumentReference()), e);
+            }
+
+            if (attachment.getAttachment_archive() == null) {
+                attachment.loadArchive(context);
+            }
+            context.getWiki().getAttachmentVersioningStore()
+                .saveArchive(attachment.getAttachment_archive(), context, bTransaction);
+        }
+
+        if (parentUpdate) {
+            context.getWiki().getStore().saveXWikiDoc(attachment.getDoc(), context, bTransaction);
+        }
+    }
+
+    @Override
+    public void saveAttachmentsContent(List<XWikiAttachment> attachments, XWikiDocument doc, boolean bParentUpdate,
+        XWikiContext context, boolean bTransaction) throws XWikiException
+    {
+        for (XWikiAttachment attachment : attachments) {
+            saveAttachmentContent(attachment, false, context, bTransaction);
+        }
+
+        if (bParentUpdate) {
+            context.getWiki().getStore().saveXWikiDoc(doc, context, bTransaction);
+        }
+    }
+
+    @Override
+    public void loadAttachmentContent(XWikiAttachment attachment, XWikiContext context, boolean bTransaction)
+        throws XWikiException
+    {
+        String hash;
+        try {
+            File attachmentFile = AttachmentFiles.getAttachmentFile(this.attachmentDirectory, attachment);
+            synchronized (this.referenceLock) {
+                hash = readHash(attachmentFile);
+            }
+        } catch (IOException e) {
+            hash = null;
+        }
+
+        if (hash == null) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_ATTACHMENT, String.format(
+                    "Failed to find the content of attachment [%s] of document [%s]", attachment.getFilename(),
+                    attachment.getDoc().getDocumentReference()));
+        }
+
+        attachment.setAttachment_content(new DeduplicatedAttachmentContent(attachment, getContentFile(hash), hash));
+    }
+
+    @Override
+    public void deleteXWikiAttachment(XWikiAttachment attachment, XWikiContext context, boolean bTransaction)
+        throws XWikiException
+    {
+        deleteXWikiAttachment(attachment, true, context, bTransaction);
+    }
+
+    @Override
+    public void deleteXWikiAttachment(XWikiAttachment attachment, boolean parentUpdate, XWikiContext context,
+        boolean bTransaction) throws XWikiException
+    {
+        try {
+            File attachmentFile = AttachmentFiles.getAttachmentFile(this.attachmentDirectory, attachment);
+            synchronized (this.referenceLock) {
+                String hash = readHash(attachmentFile);
+                if (hash != null) {
+                    attachmentFile.delete();
+                    addReferences(hash, -1);
+                }
+                removeOrphans();
+            }
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_DELETING_ATTACHMENT, String.format(
+                    "Failed to delete the content of attachment [%s] of document [%s]", attachment.getFilename(),
+                    attachment.getDoc().getDocumentReference()), e);
+        }
+
+        context.getWiki().getAttachmentVersioningStore().deleteArchive(attachment, context, bTransaction);
+
+        if (parentUpdate) {
+            List<XWikiAttachment> list = attachment.getDoc().getAttachmentList();
+            for (int i = 0; i < list.size(); i++) {
+                if (attachment.getFilename().equals(list.get(i).getFilename())) {
+                    list.remove(i);
+                    break;
+                }
+            }
+            context.getWiki().getStore().saveXWikiDoc(attachment.getDoc(), context, bTransaction);
+        }
+    }
+
+    @Override
+    public void cleanUp(XWikiContext context)
+    {
+        // Nothing to clean, the files are written as soon as the attachments are saved.
+    }
+
+    /**
+     * Stores the content of an attachment, unless the same content is already stored, and makes the attachment
+     * reference it.
+     *
+     * @param attachment the attachment
+     * @param content the content of the attachment
+     * @param compress whether to compress the content, if it is not already stored
+     * @throws IOException if writing the files fails
+     */
+    private void store(XWikiAttachment attachment, XWikiAttachmentContent content, boolean compress)
+        throws IOException
+    {
+        String hash = null;
+        if (content instanceof DeduplicatedAttachmentContent) {
+            // Copied from another attachment: the content is already stored.
+            hash = ((DeduplicatedAttachmentContent) content).getHash();
+        }
+
+        // Write the content outside of the lock, it is moved in place afterwards if it is not already stored.
+        File temporaryFile = null;
+        try {
+            if (hash == null) {
+                temporaryFile = File.createTempFile("content", ".tmp", this.contentDirectory);
+                hash = write(content.getContentInputStream(), temporaryFile, compress);
+            }
+
+            File attachmentFile = AttachmentFiles.getAttachmentFile(this.attachmentDirectory, attachment);
+            File contentFile = getContentFile(hash);
+            synchronized (this.referenceLock) {
+                if (!CompressedFiles.exists(contentFile)) {
+                    if (temporaryFile == null) {
+                        throw new IOException(String.format("The content file [%s] is missing", contentFile));
+                    }
+                    File targetFile = compress ? CompressedFiles.getCompressedFile(contentFile) : contentFile;
+                    targetFile.getParentFile().mkdirs();
+                    AttachmentFiles.move(temporaryFile, targetFile);
+                }
+
+                String previousHash = readHash(attachmentFile);
+                if (!hash.equals(previousHash)) {
+                    addReferences(hash, 1);
+                    attachmentFile.getParentFile().mkdirs();
+                    writeAtomically(attachmentFile, hash);
+                    if (previousHash != null) {
+                        addReferences(previousHash, -1);
+                    }
+                }
+                removeOrphans();
+            }
+        } finally {
+            if (temporaryFile != null) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @param content the content to write
+     * @param file the file to write to
+     * @param compress whether to compress the content
+     * @return the hash of the uncompressed content
+     * @throws IOException if writing the file fails
+     */
+    private String write(InputStream content, File file, boolean compress) throws IOException
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(String.format("The [%s] algorithm is not supported", HASH_ALGORITHM), e);
+        }
+
+        InputStream input = new DigestInputStream(content, digest);
+        OutputStream output = CompressedFiles.wrap(new FileOutputStream(file), compress);
+        try {
+            IOUtils.copyLarge(input, output);
+        } finally {
+            IOUtils.closeQuietly(input);
+            output.close();
+        }
+
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * Updates the number of attachments referencing a content, and marks the content as orphan when it is not
+     * referenced anymore. Must be called while holding {@link #referenceLock}.
+     *
+     * @param hash the hash of the content
+     * @param delta the number of references to add, negative to remove references
+     * @throws IOException if reading or writing the reference count fails
+     */
+    private void addReferences(String hash, int delta) throws IOException
+    {
+        File referencesFile = getReferencesFile(hash);
+        File orphanFile = new File(this.orphanDirectory, hash);
+
+        long references = delta;
+        if (referencesFile.exists()) {
+            references += Long.parseLong(FileUtils.readFileToString(referencesFile, ENCODING).trim());
+        }
+
+        if (references > 0) {
+            writeAtomically(referencesFile, String.valueOf(references));
+            // The content may have been orphan, it must not be deleted anymore.
+            orphanFile.delete();
+        } else {
+            referencesFile.delete();
+            FileUtils.touch(orphanFile);
+        }
+    }
+
+    /**
+     * Deletes the contents which have not been referenced for {@link #removalDelay}, checking them at most once per
+     * delay. Must be called while holding {@link #referenceLock}.
+     */
+    private void removeOrphans()
+    {
+        long now = System.currentTimeMillis();
+        if (now - this.lastRemoval < this.removalDelay) {
+            return;
+        }
+        this.lastRemoval = now;
+
+        File[] orphanFiles = this.orphanDirectory.listFiles();
+        if (orphanFiles != null) {
+            for (File orphanFile : orphanFiles) {
+                String hash = orphanFile.getName();
+                if (getReferencesFile(hash).exists()) {
+                    // Referenced again since, normally the marker is deleted right away.
+                    orphanFile.delete();
+                } else if (now - orphanFile.lastModified() >= this.removalDelay
+                    && CompressedFiles.delete(getContentFile(hash))) {
+                    // Kept otherwise (e.g. the content is still open on Windows) so that it's deleted next time.
+                    orphanFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param attachmentFile the file of an attachment
+     * @return the hash of the content of the attachment, {@code null} if the attachment is not stored
+     * @throws IOException if reading the file fails
+     */
+    private String readHash(File attachmentFile) throws IOException
+    {
+        return attachmentFile.exists() ? FileUtils.readFileToString(attachmentFile, ENCODING).trim() : null;
+    }
+
+    /**
+     * Writes a small file so that readers either see the previous content or the new one.
+     *
+     * @param file the file to write
+     * @param value the new content of the file
+     * @throws IOException if writing the file fails
+     */
+    private void writeAtomically(File file, String value) throws IOException
+    {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileUtils.writeStringToFile(temporaryFile, value, ENCODING);
+        try {
+            AttachmentFiles.move(temporaryFile, file);
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * @param hash the hash of a content
+     * @return the file holding the number of attachments referencing the content
+     */
+    private File getReferencesFile(String hash)
+    {
+        return new File(getContentFile(hash).getPath() + REFERENCES_EXTENSION);
+    }
+
+    /**
+     * @param hash the hash of a content
+     * @return the file holding the content, spread over two levels of directories to keep them small
+     */
+    private File getContentFile(String hash)
+    {
+        return new File(new File(new File(this.contentDirectory, hash.substring(0, 2)), hash.substring(2, 4)), hash);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.script;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.script.service.ScriptService;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+
+/**
+ * Empties the recycle bins of the current wiki from the documents and attachments deleted more than a given number of
+ * days ago. The items are purged in small batches, each in its own short transaction, with a pause between batches,
+ * so that the recycle bin tables are never locked for long and the wiki stays responsive while purging millions of
+ * items. For instance, from a Groovy Scheduler job: {@code services.recyclebinpurge.purge(30)}.
+ * <p>
+ * Configured with the following {@code xwiki.properties} properties:
+ * <ul>
+ * <li>{@code store.recyclebin.purge.batchSize}: the number of items purged per transaction,
+ * {@value #DEFAULT_BATCH_SIZE} by default</li>
+ * <li>{@code store.recyclebin.purge.pause}: the pause between two batches in milliseconds, {@value #DEFAULT_PAUSE} by
+ * default</li>
+ * </ul>
+ * Each batch is purged with a single statement, the items being read in the order of their identifiers so that a batch
+ * never scans the items already purged. Only the attachments of the database recycle bin store are purged: the
+ * {@code file} store keeps the deleted attachments next to their document, without any global index to list them.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+@Component
+@Named("recyclebinpurge")
+@Singleton
+public class RecycleBinPurgeScriptService implements ScriptService
+{
+    /** The default number of items purged per transaction. */
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** The default pause between two batches, in milliseconds. */
+    private static final long DEFAULT_PAUSE = 100;
+
+    /** The prefix of the configuration properties. */
+    private static final String PREFIX = "store.recyclebin.purge.";
+
+    /** The entity of the deleted documents. */
+    private static final String DELETED_DOCUMENT = "XWikiDeletedDocument";
+
+    /** The entity of the deleted attachments. */
+    private static final String DELETED_ATTACHMENT = "DeletedAttachment";
+
+    /** Used to get the XWiki context. */
+    @Inject
+    private Execution execution;
+
+    /** Used to read the configuration. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** The logger to log. */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Purges the recycle bins of the current wiki. Requires administration rights.
+     *
+     * @param days the number of days the deleted items are kept, 0 to purge everything
+     * @return the number of purged items, or -1 if the current user is not allowed to purge or if the purge failed
+     */
+    public long purge(int days)
+    {
+        XWikiContext context = getXWikiContext();
+        if (!context.getWiki().getRightService().hasAdminRights(context)) {
+            return -1;
+        }
+
+        Date date = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+        int batchSize = this.configuration.getProperty(PREFIX + "batchSize", DEFAULT_BATCH_SIZE);
+        long pause = this.configuration.getProperty(PREFIX + "pause", DEFAULT_PAUSE);
+
+        try {
+            long count = purge(DELETED_DOCUMENT, date, batchSize, pause, context);
+            if (context.getWiki().getAttachmentRecycleBinStore() != null
+                && "hibernate".equals(context.getWiki().Param("xwiki.store.attachment.recyclebin.hint", "hibernate"))) {
+                count += purge(DELETED_ATTACHMENT, date, batchSize, pause, context);
+            }
+            this.logger.info("Purged [{}] items deleted before [{}] from the recycle bins of wiki [{}]", count, date,
+                context.getDatabase());
+
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Interrupted while purging the recycle bins of wiki [{}]", context.getDatabase());
+
+            return -1;
+        } catch (XWikiException e) {
+            this.logger.error("Failed to purge the recycle bins of wiki [{}]", context.getDatabase(), e);
+
+            return -1;
+        }
+    }
+
+    /**
+     * @param entity the entity of the deleted items
+     * @param date the date before which the items are purged
+     * @param batchSize the number of items purged per transaction
+     * @param pause the pause between two batches, in milliseconds
+     * @param context the XWiki context
+     * @return the number of purged items
+     * @throws XWikiException if the purge fails
+     * @throws InterruptedException if the purge is interrupted
+     */
+    private long purge(final String entity, Date date, int batchSize, long pause, XWikiContext context)
+        throws XWikiException, InterruptedException
+    {
+        long count = 0;
+        long after = Long.MIN_VALUE;
+        for (List<Long> ids = getIds(entity, date, after, batchSize, context); !ids.isEmpty(); ids =
+            getIds(entity, date, after, batchSize, context)) {
+            final List<Long> batch = ids;
+            context.getWiki().getHibernateStore().executeWrite(context, true, new HibernateCallback<Object>()
+            {
+                @Override
+                public Object doInHibernate(Session session) throws HibernateException
+                {
+                    session.createQuery("delete from " + entity + " where id in (:ids)")
+                        .setParameterList("ids", batch).executeUpdate();
+                    return null;
+                }
+            });
+
+            count += ids.size();
+            after = ids.get(ids.size() - 1);
+            Thread.sleep(pause);
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the identifiers of the next batch of items to purge, in ascending order so that the items which could not
+     * be purged are not read again.
+     *
+     * @param entity the entity of the deleted items
+     * @param date the date before which the items are purged
+     * @param after the identifier of the last item of the previous batch
+     * @param batchSize the maximum number of identifiers to read
+     * @param context the XWiki context
+     * @return the identifiers of the items to purge
+     * @throws XWikiException if the query fails
+     */
+    private List<Long> getIds(final String entity, final Date date, final long after, final int batchSize,
+        XWikiContext context) throws XWikiException
+    {
+        return context.getWiki().getHibernateStore().executeRead(context, true, new HibernateCallback<List<Long>>()
+        {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Long> doInHibernate(Session session) throws HibernateException
+            {
+                Query query =
+                    session.createQuery(String.format("select item.id from %s as item "
+                        + "where item.date < :date and item.id > :after order by item.id", entity));
+                query.setTimestamp("date", date);
+                query.setLong("after", after);
+                query.setMaxResults(batchSize);
+
+                return query.list();
+            }
+        });
+    }
+
+    /**
+     * @return the XWiki context
+     */
+    private XWikiContext getXWikiContext()
+    {
+        return (XWikiContext) this.execution.getContext().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+    }
+}
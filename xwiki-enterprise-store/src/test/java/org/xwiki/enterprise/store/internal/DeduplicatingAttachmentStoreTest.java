@@ -0,0 +1,271 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.enterprise.store.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.AttachmentVersioningStore;
+import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DeduplicatingAttachmentStore}.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class DeduplicatingAttachmentStoreTest
+{
+    /** The SHA-256 hash of {@link #CONTENT}. */
+    private static final String CONTENT_HASH = "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73";
+
+    private static final String CONTENT = "content";
+
+    /** The SHA-256 hash of {@link #OTHER_CONTENT}. */
+    private static final String OTHER_CONTENT_HASH =
+        "923b805711041e23a99f07e146591c500261d1c289f62a9d39f8581ceb8a10ca";
+
+    private static final String OTHER_CONTENT = "other content";
+
+    @Rule
+    public final MockitoComponentMockingRule<XWikiAttachmentStoreInterface> mocker =
+        new MockitoComponentMockingRule<XWikiAttachmentStoreInterface>(DeduplicatingAttachmentStore.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigurationSource configuration;
+
+    private XWikiContext context;
+
+    private File contentDirectory;
+
+    private File orphanDirectory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+        File root = new File(new File(this.folder.getRoot(), "storage"), "~dedup");
+        this.contentDirectory = new File(root, "contents");
+        this.orphanDirectory = new File(root, "orphans");
+
+        this.configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty("store.compression.enabled", false)).thenReturn(false);
+
+        this.context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        when(xwiki.getAttachmentVersioningStore()).thenReturn(mock(AttachmentVersioningStore.class));
+    }
+
+    @Test
+    public void saveNamesContentAfterItsHash() throws Exception
+    {
+        XWikiAttachment attachment = createAttachment("Page", CONTENT);
+
+        getStore(0).saveAttachmentContent(attachment, false, this.context, false);
+
+        Assert.assertEquals(CONTENT, FileUtils.readFileToString(getContentFile(CONTENT_HASH), "UTF-8"));
+        Assert.assertEquals("1", getReferences(CONTENT_HASH));
+    }
+
+    @Test
+    public void saveStoresIdenticalContentsOnce() throws Exception
+    {
+        XWikiAttachmentStoreInterface store = getStore(0);
+
+        store.saveAttachmentContent(createAttachment("Page", CONTENT), false, this.context, false);
+        store.saveAttachmentContent(createAttachment("OtherPage", CONTENT), false, this.context, false);
+        store.saveAttachmentContent(createAttachment("ThirdPage", OTHER_CONTENT), false, this.context, false);
+
+        Assert.assertEquals("2", getReferences(CONTENT_HASH));
+        Assert.assertEquals("1", getReferences(OTHER_CONTENT_HASH));
+    }
+
+    @Test
+    public void saveSameContentAgainKeepsReferences() throws Exception
+    {
+        XWikiAttachmentStoreInterface store = getStore(0);
+        XWikiAttachment attachment = createAttachment("Page", CONTENT);
+
+        store.saveAttachmentContent(attachment, false, this.context, false);
+        store.saveAttachmentContent(attachment, false, this.context, false);
+
+        Assert.assertEquals("1", getReferences(CONTENT_HASH));
+    }
+
+    @Test
+    public void loadReadsStoredContent() throws Exception
+    {
+        XWikiAttachmentStoreInterface store = getStore(0);
+        XWikiAttachment attachment = createAttachment("Page", CONTENT);
+        store.saveAttachmentContent(attachment, false, this.context, false);
+
+        store.loadAttachmentContent(attachment, this.context, false);
+
+        ArgumentCaptor<XWikiAttachmentContent> captor = ArgumentCaptor.forClass(XWikiAttachmentContent.class);
+        verify(attachment).setAttachment_content(captor.capture());
+        DeduplicatedAttachmentContent content = (DeduplicatedAttachmentContent) captor.getValue();
+        Assert.assertEquals(CONTENT_HASH, content.getHash());
+        InputStream stream = content.getContentInputStream();
+        try {
+            Assert.assertEquals(CONTENT, IOUtils.toString(stream, "UTF-8"));
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void deleteKeepsContentReferencedByOtherAttachments() throws Exception
+    {
+        XWikiAttachmentStoreInterface store = getStore(0);
+        XWikiAttachment attachment = createAttachment("Page", CONTENT);
+        store.saveAttachmentContent(attachment, false, this.context, false);
+        store.saveAttachmentContent(createAttachment("OtherPage", CONTENT), false, this.context, false);
+
+        store.deleteXWikiAttachment(attachment, false, this.context, false);
+
+        Assert.assertEquals("1", getReferences(CONTENT_HASH));
+        Assert.assertTrue(getContentFile(CONTENT_HASH).exists());
+    }
+
+    @Test
+    public void deleteLastReferenceDeletesContent() throws Exception
+    {
+        XWikiAttachmentStoreInterface store = getStore(0);
+        XWikiAttachment attachment = createAttachment("Page", CONTENT);
+        store.saveAttachmentContent(attachment, false, this.context, false);
+
+        store.deleteXWikiAttachment(attachment, false, this.context, false);
+
+        Assert.assertFalse(getContentFile(CONTENT_HASH).exists());
+        Assert.assertFalse(getReferencesFile(CONTENT_HASH).exists());
+        Assert.assertFalse(new File(this.orphanDirectory, CONTENT_HASH).exists());
+    }
+
+    @Test
+    public void deleteLastReferenceDefersContentRemoval() throws Exception
+    {
+        XWikiAttachmentStoreInterface store = getStore(600);
+        XWikiAttachment attachment = createAttachment("Page", CONTENT);
+        store.saveAttachmentContent(attachment, false, this.context, false);
+
+        store.deleteXWikiAttachment(attachment, false, this.context, false);
+
+        // Still readable by the requests which loaded it before.
+        Assert.assertTrue(getContentFile(CONTENT_HASH).exists());
+        Assert.assertFalse(getReferencesFile(CONTENT_HASH).exists());
+        Assert.assertTrue(new File(this.orphanDirectory, CONTENT_HASH).exists());
+
+        // Referenced again before being deleted.
+        store.saveAttachmentContent(createAttachment("OtherPage", CONTENT), false, this.context, false);
+
+        Assert.assertEquals("1", getReferences(CONTENT_HASH));
+        Assert.assertFalse(new File(this.orphanDirectory, CONTENT_HASH).exists());
+    }
+
+    @Test
+    public void saveNewContentReleasesPreviousContent() throws Exception
+    {
+        XWikiAttachmentStoreInterface store = getStore(0);
+        store.saveAttachmentContent(createAttachment("Page", CONTENT), false, this.context, false);
+
+        store.saveAttachmentContent(createAttachment("Page", OTHER_CONTENT), false, this.context, false);
+
+        Assert.assertFalse(getContentFile(CONTENT_HASH).exists());
+        Assert.assertEquals("1", getReferences(OTHER_CONTENT_HASH));
+    }
+
+    /**
+     * @param removalDelay the delay before deleting the contents which are not referenced anymore, in seconds
+     * @return the store
+     */
+    private XWikiAttachmentStoreInterface getStore(long removalDelay) throws Exception
+    {
+        when(this.configuration.getProperty("store.dedup.removalDelay", 600L)).thenReturn(removalDelay);
+
+        return this.mocker.getComponentUnderTest();
+    }
+
+    /**
+     * @param page the page of the attachment
+     * @param content the content of the attachment
+     * @return an attachment named {@code file.bin}
+     */
+    private XWikiAttachment createAttachment(String page, String content) throws Exception
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(new DocumentReference("wiki", "Space", page));
+
+        XWikiAttachmentContent attachmentContent = mock(XWikiAttachmentContent.class);
+        when(attachmentContent.getContentInputStream()).thenReturn(
+            new ByteArrayInputStream(content.getBytes("UTF-8")));
+
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(attachment.getDoc()).thenReturn(document);
+        when(attachment.getFilename()).thenReturn("file.bin");
+        when(attachment.getMimeType(this.context)).thenReturn("application/octet-stream");
+        when(attachment.getAttachment_content()).thenReturn(attachmentContent);
+        when(attachment.getAttachment_archive()).thenReturn(mock(XWikiAttachmentArchive.class));
+
+        return attachment;
+    }
+
+    private File getContentFile(String hash)
+    {
+        return new File(new File(new File(this.contentDirectory, hash.substring(0, 2)), hash.substring(2, 4)), hash);
+    }
+
+    private File getReferencesFile(String hash)
+    {
+        return new File(getContentFile(hash).getPath() + ".refs");
+    }
+
+    private String getReferences(String hash) throws Exception
+    {
+        return FileUtils.readFileToString(getReferencesFile(hash), "UTF-8");
+    }
+}
@@ -19,30 +19,68 @@
  */
 package org.xwiki.test.cluster;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
 
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClassnameFilters;
 import org.junit.runner.RunWith;
+import org.xwiki.test.cluster.framework.AbstractClusterHttpTest;
+import org.xwiki.test.cluster.framework.ClusterSuite;
 import org.xwiki.test.integration.XWikiExecutor;
 import org.xwiki.test.integration.XWikiExecutorSuite;
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+import org.xwiki.test.rest.framework.HeapSampler;
+import org.xwiki.test.rest.framework.HttpTransport;
 
 /**
- * Runs all functional tests found in the classpath and start/stop XWiki before/after the tests (only once).
+ * Runs all functional tests found in the classpath and start/stop the XWiki cluster nodes before/after the tests (only
+ * once). The number of nodes is configured with the {@code xwiki.test.cluster.nodes} system property and the nodes
+ * communicate through the stock {@code tcp} channel. The attachment store is selected with the
+ * {@code xwiki.test.cluster.attachmentStore} system property ({@code hibernate} or {@code file}).
+ * <p>
+ * The tests needing a non default cluster configuration are run by {@link ProxiedClusterTests}. The connection reuse
+ * statistics of the {@link HttpTransport} are written in the directory configured with
+ * {@code xwiki.test.cluster.reportDirectory} once all the tests are done.
  * 
  * @version $Id$
  */
-@RunWith(XWikiExecutorSuite.class)
-@XWikiExecutorSuite.Executors(2)
+@RunWith(ClusterSuite.class)
+@ClassnameFilters({"!.*\\.NetworkFaultTest", "!.*\\.CoalescingTest", "!.*\\.WarmStartTest"})
 public class AllTests
 {
+    /** The hint of the filesystem attachment store. */
+    private static final String FILE_STORE = "file";
+
+    @AfterClass
+    public static void reportTransportStatistics() throws IOException
+    {
+        BenchmarkUtils.writeReport(
+            BenchmarkUtils.getReportDirectory("xwiki.test.cluster.reportDirectory", "target/cluster-reports"),
+            "http-transport.txt", HttpTransport.getInstance().toString());
+    }
+
     @XWikiExecutorSuite.PreStart
     public void preInitialize(List<XWikiExecutor> executors) throws Exception
     {
-        initChannel(executors.get(0), "tcp");
-        initChannel(executors.get(1), "tcp");
+        for (XWikiExecutor executor : executors) {
+            initChannel(executor, "tcp");
+        }
+
+        initAttachmentStore(executors);
     }
 
-    private void initChannel(XWikiExecutor executor, String channelName) throws Exception
+    /**
+     * Enables the remote observation of a node on the given channel.
+     *
+     * @param executor the executor of the node
+     * @param channelName the name of the JGroups channel
+     * @throws Exception if the configuration fails
+     */
+    protected void initChannel(XWikiExecutor executor, String channelName) throws Exception
     {
         Properties properties = executor.loadXWikiProperties();
         properties.setProperty("observation.remote.enabled", "true");
@@ -50,6 +88,56 @@ private void initChannel(XWikiExecutor executor, String channelName) throws Exce
         executor.saveXWikiProperties(properties);
 
         // Force bind_addr since tcp jgroups configuration expect cluster members to listen localhost by default
-        executor.setXWikiOpts("-Djgroups.bind_addr=localhost -Xmx512m -XX:MaxPermSize=128m");
+        // Open JMX so that the benchmarks can monitor the remote observation channels of each node.
+        executor.setXWikiOpts("-Djgroups.bind_addr=localhost -Xmx512m -XX:MaxPermSize=128m "
+            + HeapSampler.getJMXOptions(executor.getRMIPort()));
+    }
+
+    /**
+     * Configures the attachment store selected with the {@code xwiki.test.cluster.attachmentStore} system property.
+     *
+     * @param executors the executors of the nodes
+     * @throws Exception if the configuration fails
+     */
+    protected void initAttachmentStore(List<XWikiExecutor> executors) throws Exception
+    {
+        if (FILE_STORE.equals(AbstractClusterHttpTest.getAttachmentStore())) {
+            initFileAttachmentStore(executors);
+        }
+    }
+
+    /**
+     * Stores the attachments on the filesystem. The nodes share the same storage directory, like they would on a
+     * network filesystem in production, since the content saved by one node must be readable by the others.
+     *
+     * @param executors the executors of the nodes
+     * @throws Exception if the configuration fails
+     */
+    private void initFileAttachmentStore(List<XWikiExecutor> executors) throws Exception
+    {
+        File sharedDirectory =
+            new File(new File(executors.get(0).getExecutionDirectory()).getParentFile(), "cluster-storage");
+        FileUtils.deleteDirectory(sharedDirectory);
+        sharedDirectory.mkdirs();
+
+        for (XWikiExecutor executor : executors) {
+            // The filesystem store keeps the attachments in the storage directory of the permanent directory, which
+            // can't be configured on its own, so the nodes share their permanent directory and keep the data that
+            // can't be shared (search index, local extension repository) in their execution directory.
+            File nodeDirectory = new File(executor.getExecutionDirectory(), "data");
+
+            Properties cfg = executor.loadXWikiCfg();
+            cfg.setProperty("xwiki.store.attachment.hint", FILE_STORE);
+            cfg.setProperty("xwiki.store.attachment.versioning.hint", FILE_STORE);
+            cfg.setProperty("xwiki.store.attachment.recyclebin.hint", FILE_STORE);
+            cfg.setProperty("xwiki.plugins.lucene.indexdir", new File(nodeDirectory, "lucene").getAbsolutePath());
+            executor.saveXWikiCfg(cfg);
+
+            Properties properties = executor.loadXWikiProperties();
+            properties.setProperty("environment.permanentDirectory", sharedDirectory.getAbsolutePath());
+            properties.setProperty("extension.localRepository",
+                new File(nodeDirectory, "extension/repository").getAbsolutePath());
+            executor.saveXWikiProperties(properties);
+        }
     }
 }
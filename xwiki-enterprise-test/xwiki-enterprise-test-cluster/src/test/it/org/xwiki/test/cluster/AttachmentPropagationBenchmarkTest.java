@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.FileRequestEntity;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.cluster.framework.AbstractClusterHttpTest;
+import org.xwiki.test.rest.framework.HttpTransport;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Attaches files of increasing sizes to a page on the first node and measures, on each of the other nodes, how long it
+ * takes for the attachment to be listed (time-to-visible, driven by the invalidation of the document cache) and for
+ * its whole content to be downloaded (time-to-downloadable, which adds the loading of the content from the attachment
+ * store). Run it once with each attachment store ({@code -Dxwiki.test.cluster.attachmentStore=hibernate} or
+ * {@code file}) to compare them.
+ * <p>
+ * The sizes, in MB, are configured with {@code xwiki.test.cluster.attachments.sizes}. Uploads rejected by the writer
+ * (e.g. because the attachment doesn't fit in the memory of the node) are reported but don't fail the test, while
+ * attachments that never become downloadable on the other nodes do.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class AttachmentPropagationBenchmarkTest extends AbstractClusterHttpTest
+{
+    /** The space of the page holding the attachments. */
+    private static final String SPACE = "AttachmentPropagation";
+
+    /** The page holding the attachments. */
+    private static final String PAGE = "WebHome";
+
+    /** The node where the attachments are uploaded. */
+    private static final int WRITER = 0;
+
+    /** The number of bytes in a MB. */
+    private static final int MB = 1024 * 1024;
+
+    /** How long to wait for an attachment to be downloadable on the other nodes, in seconds. */
+    private static final int TIMEOUT = Integer.getInteger("xwiki.test.cluster.attachments.timeout", 600);
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%8s %6s %14s %14s %14s %14s%n";
+
+    /** The report. */
+    private final StringBuilder report = new StringBuilder();
+
+    /** The attachments which didn't become downloadable on all the nodes. */
+    private final List<String> failures = new ArrayList<String>();
+
+    @Test
+    public void testPropagation() throws Exception
+    {
+        Assert.assertTrue("At least 2 nodes are needed", getNodeCount() >= 2);
+
+        String store = getAttachmentStore();
+        this.report.append(String.format("Attachment propagation, %s attachment store, %d nodes%n", store,
+            getNodeCount()));
+        this.report.append(String.format(LINE_FORMAT, "MB", "Node", "Upload (ms)", "Visible (ms)", "Download (ms)",
+            "Downloadable"));
+
+        setPageContent(WRITER, SPACE, PAGE, "Attachment propagation benchmark");
+        for (String size : System.getProperty("xwiki.test.cluster.attachments.sizes", "1,10").split(",")) {
+            measure(Integer.parseInt(size.trim()));
+        }
+
+        writeReport(String.format("cluster-attachments-%s-%d-nodes.txt", store, getNodeCount()),
+            this.report.toString());
+
+        Assert.assertTrue(String.format("Attachments not downloadable after %d seconds: %s", TIMEOUT, this.failures),
+            this.failures.isEmpty());
+    }
+
+    /**
+     * Uploads an attachment of the given size on the writer and waits for the other nodes to serve it.
+     *
+     * @param size the size of the attachment, in MB
+     * @throws Exception if the measure fails
+     */
+    private void measure(int size) throws Exception
+    {
+        final String attachmentName = String.format("attachment-%dMB-%d.bin", size, System.currentTimeMillis());
+        final long length = (long) size * MB;
+        File file = createFile(length);
+
+        try {
+            PutMethod putMethod = new PutMethod(getAttachmentURI(WRITER, SPACE, PAGE, attachmentName));
+            putMethod.setRequestEntity(new FileRequestEntity(file, "application/octet-stream"));
+            long start = System.nanoTime();
+            HttpTransport.getInstance().execute(putMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+                TestUtils.ADMIN_CREDENTIALS.getPassword());
+            final long uploaded = System.nanoTime();
+            if (putMethod.getStatusCode() != HttpStatus.SC_CREATED) {
+                this.report.append(String.format("%8d upload failed: %s%n", size, getHttpMethodInfo(putMethod)));
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(getNodeCount() - 1);
+            List<Future<long[]>> waiters = new ArrayList<Future<long[]>>();
+            final long deadline = uploaded + TimeUnit.SECONDS.toNanos(TIMEOUT);
+            for (int node = 0; node < getNodeCount(); node++) {
+                if (node != WRITER) {
+                    final int reader = node;
+                    waiters.add(executor.submit(new Callable<long[]>()
+                    {
+                        @Override
+                        public long[] call() throws Exception
+                        {
+                            return waitForAttachment(reader, attachmentName, length, uploaded, deadline);
+                        }
+                    }));
+                }
+            }
+
+            try {
+                int index = 0;
+                for (int node = 0; node < getNodeCount(); node++) {
+                    if (node != WRITER) {
+                        report(size, node, uploaded - start, waiters.get(index++).get());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            // Keep the database small for the next sizes.
+            HttpTransport.getInstance().execute(
+                new DeleteMethod(getAttachmentURI(WRITER, SPACE, PAGE, attachmentName)),
+                TestUtils.ADMIN_CREDENTIALS.getUserName(), TestUtils.ADMIN_CREDENTIALS.getPassword());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Polls a node until it lists the attachment and then until it serves its whole content.
+     *
+     * @param node the index of the node
+     * @param attachmentName the name of the attachment
+     * @param length the size of the attachment, in bytes
+     * @param uploaded when the upload completed
+     * @param deadline when to give up
+     * @return when the attachment was listed, when its content was fully downloaded for the first time and how long
+     *         that download took, or {@code -1} values if the deadline was reached
+     * @throws Exception if the requests fail
+     */
+    private long[] waitForAttachment(int node, String attachmentName, long length, long uploaded, long deadline)
+        throws Exception
+    {
+        long visible = -1;
+        while (visible < 0 && System.nanoTime() < deadline) {
+            if (getAttachment(node, SPACE, PAGE, attachmentName) != null) {
+                visible = System.nanoTime();
+            } else {
+                Thread.sleep(50);
+            }
+        }
+
+        while (visible >= 0 && System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            if (download(node, attachmentName) == length) {
+                long downloaded = System.nanoTime();
+                return new long[] {visible - uploaded, downloaded - uploaded, downloaded - start};
+            }
+            Thread.sleep(50);
+        }
+
+        return new long[] {visible < 0 ? -1 : visible - uploaded, -1, -1};
+    }
+
+    /**
+     * @param node the index of the node
+     * @param attachmentName the name of the attachment
+     * @return the number of bytes of the attachment served by the node, {@code -1} if the node failed to serve it
+     * @throws Exception if the request fails
+     */
+    private long download(int node, String attachmentName) throws Exception
+    {
+        GetMethod getMethod = new GetMethod(getAttachmentURI(node, SPACE, PAGE, attachmentName));
+        HttpTransport.getInstance().executeStreaming(getMethod, null, null);
+        try {
+            if (getMethod.getStatusCode() != HttpStatus.SC_OK) {
+                return -1;
+            }
+
+            // Count the bytes without keeping them since the attachment may not fit in memory.
+            InputStream stream = getMethod.getResponseBodyAsStream();
+            byte[] buffer = new byte[64 * 1024];
+            long count = 0;
+            for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                count += read;
+            }
+
+            return count;
+        } finally {
+            getMethod.releaseConnection();
+        }
+    }
+
+    /**
+     * @param size the size of the attachment, in MB
+     * @param node the index of the node
+     * @param upload how long the upload took, in nanoseconds
+     * @param times the times returned by {@link #waitForAttachment(int, String, long, long, long)}
+     */
+    private void report(int size, int node, long upload, long[] times)
+    {
+        this.report.append(String.format(LINE_FORMAT, size, node, TimeUnit.NANOSECONDS.toMillis(upload),
+            toMillis(times[0]), toMillis(times[2]), toMillis(times[1])));
+        if (times[1] < 0) {
+            this.failures.add(String.format("%dMB on node %d", size, node));
+        }
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds, or {@code -1}
+     * @return the duration in milliseconds, or {@code timeout}
+     */
+    private String toMillis(long nanos)
+    {
+        return nanos < 0 ? "timeout" : String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * @param length the size of the file, in bytes
+     * @return a temporary file of the given size, filled with random bytes so that compression doesn't help
+     * @throws Exception if the file cannot be written
+     */
+    private File createFile(long length) throws Exception
+    {
+        File file = File.createTempFile("attachment", ".bin");
+        file.deleteOnExit();
+
+        byte[] buffer = new byte[MB];
+        new Random(length).nextBytes(buffer);
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            for (long written = 0; written < length; written += buffer.length) {
+                stream.write(buffer, 0, (int) Math.min(buffer.length, length - written));
+            }
+        } finally {
+            stream.close();
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.cluster.framework.AbstractClusterHttpTest;
+import org.xwiki.test.rest.framework.HttpTransport;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Saves the same page many times in a burst on one node and compares, with and without the coalescing of the remote
+ * events, the number of events sent to the other nodes, the read latency of the page on another node during the burst
+ * and the time it takes for that node to see the last version.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class CoalescingTest extends AbstractClusterHttpTest
+{
+    /** The space of the saved pages. */
+    private static final String SPACE = "Coalescing";
+
+    /** The page used to control the coalescing network adapter. */
+    private static final String CONTROL_PAGE = "Control";
+
+    /** The number of saves of the burst. */
+    private static final int BURST = 50;
+
+    /** The coalescing window used when coalescing is enabled, in milliseconds. */
+    private static final long WINDOW = 200;
+
+    /** How long to wait for the last version to be visible, in seconds. */
+    private static final int TIMEOUT = 30;
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-12s %8s %10s %10s %12s %12s %16s%n";
+
+    /** The node where the page is saved. */
+    private static final int WRITER = 0;
+
+    /** The node where the page is read. */
+    private static final int READER = 1;
+
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        setPageContent(WRITER, SPACE, CONTROL_PAGE, getControlPageContent());
+
+        StringBuilder report = new StringBuilder(String.format("Burst of %d saves of the same page%n", BURST));
+        report.append(String.format(LINE_FORMAT, "Window", "Saves", "Submitted", "Sent", "Read p50", "Read p99",
+            "Convergence"));
+        try {
+            long[] withoutCoalescing = measure(0, report);
+            long[] withCoalescing = measure(WINDOW, report);
+            writeReport("cluster-coalescing.txt", report.toString());
+
+            Assert.assertEquals("Events are merged while coalescing is disabled", withoutCoalescing[0],
+                withoutCoalescing[1]);
+            Assert.assertTrue(String.format("No event merged: %d submitted, %d sent", withCoalescing[0],
+                withCoalescing[1]), withCoalescing[1] < withCoalescing[0]);
+        } finally {
+            control(WRITER, 0L);
+        }
+    }
+
+    /**
+     * Saves a page many times in a burst with the given window and appends the result to the report.
+     *
+     * @param window the coalescing window, in milliseconds, 0 to disable coalescing
+     * @param report the report
+     * @return the number of events submitted to and sent by the coalescing network adapter during the burst
+     * @throws Exception if the measure fails
+     */
+    private long[] measure(long window, StringBuilder report) throws Exception
+    {
+        final String page = "Burst" + window;
+        setPageContent(WRITER, SPACE, page, "initial");
+        waitForContent(page, "initial");
+
+        long[] before = control(WRITER, window);
+
+        // Read the page on the other node during the whole burst.
+        final LatencyRecorder reads = new LatencyRecorder("Reads");
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                while (running.get()) {
+                    try {
+                        long start = System.nanoTime();
+                        getPageContent(READER, SPACE, page);
+                        reads.record(System.nanoTime() - start);
+                    } catch (Exception e) {
+                        reads.recordError();
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        String content = null;
+        try {
+            for (int i = 0; i < BURST; i++) {
+                content = "Save " + i;
+                setPageContent(WRITER, SPACE, page, content);
+            }
+        } finally {
+            running.set(false);
+            reader.join();
+        }
+        long convergence = waitForContent(page, content);
+
+        long[] after = control(WRITER, window);
+        long submitted = after[1] - before[1];
+        long sent = after[2] - before[2];
+        report.append(String.format(LINE_FORMAT, window > 0 ? window + "ms" : "disabled", BURST, submitted, sent,
+            String.format("%.2fms", LatencyRecorder.toMillis(reads.getPercentile(50))),
+            String.format("%.2fms", LatencyRecorder.toMillis(reads.getPercentile(99))),
+            String.format("%.2fms", LatencyRecorder.toMillis(convergence))));
+        Assert.assertEquals("Failed reads on the other node", 0, reads.getErrorCount());
+
+        return new long[] {submitted, sent};
+    }
+
+    /**
+     * @param page the page to read on the reader node
+     * @param content the expected content
+     * @return how long it took for the reader node to see the expected content, in nanoseconds
+     * @throws Exception if the content is not visible before the timeout
+     */
+    private long waitForContent(String page, String content) throws Exception
+    {
+        long start = System.nanoTime();
+        while (!content.equals(getPageContent(READER, SPACE, page))) {
+            Assert.assertTrue(String.format("[%s] not visible on node %d", content, READER),
+                System.nanoTime() - start < TIMEOUT * 1000000000L);
+            Thread.sleep(5);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Changes the coalescing window of a node.
+     *
+     * @param node the index of the node
+     * @param window the new window, in milliseconds
+     * @return the window, the number of submitted events and the number of sent events of the node
+     * @throws Exception if the request fails
+     */
+    private long[] control(int node, long window) throws Exception
+    {
+        GetMethod getMethod =
+            new GetMethod(String.format("%sget/%s/%s?outputSyntax=plain&basicauth=1&window=%d", getBinURL(node),
+                SPACE, CONTROL_PAGE, window));
+        HttpTransport.getInstance().execute(getMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+            TestUtils.ADMIN_CREDENTIALS.getPassword());
+        Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+        String[] values = getMethod.getResponseBodyAsString().trim().split("\\s+");
+        Assert.assertEquals("Unexpected control page output", 3, values.length);
+
+        return new long[] {Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2])};
+    }
+
+    /**
+     * @return the content of the page used to control the coalescing network adapter
+     * @throws Exception if the resource cannot be read
+     */
+    private String getControlPageContent() throws Exception
+    {
+        InputStream stream = getClass().getResourceAsStream("/CoalescingControl.txt");
+        try {
+            return IOUtils.toString(stream, "UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+}
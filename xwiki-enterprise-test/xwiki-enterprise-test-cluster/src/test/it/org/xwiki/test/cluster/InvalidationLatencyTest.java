@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.cluster.framework.AbstractClusterHttpTest;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+
+/**
+ * Measures how long it takes for a page modification made on one node to be visible on each other node of the
+ * cluster: the time between the end of the write on node {@code i} and the first read returning the new content on
+ * node {@code j}. Every node writes in turn and all the other nodes poll concurrently, and the latencies are reported
+ * as percentiles for each pair of nodes and as a histogram for the whole cluster.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class InvalidationLatencyTest extends AbstractClusterHttpTest
+{
+    /** The space of the modified page. */
+    private static final String SPACE = "Test";
+
+    /** The modified page. */
+    private static final String PAGE = "InvalidationLatency";
+
+    /** The number of writes done by each node. */
+    private static final int ROUNDS = Integer.getInteger("xwiki.test.cluster.invalidation.rounds", 10);
+
+    /** How long to wait for a modification to be visible on a node, in seconds. */
+    private static final int TIMEOUT = 30;
+
+    /** The delay between two reads of a node waiting for a modification, in milliseconds. */
+    private static final int POLL_PERIOD = 5;
+
+    @Test
+    public void testInvalidationLatency() throws Exception
+    {
+        final int nodes = getNodeCount();
+        Assert.assertTrue("At least 2 nodes are needed", nodes >= 2);
+
+        LatencyRecorder[][] pairs = new LatencyRecorder[nodes][nodes];
+        LatencyRecorder cluster = new LatencyRecorder(String.format("Invalidation latency (%d nodes)", nodes));
+        List<String> timeouts = new ArrayList<String>();
+
+        ExecutorService readers = Executors.newFixedThreadPool(nodes);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int writer = 0; writer < nodes; writer++) {
+                    // Read the page on every node so that the previous version is in the document caches.
+                    for (int node = 0; node < nodes; node++) {
+                        getPageContent(node, SPACE, PAGE);
+                    }
+
+                    final String content = String.format("Round %d written by node %d", round, writer);
+                    setPageContent(writer, SPACE, PAGE, content);
+                    final long written = System.nanoTime();
+
+                    List<Future<Long>> latencies = new ArrayList<Future<Long>>();
+                    for (int reader = 0; reader < nodes; reader++) {
+                        if (reader != writer) {
+                            latencies.add(readers.submit(new ConsistentReadWaiter(reader, content, written)));
+                        }
+                    }
+
+                    int futureIndex = 0;
+                    for (int reader = 0; reader < nodes; reader++) {
+                        if (reader == writer) {
+                            continue;
+                        }
+                        if (pairs[writer][reader] == null) {
+                            pairs[writer][reader] =
+                                new LatencyRecorder(String.format("Node %d -> node %d", writer, reader));
+                        }
+
+                        long latency = latencies.get(futureIndex++).get();
+                        if (latency < 0) {
+                            pairs[writer][reader].recordError();
+                            timeouts.add(String.format("round %d, node %d -> node %d", round, writer, reader));
+                        } else {
+                            pairs[writer][reader].record(latency);
+                            cluster.record(latency);
+                        }
+                    }
+                }
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+
+        StringBuilder report = new StringBuilder();
+        for (int writer = 0; writer < nodes; writer++) {
+            for (int reader = 0; reader < nodes; reader++) {
+                if (pairs[writer][reader] != null) {
+                    report.append(pairs[writer][reader].getSummary()).append('\n');
+                }
+            }
+        }
+        report.append(cluster.getSummary()).append(String.format(" max=%.2fms%n%n",
+            LatencyRecorder.toMillis(cluster.getPercentile(100))));
+        report.append(cluster.getHistogram());
+        writeReport(String.format("cluster-invalidation-%d-nodes.txt", nodes), report.toString());
+
+        Assert.assertTrue(String.format("Modifications not visible after %d seconds: %s", TIMEOUT, timeouts),
+            timeouts.isEmpty());
+    }
+
+    /**
+     * Reads a page on a node until it has the expected content.
+     */
+    private class ConsistentReadWaiter implements Callable<Long>
+    {
+        /** The index of the node to read from. */
+        private final int node;
+
+        /** The expected content. */
+        private final String content;
+
+        /** When the content was written, from {@link System#nanoTime()}. */
+        private final long written;
+
+        /**
+         * @param node the index of the node to read from
+         * @param content the expected content
+         * @param written when the content was written, from {@link System#nanoTime()}
+         */
+        ConsistentReadWaiter(int node, String content, long written)
+        {
+            this.node = node;
+            this.content = content;
+            this.written = written;
+        }
+
+        @Override
+        public Long call() throws Exception
+        {
+            long deadline = this.written + TimeUnit.SECONDS.toNanos(TIMEOUT);
+            while (System.nanoTime() < deadline) {
+                if (this.content.equals(getPageContent(this.node, SPACE, PAGE))) {
+                    return System.nanoTime() - this.written;
+                }
+                Thread.sleep(POLL_PERIOD);
+            }
+
+            return -1L;
+        }
+    }
+}
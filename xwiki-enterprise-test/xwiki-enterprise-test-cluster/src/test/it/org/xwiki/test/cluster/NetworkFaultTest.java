@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.cluster.framework.AbstractClusterHttpTest;
+import org.xwiki.test.cluster.framework.FaultInjectionProxy;
+import org.xwiki.test.rest.framework.HttpTransport;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Injects network faults between the cluster nodes with the {@link FaultInjectionProxy proxies} while a page and an
+ * attachment are modified on the first node, then heals the network and measures how long the document and attachment
+ * caches of the other nodes take to reconverge, both since the modification and since the network was healed. Fails
+ * if a node still serves stale content long after the fault healed.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class NetworkFaultTest extends AbstractClusterHttpTest
+{
+    /** The space of the modified pages. */
+    private static final String SPACE = "NetworkFault";
+
+    /** The node where the modifications are made. */
+    private static final int WRITER = 0;
+
+    /** How long the faults last, in seconds. */
+    private static final int FAULT_DURATION = 10;
+
+    /** How long to wait, after the fault healed, for the nodes to reconverge, in seconds. */
+    private static final int TIMEOUT = Integer.getInteger("xwiki.test.cluster.faults.timeout", 120);
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-22s %6s %-10s %16s %16s%n";
+
+    /** The report. */
+    private final StringBuilder report = new StringBuilder(String.format(LINE_FORMAT, "Fault", "Node", "Cache",
+        "Since write (ms)", "Since heal (ms)"));
+
+    /** The nodes which didn't reconverge. */
+    private final List<String> failures = new ArrayList<String>();
+
+    /**
+     * A network fault.
+     */
+    private enum Fault
+    {
+        /** 100ms of latency, plus up to 100ms of jitter. */
+        LATENCY,
+
+        /** 5% of the forwarded chunks of data drop their connection. */
+        DROPS,
+
+        /** The nodes are isolated from each other. */
+        PARTITION;
+
+        /**
+         * @param proxy the proxy to apply the fault to
+         */
+        void apply(FaultInjectionProxy proxy)
+        {
+            switch (this) {
+                case LATENCY:
+                    proxy.setLatency(100, 100);
+                    break;
+                case DROPS:
+                    proxy.setDropProbability(0.05);
+                    break;
+                default:
+                    proxy.partition();
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void testReconvergence() throws Exception
+    {
+        Assert.assertTrue("At least 2 nodes are needed", getNodeCount() >= 2);
+
+        try {
+            // The partition comes last since the nodes need to merge their views again afterwards.
+            for (Fault fault : Fault.values()) {
+                measure(fault);
+            }
+        } finally {
+            for (FaultInjectionProxy proxy : FaultInjectionProxy.getNodeProxies()) {
+                proxy.heal();
+            }
+        }
+        writeReport(String.format("cluster-network-faults-%d-nodes.txt", getNodeCount()), this.report.toString());
+
+        Assert.assertTrue(String.format("Stale content %d seconds after the fault healed: %s", TIMEOUT,
+            this.failures), this.failures.isEmpty());
+    }
+
+    /**
+     * Modifies a page and adds an attachment during the given fault, heals it and waits for the other nodes.
+     *
+     * @param fault the fault to inject
+     * @throws Exception if the measure fails
+     */
+    private void measure(Fault fault) throws Exception
+    {
+        final String page = "Page" + fault.name();
+        final String content = String.format("Written during %s at %d", fault, System.currentTimeMillis());
+        final String attachment = String.format("%s-%d.txt", fault, System.currentTimeMillis());
+
+        // Make sure the page is in every cache before the fault.
+        setPageContent(WRITER, SPACE, page, "Before the fault");
+        for (int node = 0; node < getNodeCount(); node++) {
+            getPageContent(node, SPACE, page);
+            getAttachment(node, SPACE, page, attachment);
+        }
+
+        for (FaultInjectionProxy proxy : FaultInjectionProxy.getNodeProxies()) {
+            fault.apply(proxy);
+        }
+        setPageContent(WRITER, SPACE, page, content);
+        putAttachment(WRITER, page, attachment);
+        final long written = System.nanoTime();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2 * (getNodeCount() - 1));
+        List<Future<Long>> documentWaiters = new ArrayList<Future<Long>>();
+        List<Future<Long>> attachmentWaiters = new ArrayList<Future<Long>>();
+        final long deadline = written + TimeUnit.SECONDS.toNanos(FAULT_DURATION + TIMEOUT);
+        for (int node = 0; node < getNodeCount(); node++) {
+            if (node == WRITER) {
+                continue;
+            }
+            final int reader = node;
+            documentWaiters.add(executor.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call() throws Exception
+                {
+                    while (System.nanoTime() < deadline) {
+                        if (content.equals(getPageContent(reader, SPACE, page))) {
+                            return System.nanoTime();
+                        }
+                        Thread.sleep(50);
+                    }
+                    return -1L;
+                }
+            }));
+            attachmentWaiters.add(executor.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call() throws Exception
+                {
+                    while (System.nanoTime() < deadline) {
+                        if (getAttachment(reader, SPACE, page, attachment) != null) {
+                            return System.nanoTime();
+                        }
+                        Thread.sleep(50);
+                    }
+                    return -1L;
+                }
+            }));
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(FAULT_DURATION));
+        for (FaultInjectionProxy proxy : FaultInjectionProxy.getNodeProxies()) {
+            proxy.heal();
+        }
+        long healed = System.nanoTime();
+
+        try {
+            int index = 0;
+            for (int node = 0; node < getNodeCount(); node++) {
+                if (node != WRITER) {
+                    report(fault, node, "document", documentWaiters.get(index).get(), written, healed);
+                    report(fault, node, "attachment", attachmentWaiters.get(index).get(), written, healed);
+                    index++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param fault the injected fault
+     * @param node the index of the node
+     * @param cache the cache
+     * @param converged when the node served the new content, {@code -1} if it didn't
+     * @param written when the content was modified
+     * @param healed when the fault was healed
+     */
+    private void report(Fault fault, int node, String cache, long converged, long written, long healed)
+    {
+        if (converged < 0) {
+            this.report.append(String.format(LINE_FORMAT, fault, node, cache, "stale", "stale"));
+            this.failures.add(String.format("%s cache of node %d after %s", cache, node, fault));
+        } else {
+            this.report.append(String.format(LINE_FORMAT, fault, node, cache,
+                TimeUnit.NANOSECONDS.toMillis(converged - written),
+                TimeUnit.NANOSECONDS.toMillis(Math.max(converged - healed, 0))));
+        }
+    }
+
+    /**
+     * @param node the index of the node
+     * @param page the page
+     * @param attachment the name of the attachment
+     * @throws Exception if the request fails
+     */
+    private void putAttachment(int node, String page, String attachment) throws Exception
+    {
+        PutMethod putMethod = new PutMethod(getAttachmentURI(node, SPACE, page, attachment));
+        putMethod.setRequestEntity(new StringRequestEntity(attachment, MediaType.TEXT_PLAIN, "UTF-8"));
+        HttpTransport.getInstance().execute(putMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+            TestUtils.ADMIN_CREDENTIALS.getPassword());
+        Assert.assertEquals(getHttpMethodInfo(putMethod), HttpStatus.SC_CREATED, putMethod.getStatusCode());
+    }
+}
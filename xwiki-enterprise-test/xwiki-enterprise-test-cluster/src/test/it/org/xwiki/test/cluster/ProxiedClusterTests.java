@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.extensions.cpsuite.ClasspathSuite.ClassnameFilters;
+import org.junit.runner.RunWith;
+import org.xwiki.test.cluster.framework.ClusterSuite;
+import org.xwiki.test.cluster.framework.FaultInjectionProxy;
+import org.xwiki.test.integration.XWikiExecutor;
+import org.xwiki.test.integration.XWikiExecutorSuite;
+
+/**
+ * Runs the tests measuring how the cluster behaves with a faulty network, coalesced remote events and warm starts.
+ * The nodes are configured like in {@link AllTests} except that they communicate through
+ * {@link FaultInjectionProxy proxies}, send their remote events through the coalescing network adapter (disabled
+ * until a test sets its window) and record the documents they serve in a warm start snapshot. Since this
+ * configuration differs from the stock one, these tests are only run with the {@code benchmarks} profile.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+@RunWith(ClusterSuite.class)
+@ClassnameFilters({".*\\.NetworkFaultTest", ".*\\.CoalescingTest", ".*\\.WarmStartTest"})
+public class ProxiedClusterTests extends AllTests
+{
+    /** The name of the JGroups channel going through the fault injection proxies. */
+    private static final String CHANNEL = "proxied";
+
+    /** The JGroups port of the first node. */
+    private static final int JGROUPS_PORT = 7800;
+
+    /** The port of the fault injection proxy of the first node. */
+    private static final int PROXY_PORT = 17800;
+
+    @Override
+    @XWikiExecutorSuite.PreStart
+    public void preInitialize(List<XWikiExecutor> executors) throws Exception
+    {
+        // All the connections to a node go through its proxy, which forwards them without fault by default.
+        StringBuilder initialHosts = new StringBuilder();
+        for (int i = 0; i < executors.size(); i++) {
+            FaultInjectionProxy.addNodeProxy(new FaultInjectionProxy(PROXY_PORT + i, JGROUPS_PORT + i));
+            initialHosts.append(i > 0 ? "," : "").append(String.format("localhost[%d]", PROXY_PORT + i));
+        }
+
+        for (int i = 0; i < executors.size(); i++) {
+            initChannel(executors.get(i), CHANNEL);
+            writeChannelConfiguration(executors.get(i), i, executors.size(), initialHosts.toString());
+        }
+
+        initAttachmentStore(executors);
+    }
+
+    @Override
+    protected void initChannel(XWikiExecutor executor, String channelName) throws Exception
+    {
+        super.initChannel(executor, channelName);
+
+        Properties properties = executor.loadXWikiProperties();
+        // Go through the coalescing network adapter, disabled by default, so that CoalescingTest can enable it.
+        properties.setProperty("observation.remote.networkadapter", "coalescing");
+        properties.setProperty("observation.remote.coalescing.window", "0");
+        // Record the accessed documents so that WarmStartTest can restart a node with a snapshot of them.
+        properties.setProperty("cluster.warmstart.enabled", "true");
+        properties.setProperty("cluster.warmstart.file", getWarmStartSnapshot(executor).getAbsolutePath());
+        executor.saveXWikiProperties(properties);
+    }
+
+    private void writeChannelConfiguration(XWikiExecutor executor, int index, int nodes, String initialHosts)
+        throws Exception
+    {
+        InputStream stream = getClass().getResourceAsStream("/" + CHANNEL + ".xml");
+        String configuration;
+        try {
+            configuration = IOUtils.toString(stream, "UTF-8");
+        } finally {
+            stream.close();
+        }
+        configuration = configuration.replace("{bindPort}", String.valueOf(JGROUPS_PORT + index));
+        configuration = configuration.replace("{externalPort}", String.valueOf(PROXY_PORT + index));
+        configuration = configuration.replace("{initialHosts}", initialHosts);
+        configuration = configuration.replace("{nodes}", String.valueOf(nodes));
+
+        FileUtils.writeStringToFile(new File(executor.getWebInfDirectory(), "observation/remote/jgroups/" + CHANNEL
+            + ".xml"), configuration, "UTF-8");
+    }
+
+    /**
+     * @param executor the executor of a node
+     * @return the warm start snapshot file of the node
+     */
+    public static File getWarmStartSnapshot(XWikiExecutor executor)
+    {
+        return new File(executor.getExecutionDirectory(), "warmstart.txt");
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.cluster.framework.AbstractClusterHttpTest;
+import org.xwiki.test.cluster.framework.ClusterSuite;
+import org.xwiki.test.integration.XWikiExecutor;
+import org.xwiki.test.rest.framework.HttpTransport;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+
+/**
+ * Restarts the last node of the cluster, first without and then with a warm start snapshot of the documents it
+ * served, and measures the latency of the pages during the first minute after each restart.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class WarmStartTest extends AbstractClusterHttpTest
+{
+    /** The space of the pages. */
+    private static final String SPACE = "WarmStart";
+
+    /** The number of pages, which should fit in the document cache. */
+    private static final int PAGES = Integer.getInteger("xwiki.test.cluster.warmstart.pages", 100);
+
+    /** The number of concurrent readers. */
+    private static final int THREADS = Integer.getInteger("xwiki.test.cluster.warmstart.threads", 4);
+
+    /** How long the latency is measured after a restart, in seconds. */
+    private static final int DURATION = Integer.getInteger("xwiki.test.cluster.warmstart.duration", 60);
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-20s %12s %8s %10s %10s %10s%n";
+
+    @Test
+    public void testFirstMinuteLatency() throws Exception
+    {
+        int node = getNodeCount() - 1;
+        XWikiExecutor executor = ClusterSuite.getExecutors().get(node);
+        File snapshot = ProxiedClusterTests.getWarmStartSnapshot(executor);
+
+        for (int i = 0; i < PAGES; i++) {
+            setPageContent(0, SPACE, "Page" + i, String.format("= Page %d =%n%nContent of page %d.", i, i));
+        }
+        // Make the node serve the pages so that they end up in its snapshot.
+        for (int i = 0; i < PAGES; i++) {
+            get(node, i);
+        }
+
+        StringBuilder report = new StringBuilder(String.format("Warm start, %d pages, %d readers%n", PAGES, THREADS));
+        report.append(String.format(LINE_FORMAT, "Restart", "Restart (ms)", "Count", "p50 (ms)", "p99 (ms)",
+            "Max (ms)"));
+
+        executor.stop();
+        snapshot.delete();
+        report.append(measure(node, executor, "without snapshot"));
+
+        // Stopping the node saves the snapshot.
+        executor.stop();
+        Assert.assertTrue("No warm start snapshot saved in " + snapshot, snapshot.exists());
+        report.append(measure(node, executor, "with snapshot"));
+
+        writeReport("cluster-warm-start.txt", report.toString());
+    }
+
+    /**
+     * Starts the given node and requests random pages during the first minute.
+     *
+     * @param node the index of the node
+     * @param executor the executor of the node, stopped
+     * @param name the name of the restart
+     * @return the line of the report
+     * @throws Exception if the measure fails
+     */
+    private String measure(final int node, XWikiExecutor executor, String name) throws Exception
+    {
+        long start = System.nanoTime();
+        executor.start();
+        long restart = System.nanoTime() - start;
+
+        final LatencyRecorder recorder = new LatencyRecorder(name);
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION);
+        ExecutorService readers = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < THREADS; i++) {
+            final Random random = new Random(i);
+            futures.add(readers.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    while (System.nanoTime() < end) {
+                        long requestStart = System.nanoTime();
+                        if (get(node, random.nextInt(PAGES))) {
+                            recorder.record(System.nanoTime() - requestStart);
+                        } else {
+                            recorder.recordError();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+
+        System.out.print(recorder.getHistogram());
+        Assert.assertEquals("Failed requests after the restart " + name, 0, recorder.getErrorCount());
+
+        return String.format(LINE_FORMAT, name, TimeUnit.NANOSECONDS.toMillis(restart), recorder.getCount(),
+            String.format("%.2f", LatencyRecorder.toMillis(recorder.getPercentile(50))),
+            String.format("%.2f", LatencyRecorder.toMillis(recorder.getPercentile(99))),
+            String.format("%.2f", LatencyRecorder.toMillis(recorder.getPercentile(100))));
+    }
+
+    /**
+     * Requests a page through the {@code get} action, which records the access for the warm start snapshot.
+     *
+     * @param node the index of the node
+     * @param page the index of the page
+     * @return {@code true} if the page was served
+     * @throws Exception if the request fails
+     */
+    private boolean get(int node, int page) throws Exception
+    {
+        GetMethod getMethod = new GetMethod(String.format("%sget/%s/Page%d", getBinURL(node), SPACE, page));
+        HttpTransport.getInstance().execute(getMethod, null, null);
+
+        return getMethod.getStatusCode() == HttpStatus.SC_OK;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.cluster.framework.AbstractClusterHttpTest;
+import org.xwiki.test.cluster.framework.ClusterSuite;
+import org.xwiki.test.cluster.framework.RemoteEventMonitor;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+
+/**
+ * Performs sustained concurrent writes on every node of the cluster while other clients read the same pages on the
+ * other nodes, and reports:
+ * <ul>
+ * <li>the write throughput and the number of remote events received per second by each node;</li>
+ * <li>the maximum backlog of remote events waiting to be processed on each node;</li>
+ * <li>the fraction of stale reads, i.e. reads returning an older version of a page than one whose save had already
+ * completed on another node when the read started, and how old these stale versions were.</li>
+ * </ul>
+ * Each page is written by a single writer so that its versions are saved in order.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class WriteStormBenchmarkTest extends AbstractClusterHttpTest
+{
+    /** The space of the written pages. */
+    private static final String SPACE = "WriteStorm";
+
+    /** The prefix of the content of the pages, followed by the version. */
+    private static final String VERSION_PREFIX = "version ";
+
+    /** The number of writers on each node. */
+    private static final int WRITERS = Integer.getInteger("xwiki.test.cluster.writeStorm.writers", 2);
+
+    /** The number of readers on each node. */
+    private static final int READERS = Integer.getInteger("xwiki.test.cluster.writeStorm.readers", 2);
+
+    /** The number of pages owned by each writer. */
+    private static final int PAGES_PER_WRITER = 4;
+
+    /** The duration of the storm, in seconds. */
+    private static final int DURATION = Integer.getInteger("xwiki.test.cluster.writeStorm.duration", 30);
+
+    /** The period of the backlog sampling, in milliseconds. */
+    private static final long SAMPLING_PERIOD = 200;
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-6s %10s %10s %12s %12s %10s %12s %14s%n";
+
+    /** The errors raised by the writers and the readers. */
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+    /** The last version of each page whose save has completed. */
+    private AtomicLongArray savedVersions;
+
+    /** When the last version of each page was saved, from {@link System#nanoTime()}. */
+    private AtomicLongArray savedTimes;
+
+    /** When the storm ends, from {@link System#nanoTime()}. */
+    private long end;
+
+    @Test
+    public void testWriteStorm() throws Exception
+    {
+        int nodes = getNodeCount();
+        Assert.assertTrue("At least 2 nodes are needed", nodes >= 2);
+        int pageCount = nodes * WRITERS * PAGES_PER_WRITER;
+        this.savedVersions = new AtomicLongArray(pageCount);
+        this.savedTimes = new AtomicLongArray(pageCount);
+
+        // Create the pages on the first node and wait for the others to see them.
+        for (int page = 0; page < pageCount; page++) {
+            setPageContent(0, SPACE, getPageName(page), VERSION_PREFIX + 0);
+        }
+        for (int node = 1; node < nodes; node++) {
+            for (int page = 0; page < pageCount; page++) {
+                while (getPageContent(node, SPACE, getPageName(page)) == null) {
+                    Thread.sleep(100);
+                }
+            }
+        }
+
+        AtomicLong[] writes = new AtomicLong[nodes];
+        LatencyRecorder[] reads = new LatencyRecorder[nodes];
+        LatencyRecorder[] staleness = new LatencyRecorder[nodes];
+        for (int node = 0; node < nodes; node++) {
+            writes[node] = new AtomicLong();
+            reads[node] = new LatencyRecorder("Reads on node " + node);
+            staleness[node] = new LatencyRecorder("Stale reads on node " + node);
+        }
+
+        RemoteEventMonitor monitor = new RemoteEventMonitor(ClusterSuite.getExecutors());
+        long[] receivedBefore = new long[nodes];
+        long[] receivedAfter = new long[nodes];
+        long start;
+        ExecutorService executor = Executors.newFixedThreadPool(nodes * (WRITERS + READERS));
+        try {
+            for (int node = 0; node < nodes; node++) {
+                receivedBefore[node] = monitor.getReceivedMessages(node);
+            }
+            monitor.start(SAMPLING_PERIOD);
+
+            start = System.nanoTime();
+            this.end = start + TimeUnit.SECONDS.toNanos(DURATION);
+            for (int node = 0; node < nodes; node++) {
+                for (int i = 0; i < WRITERS; i++) {
+                    executor.submit(new Writer(node, node * WRITERS + i, writes[node]));
+                }
+                for (int i = 0; i < READERS; i++) {
+                    executor.submit(new Reader(node, nodes, reads[node], staleness[node]));
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(DURATION + 60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            monitor.stop();
+            for (int node = 0; node < nodes; node++) {
+                receivedAfter[node] = monitor.getReceivedMessages(node);
+            }
+            monitor.close();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        StringBuilder report =
+            new StringBuilder(String.format("Write storm (%d nodes, %d writers and %d readers per node, %d s)%n",
+                nodes, WRITERS, READERS, DURATION));
+        report.append(String.format(LINE_FORMAT, "Node", "Writes/s", "Events/s", "Max backlog", "Reads", "Stale",
+            "Stale ratio", "Stale age p99"));
+        for (int node = 0; node < nodes; node++) {
+            long received = receivedAfter[node];
+            String events =
+                received < 0 || receivedBefore[node] < 0 ? "n/a" : String.format("%.1f",
+                    (received - receivedBefore[node]) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+            long maxBacklog = monitor.getMaxBacklog(node);
+            int readCount = reads[node].getCount();
+            int staleCount = staleness[node].getCount();
+            report.append(String.format(LINE_FORMAT, node,
+                String.format("%.1f", writes[node].get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed), events,
+                maxBacklog < 0 ? "n/a" : String.valueOf(maxBacklog), readCount, staleCount,
+                String.format("%.4f", readCount == 0 ? 0 : (double) staleCount / readCount),
+                String.format("%.2fms", LatencyRecorder.toMillis(staleness[node].getPercentile(99)))));
+        }
+        writeReport(String.format("cluster-write-storm-%d-nodes.txt", nodes), report.toString());
+
+        Assert.assertTrue("Errors during the write storm: " + this.errors, this.errors.isEmpty());
+    }
+
+    /**
+     * @param page the index of a page
+     * @return the name of the page
+     */
+    private String getPageName(int page)
+    {
+        return "Page" + page;
+    }
+
+    /**
+     * @param content the content of a page
+     * @return the version of the page
+     */
+    private long getVersion(String content)
+    {
+        return Long.parseLong(content.trim().substring(VERSION_PREFIX.length()));
+    }
+
+    /**
+     * Writes the pages it owns in turn, on a given node, until the end of the storm.
+     */
+    private class Writer implements Runnable
+    {
+        /** The node to write on. */
+        private final int node;
+
+        /** The index of the writer, which owns the pages {@code index * PAGES_PER_WRITER} and next. */
+        private final int index;
+
+        /** Counts the writes done on the node. */
+        private final AtomicLong writes;
+
+        /**
+         * @param node the node to write on
+         * @param index the index of the writer
+         * @param writes counts the writes done on the node
+         */
+        Writer(int node, int index, AtomicLong writes)
+        {
+            this.node = node;
+            this.index = index;
+            this.writes = writes;
+        }
+
+        @Override
+        public void run()
+        {
+            long version = 0;
+            while (System.nanoTime() < end) {
+                version++;
+                int page = this.index * PAGES_PER_WRITER + (int) (version % PAGES_PER_WRITER);
+                try {
+                    setPageContent(this.node, SPACE, getPageName(page), VERSION_PREFIX + version);
+                    // Record the save time first so that a reader seeing the new version also sees its time.
+                    savedTimes.set(page, System.nanoTime());
+                    savedVersions.set(page, version);
+                    this.writes.incrementAndGet();
+                } catch (Exception e) {
+                    errors.add(String.format("Write of [%s] on node %d failed: %s", getPageName(page), this.node, e));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads, on a given node, random pages written on the other nodes until the end of the storm.
+     */
+    private class Reader implements Runnable
+    {
+        /** The node to read from. */
+        private final int node;
+
+        /** The number of nodes. */
+        private final int nodes;
+
+        /** Records the reads. */
+        private final LatencyRecorder reads;
+
+        /** Records, for each stale read, how long ago the newer version had been saved. */
+        private final LatencyRecorder staleness;
+
+        /** Picks the pages to read. */
+        private final Random random;
+
+        /**
+         * @param node the node to read from
+         * @param nodes the number of nodes
+         * @param reads records the reads
+         * @param staleness records how old the stale reads are
+         */
+        Reader(int node, int nodes, LatencyRecorder reads, LatencyRecorder staleness)
+        {
+            this.node = node;
+            this.nodes = nodes;
+            this.reads = reads;
+            this.staleness = staleness;
+            this.random = new Random(node);
+        }
+
+        @Override
+        public void run()
+        {
+            int pagesPerNode = WRITERS * PAGES_PER_WRITER;
+            while (System.nanoTime() < end) {
+                // Pick a page written by another node.
+                int writerNode = (this.node + 1 + this.random.nextInt(this.nodes - 1)) % this.nodes;
+                int page = writerNode * pagesPerNode + this.random.nextInt(pagesPerNode);
+                long savedVersion = savedVersions.get(page);
+                long savedTime = savedTimes.get(page);
+                try {
+                    long readStart = System.nanoTime();
+                    String content = getPageContent(this.node, SPACE, getPageName(page));
+                    this.reads.record(System.nanoTime() - readStart);
+                    if (getVersion(content) < savedVersion) {
+                        this.staleness.record(readStart - savedTime);
+                    }
+                } catch (Exception e) {
+                    errors.add(String.format("Read of [%s] on node %d failed: %s", getPageName(page), this.node, e));
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -19,12 +19,34 @@
  */
 package org.xwiki.test.cluster.framework;
 
+import java.io.IOException;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.junit.Test;
+import org.xwiki.rest.model.jaxb.Attachment;
+import org.xwiki.rest.model.jaxb.Attachments;
+import org.xwiki.rest.model.jaxb.Page;
+import org.xwiki.rest.resources.attachments.AttachmentResource;
+import org.xwiki.rest.resources.attachments.AttachmentsResource;
+import org.xwiki.rest.resources.pages.PageResource;
 import org.xwiki.test.integration.XWikiExecutor;
 import org.xwiki.test.rest.framework.AbstractHttpTest;
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+import org.xwiki.test.rest.framework.HttpTransport;
+import org.xwiki.test.rest.framework.JAXBUtils;
+import org.xwiki.test.ui.TestUtils;
 
 /**
  * Base class for REST based clustering integration test.
+ * <p>
+ * Besides {@link #switchXWiki(int)}, which changes the node targeted by the inherited helpers, it provides
+ * thread-safe helpers taking the index of the node explicitly, so that several nodes can be queried concurrently.
  * 
  * @version $Id$
  */
@@ -37,8 +59,184 @@ public void testRepresentation() throws Exception
     {
     }
 
+    /**
+     * @return the hint of the attachment store used by the nodes, configured with the
+     *         {@code xwiki.test.cluster.attachmentStore} system property
+     */
+    public static String getAttachmentStore()
+    {
+        return BenchmarkUtils.getProperty("xwiki.test.cluster.attachmentStore", "hibernate");
+    }
+
     protected void switchXWiki(int index)
     {
-        setPort(Integer.valueOf(XWikiExecutor.DEFAULT_PORT) + index);
+        setPort(getPort(index));
+    }
+
+    /**
+     * @return the number of nodes of the cluster
+     */
+    protected int getNodeCount()
+    {
+        return ClusterSuite.getNodeCount();
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the HTTP port of the node
+     */
+    protected int getPort(int index)
+    {
+        return Integer.valueOf(XWikiExecutor.DEFAULT_PORT) + index;
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the REST base URL of the node
+     */
+    protected String getBaseURL(int index)
+    {
+        String baseURL =
+            TestUtils.BASE_REST_URL.replace(':' + XWikiExecutor.DEFAULT_PORT + '/', ":" + getPort(index) + '/');
+
+        return baseURL.substring(0, baseURL.length() - 1);
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the URL of the actions ({@code view}, {@code get}...) of the node, ending with a slash
+     */
+    protected String getBinURL(int index)
+    {
+        return TestUtils.BASE_BIN_URL.replace(':' + XWikiExecutor.DEFAULT_PORT + '/', ":" + getPort(index) + '/');
+    }
+
+    /**
+     * @param index the index of a node
+     * @param spaceName the space of the page
+     * @param pageName the name of the page
+     * @return the URI of the page on the given node
+     */
+    protected String getPageURI(int index, String spaceName, String pageName)
+    {
+        try {
+            return UriBuilder.fromUri(getBaseURL(index)).path(PageResource.class)
+                .build(getWiki(), spaceName, pageName).toString();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to build the page URI", e);
+        }
+    }
+
+    /**
+     * Thread-safe variant of {@link #getPageContent(String, String, String)} targeting a given node.
+     *
+     * @param index the index of the node
+     * @param spaceName the space of the page
+     * @param pageName the name of the page
+     * @return the content of the page as seen by the node, {@code null} if the page doesn't exist
+     * @throws Exception if the request fails
+     */
+    protected String getPageContent(int index, String spaceName, String pageName) throws Exception
+    {
+        GetMethod getMethod = new GetMethod(getPageURI(index, spaceName, pageName));
+        getMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML);
+        HttpTransport.getInstance().execute(getMethod, null, null);
+
+        if (getMethod.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+            return null;
+        } else if (getMethod.getStatusCode() != HttpStatus.SC_OK) {
+            throw new IOException(getHttpMethodInfo(getMethod));
+        }
+
+        return JAXBUtils.unmarshal(getMethod.getResponseBodyAsStream(), Page.class).getContent();
+    }
+
+    /**
+     * Thread-safe variant of {@link #setPageContent(String, String, String, String)} targeting a given node.
+     *
+     * @param index the index of the node
+     * @param spaceName the space of the page
+     * @param pageName the name of the page
+     * @param content the new content of the page
+     * @throws Exception if the request fails
+     */
+    protected void setPageContent(int index, String spaceName, String pageName, String content) throws Exception
+    {
+        PutMethod putMethod = new PutMethod(getPageURI(index, spaceName, pageName));
+        putMethod.setRequestEntity(new StringRequestEntity(content, MediaType.TEXT_PLAIN, "UTF-8"));
+        HttpTransport.getInstance().execute(putMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+            TestUtils.ADMIN_CREDENTIALS.getPassword());
+
+        int code = putMethod.getStatusCode();
+        if (code != HttpStatus.SC_ACCEPTED && code != HttpStatus.SC_CREATED) {
+            throw new IOException(String.format("Failed to set page content, %s", getHttpMethodInfo(putMethod)));
+        }
+    }
+
+    /**
+     * @param index the index of a node
+     * @param spaceName the space of the page
+     * @param pageName the name of the page
+     * @param attachmentName the name of the attachment
+     * @return the URI of the attachment on the given node
+     */
+    protected String getAttachmentURI(int index, String spaceName, String pageName, String attachmentName)
+    {
+        try {
+            return UriBuilder.fromUri(getBaseURL(index)).path(AttachmentResource.class)
+                .build(getWiki(), spaceName, pageName, attachmentName).toString();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to build the attachment URI", e);
+        }
+    }
+
+    /**
+     * Thread-safe lookup of an attachment in the attachment list of a page, as seen by a given node.
+     *
+     * @param index the index of the node
+     * @param spaceName the space of the page
+     * @param pageName the name of the page
+     * @param attachmentName the name of the attachment
+     * @return the attachment, {@code null} if the node doesn't list it
+     * @throws Exception if the request fails
+     */
+    protected Attachment getAttachment(int index, String spaceName, String pageName, String attachmentName)
+        throws Exception
+    {
+        GetMethod getMethod =
+            new GetMethod(UriBuilder.fromUri(getBaseURL(index)).path(AttachmentsResource.class)
+                .build(getWiki(), spaceName, pageName).toString());
+        getMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML);
+        HttpTransport.getInstance().execute(getMethod, null, null);
+
+        if (getMethod.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+            return null;
+        } else if (getMethod.getStatusCode() != HttpStatus.SC_OK) {
+            throw new IOException(getHttpMethodInfo(getMethod));
+        }
+
+        Attachments attachments = JAXBUtils.unmarshal(getMethod.getResponseBodyAsStream(), Attachments.class);
+        for (Attachment attachment : attachments.getAttachments()) {
+            if (attachment.getName().equals(attachmentName)) {
+                return attachment;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes a report in the directory configured with {@code xwiki.test.cluster.reportDirectory} and prints it on the
+     * console.
+     *
+     * @param name the name of the report file
+     * @param content the content of the report
+     * @throws IOException if writing the file fails
+     */
+    protected void writeReport(String name, String content) throws IOException
+    {
+        BenchmarkUtils.writeReport(
+            BenchmarkUtils.getReportDirectory("xwiki.test.cluster.reportDirectory", "target/cluster-reports"), name,
+            content);
     }
 }
@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster.framework;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.extensions.cpsuite.ClasspathSuite;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.xwiki.test.integration.XWikiExecutor;
+import org.xwiki.test.integration.XWikiExecutorSuite;
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+
+/**
+ * Runs all the functional tests found in the classpath against a cluster of XWiki instances, started before the
+ * tests and stopped after them. Works like {@link XWikiExecutorSuite} except that the number of instances is read
+ * from the {@value #NODES_PROPERTY} system property instead of being fixed at compile time, and that the execution
+ * directory of each additional instance is created by copying the one of the first instance.
+ * <p>
+ * The methods of the suite class annotated with {@link XWikiExecutorSuite.PreStart} are called with the list of
+ * executors before the instances are started.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class ClusterSuite extends ClasspathSuite
+{
+    /** The name of the system property holding the number of cluster nodes. */
+    public static final String NODES_PROPERTY = "xwiki.test.cluster.nodes";
+
+    /** The number of nodes used when not configured. */
+    private static final int DEFAULT_NODES = 2;
+
+    /** The executors of the running cluster, empty when the cluster is not running. */
+    private static List<XWikiExecutor> executors = Collections.emptyList();
+
+    /** The suite class. */
+    private final Class< ? > suiteClass;
+
+    /**
+     * @param suiteClass the suite class
+     * @param builder used to build the runners of the tests
+     * @throws InitializationError if the suite cannot be initialized
+     */
+    public ClusterSuite(Class< ? > suiteClass, RunnerBuilder builder) throws InitializationError
+    {
+        super(suiteClass, builder);
+
+        this.suiteClass = suiteClass;
+    }
+
+    /**
+     * @return the number of nodes of the cluster
+     */
+    public static int getNodeCount()
+    {
+        return BenchmarkUtils.getIntProperty(NODES_PROPERTY, DEFAULT_NODES);
+    }
+
+    /**
+     * @return the executors of the running cluster
+     */
+    public static List<XWikiExecutor> getExecutors()
+    {
+        return executors;
+    }
+
+    @Override
+    public void run(RunNotifier notifier)
+    {
+        List<XWikiExecutor> clusterExecutors = new ArrayList<XWikiExecutor>();
+        for (int i = 0; i < getNodeCount(); i++) {
+            clusterExecutors.add(new XWikiExecutor(i));
+        }
+
+        List<XWikiExecutor> startedExecutors = new ArrayList<XWikiExecutor>();
+        try {
+            prepareExecutionDirectories(clusterExecutors);
+            preStart(clusterExecutors);
+            for (XWikiExecutor executor : clusterExecutors) {
+                executor.start();
+                startedExecutors.add(executor);
+            }
+            executors = Collections.unmodifiableList(clusterExecutors);
+        } catch (Exception e) {
+            notifier.fireTestFailure(new Failure(getDescription(), e));
+            stop(startedExecutors);
+            return;
+        }
+
+        try {
+            super.run(notifier);
+        } finally {
+            executors = Collections.emptyList();
+            stop(clusterExecutors);
+        }
+    }
+
+    /**
+     * Creates the execution directories of the additional nodes by copying the one of the first node.
+     *
+     * @param clusterExecutors the executors of the nodes
+     * @throws Exception if the copy fails
+     */
+    private void prepareExecutionDirectories(List<XWikiExecutor> clusterExecutors) throws Exception
+    {
+        File reference = new File(clusterExecutors.get(0).getExecutionDirectory());
+        for (XWikiExecutor executor : clusterExecutors.subList(1, clusterExecutors.size())) {
+            // Always start from a fresh copy so that the nodes run the same configuration.
+            File directory = new File(executor.getExecutionDirectory());
+            FileUtils.deleteDirectory(directory);
+            FileUtils.copyDirectory(reference, directory);
+        }
+    }
+
+    /**
+     * Calls the methods of the suite class annotated with {@link XWikiExecutorSuite.PreStart}.
+     *
+     * @param clusterExecutors the executors of the nodes
+     * @throws Exception if a method fails
+     */
+    private void preStart(List<XWikiExecutor> clusterExecutors) throws Exception
+    {
+        Object suiteInstance = null;
+        for (Method method : this.suiteClass.getMethods()) {
+            if (method.getAnnotation(XWikiExecutorSuite.PreStart.class) != null) {
+                if (suiteInstance == null) {
+                    suiteInstance = this.suiteClass.newInstance();
+                }
+                method.invoke(suiteInstance, clusterExecutors);
+            }
+        }
+    }
+
+    /**
+     * Stops the given nodes, ignoring the failures so that all the nodes get a chance to stop.
+     *
+     * @param clusterExecutors the executors of the nodes
+     */
+    private void stop(List<XWikiExecutor> clusterExecutors)
+    {
+        for (XWikiExecutor executor : clusterExecutors) {
+            try {
+                executor.stop();
+            } catch (Exception e) {
+                System.err.println(String.format("Failed to stop the XWiki instance running on port [%d]: %s",
+                    executor.getPort(), e));
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster.framework;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local TCP proxy standing between cluster nodes to simulate an imperfect network: it forwards the connections
+ * received on its port to a target port and can add latency and jitter, drop connections at random and partition the
+ * network (closing all the connections and refusing new ones) until it is healed.
+ * <p>
+ * Dropping a connection loses the data in transit, like a dropped packet would once TCP gives up, and forces the
+ * sender to reconnect; the data is never altered.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class FaultInjectionProxy
+{
+    /** The size of the forwarding buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The proxies of the cluster nodes, indexed by node. */
+    private static final List<FaultInjectionProxy> NODE_PROXIES = new CopyOnWriteArrayList<FaultInjectionProxy>();
+
+    /** The port where the connections are forwarded. */
+    private final int targetPort;
+
+    /** The listening socket. */
+    private final ServerSocket serverSocket;
+
+    /** The open sockets, to close them when partitioning the network. */
+    private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+
+    /** Used for the jitter and the drops. */
+    private final Random random = new Random();
+
+    /** The latency added to each forwarded chunk of data, in milliseconds. */
+    private volatile int latency;
+
+    /** The maximum random latency added on top of {@link #latency}, in milliseconds. */
+    private volatile int jitter;
+
+    /** The probability to drop the connection when forwarding a chunk of data. */
+    private volatile double dropProbability;
+
+    /** Whether the network is partitioned. */
+    private volatile boolean partitioned;
+
+    /**
+     * Creates and starts a proxy.
+     *
+     * @param port the port to listen to
+     * @param targetPort the port where the connections are forwarded
+     * @throws IOException if the port cannot be opened
+     */
+    public FaultInjectionProxy(int port, int targetPort) throws IOException
+    {
+        this.targetPort = targetPort;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+
+        Thread acceptor = new Thread("Fault injection proxy " + port)
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Registers the proxy of a cluster node, see {@link #getNodeProxy(int)}.
+     *
+     * @param proxy the proxy of the next node
+     */
+    public static void addNodeProxy(FaultInjectionProxy proxy)
+    {
+        NODE_PROXIES.add(proxy);
+    }
+
+    /**
+     * @param node the index of a node
+     * @return the proxy forwarding the connections to the given node
+     */
+    public static FaultInjectionProxy getNodeProxy(int node)
+    {
+        return NODE_PROXIES.get(node);
+    }
+
+    /**
+     * @return the proxies of all the cluster nodes
+     */
+    public static List<FaultInjectionProxy> getNodeProxies()
+    {
+        return new ArrayList<FaultInjectionProxy>(NODE_PROXIES);
+    }
+
+    /**
+     * @param latency the latency added to each forwarded chunk of data, in milliseconds
+     * @param jitter the maximum random latency added on top of the latency, in milliseconds
+     */
+    public void setLatency(int latency, int jitter)
+    {
+        this.latency = latency;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param dropProbability the probability to drop the connection when forwarding a chunk of data
+     */
+    public void setDropProbability(double dropProbability)
+    {
+        this.dropProbability = dropProbability;
+    }
+
+    /**
+     * Closes all the connections and refuses new ones until {@link #heal()} is called.
+     */
+    public void partition()
+    {
+        this.partitioned = true;
+        for (Socket socket : this.sockets) {
+            close(socket);
+        }
+    }
+
+    /**
+     * Removes all the faults.
+     */
+    public void heal()
+    {
+        this.partitioned = false;
+        this.latency = 0;
+        this.jitter = 0;
+        this.dropProbability = 0;
+    }
+
+    /**
+     * Accepts the connections until the proxy is closed.
+     */
+    private void accept()
+    {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                Socket client = this.serverSocket.accept();
+                if (this.partitioned) {
+                    close(client);
+                    continue;
+                }
+
+                Socket target = new Socket("localhost", this.targetPort);
+                this.sockets.add(client);
+                this.sockets.add(target);
+                forward(client, target);
+                forward(target, client);
+            } catch (IOException e) {
+                // The target is not listening yet or the proxy is closed, the sender will retry.
+            }
+        }
+    }
+
+    /**
+     * Starts forwarding the data received by a socket to another one.
+     *
+     * @param from the socket to read from
+     * @param to the socket to write to
+     */
+    private void forward(final Socket from, final Socket to)
+    {
+        Thread pump = new Thread("Fault injection proxy pump " + from.getPort())
+        {
+            @Override
+            public void run()
+            {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try {
+                    InputStream input = from.getInputStream();
+                    OutputStream output = to.getOutputStream();
+                    for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                        delay();
+                        if (partitioned || random.nextDouble() < dropProbability) {
+                            break;
+                        }
+                        output.write(buffer, 0, read);
+                        output.flush();
+                    }
+                } catch (IOException e) {
+                    // The connection is closed.
+                } finally {
+                    close(from);
+                    close(to);
+                }
+            }
+        };
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    /**
+     * Waits for the configured latency and jitter.
+     */
+    private void delay()
+    {
+        int delay = this.latency + (this.jitter > 0 ? this.random.nextInt(this.jitter + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param socket the socket to close
+     */
+    private void close(Socket socket)
+    {
+        this.sockets.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+    }
+
+    /**
+     * Closes all the connections and stops listening.
+     *
+     * @throws IOException if closing the listening socket fails
+     */
+    public void close() throws IOException
+    {
+        this.serverSocket.close();
+        for (Socket socket : this.sockets) {
+            close(socket);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.cluster.framework;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.xwiki.test.integration.XWikiExecutor;
+import org.xwiki.test.rest.framework.HeapSampler;
+
+/**
+ * Reads the statistics of the JGroups channels used by the remote observation manager of each cluster node through
+ * JMX: the number of messages (i.e. remote events) received and the number of messages waiting in the thread pools
+ * of the transport, sampled in the background to get the maximum backlog.
+ * <p>
+ * The nodes must be started with the JMX options of {@link HeapSampler#getJMXOptions(int)}. The statistics are only
+ * available when the channels are registered in JMX; otherwise the getters return {@code -1}. Both the JGroups 2
+ * (camel case) and JGroups 3 (lower case with underscores) attribute names are supported.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class RemoteEventMonitor
+{
+    /** The JGroups channel beans. */
+    private static final String CHANNEL_QUERY = "jgroups:type=channel,*";
+
+    /** The JGroups protocol beans. */
+    private static final String PROTOCOL_QUERY = "jgroups:type=protocol,*";
+
+    /** The transport protocols, whose thread pool queues hold the received messages waiting to be processed. */
+    private static final String[] TRANSPORTS = new String[] {"TCP", "TCP_NIO", "UDP"};
+
+    /** The JMX connections, one per node. */
+    private final List<JMXConnector> connectors = new ArrayList<JMXConnector>();
+
+    /** The maximum backlog seen on each node since the sampling started. */
+    private final long[] maxBacklogs;
+
+    /** Runs the backlog sampling. */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param executors the executors of the cluster nodes
+     * @throws IOException if the connection to a node fails
+     */
+    public RemoteEventMonitor(List<XWikiExecutor> executors) throws IOException
+    {
+        for (XWikiExecutor executor : executors) {
+            JMXServiceURL url =
+                new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://localhost:%d/jmxrmi",
+                    executor.getRMIPort()));
+            this.connectors.add(JMXConnectorFactory.connect(url));
+        }
+        this.maxBacklogs = new long[executors.size()];
+    }
+
+    /**
+     * @param node the index of the node
+     * @return the number of messages received by the node since it started, {@code -1} if unknown
+     */
+    public long getReceivedMessages(int node)
+    {
+        return sum(node, CHANNEL_QUERY, null, "received_messages", "ReceivedMessages");
+    }
+
+    /**
+     * @param node the index of the node
+     * @return the number of messages sent by the node since it started, {@code -1} if unknown
+     */
+    public long getSentMessages(int node)
+    {
+        return sum(node, CHANNEL_QUERY, null, "sent_messages", "SentMessages");
+    }
+
+    /**
+     * @param node the index of the node
+     * @return the number of received messages waiting to be processed by the node, {@code -1} if unknown
+     */
+    public long getBacklog(int node)
+    {
+        long regular = sum(node, PROTOCOL_QUERY, TRANSPORTS, "regular_queue_size", "RegularQueueSize");
+        long oob = sum(node, PROTOCOL_QUERY, TRANSPORTS, "oob_queue_size", "OOBQueueSize");
+
+        return regular < 0 ? oob : regular + Math.max(oob, 0);
+    }
+
+    /**
+     * @param node the index of the node
+     * @return the maximum backlog seen since {@link #start(long)} was called, {@code -1} if unknown
+     */
+    public synchronized long getMaxBacklog(int node)
+    {
+        return this.maxBacklogs[node];
+    }
+
+    /**
+     * Starts sampling the backlog of every node in the background and resets the maximums.
+     *
+     * @param period the sampling period, in milliseconds
+     */
+    public synchronized void start(long period)
+    {
+        stop();
+        for (int i = 0; i < this.maxBacklogs.length; i++) {
+            this.maxBacklogs[i] = getBacklog(i);
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.scheduler.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sample();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling the backlogs.
+     */
+    public synchronized void stop()
+    {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Stops sampling and closes the JMX connections.
+     */
+    public void close()
+    {
+        stop();
+        for (JMXConnector connector : this.connectors) {
+            try {
+                connector.close();
+            } catch (IOException e) {
+                // The node may already be stopped.
+            }
+        }
+    }
+
+    /**
+     * Takes a single sample of the backlog of every node.
+     */
+    private void sample()
+    {
+        for (int i = 0; i < this.maxBacklogs.length; i++) {
+            long backlog = getBacklog(i);
+            synchronized (this) {
+                this.maxBacklogs[i] = Math.max(this.maxBacklogs[i], backlog);
+            }
+        }
+    }
+
+    /**
+     * @param node the index of the node
+     * @param query the query selecting the beans
+     * @param protocols the value of the {@code protocol} key of the beans to take into account, {@code null} for all
+     * @param attributes the possible names of the attribute, the first one found is used
+     * @return the sum of the attribute over the selected beans, {@code -1} if no bean has the attribute
+     */
+    private long sum(int node, String query, String[] protocols, String... attributes)
+    {
+        long sum = -1;
+        try {
+            MBeanServerConnection connection = this.connectors.get(node).getMBeanServerConnection();
+            for (ObjectName name : connection.queryNames(new ObjectName(query), null)) {
+                if (protocols != null && !contains(protocols, name.getKeyProperty("protocol"))) {
+                    continue;
+                }
+                for (String attribute : attributes) {
+                    try {
+                        Object value = connection.getAttribute(name, attribute);
+                        if (value instanceof Number) {
+                            sum = Math.max(sum, 0) + ((Number) value).longValue();
+                            break;
+                        }
+                    } catch (Exception e) {
+                        // Try the next name.
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // The statistics are not available.
+        }
+
+        return sum;
+    }
+
+    /**
+     * @param values some values
+     * @param value a value
+     * @return {@code true} if the value is one of the values
+     */
+    private static boolean contains(String[] values, String value)
+    {
+        for (String candidate : values) {
+            if (candidate.equals(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
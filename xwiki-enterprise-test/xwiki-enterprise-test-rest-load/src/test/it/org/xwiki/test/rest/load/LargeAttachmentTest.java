@@ -0,0 +1,204 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rest.resources.attachments.AttachmentResource;
+import org.xwiki.test.rest.framework.GeneratedInputStream;
+import org.xwiki.test.rest.framework.HeapSampler;
+import org.xwiki.test.rest.framework.HttpTransport;
+import org.xwiki.test.rest.load.framework.AbstractBenchmarkTest;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Uploads and downloads very large attachments through the {@link AttachmentResource}, streaming the content on both
+ * sides, and verifies that the heap usage of the XWiki instance doesn't grow with the size of the attachment.
+ * <p>
+ * The sizes are configured with {@code xwiki.test.load.largeAttachment.sizes}, in bytes, e.g.
+ * {@code 104857600,536870912,2147483648} for 100MB, 512MB and 2GB.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class LargeAttachmentTest extends AbstractBenchmarkTest
+{
+    /** The space of the page holding the attachments. */
+    private static final String SPACE = "LoadTest";
+
+    /** The page holding the attachments. */
+    private static final String PAGE = "LargeAttachments";
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-12s %12s %12s %16s %16s%n";
+
+    /** The number of bytes in a megabyte. */
+    private static final long MB = 1024 * 1024;
+
+    /** The size of the buffer used to read the downloaded content. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The sizes of the attachments, in bytes. */
+    private final String[] sizes = LoadConfiguration.getProperty("largeAttachment.sizes", "104857600").split(",");
+
+    /** The heap growth always allowed, whatever the size of the attachment, in megabytes. */
+    private final long heapAllowance = LoadConfiguration.getIntProperty("largeAttachment.heapAllowance", 64) * MB;
+
+    /** The maximum heap growth, as a fraction of the attachment size, on top of the fixed allowance. */
+    private final double maxHeapRatio = LoadConfiguration.getDoubleProperty("largeAttachment.maxHeapRatio", 0.1);
+
+    @Test
+    public void testConstantMemoryTransfer() throws Exception
+    {
+        createPageIfDoesntExist(SPACE, PAGE, "Large attachments");
+
+        StringBuilder report = new StringBuilder("Large attachment transfer\n");
+        report.append(String.format(LINE_FORMAT, "Size (MB)", "Upload MB/s", "Download MB/s", "Upload heap (MB)",
+            "Download heap (MB)"));
+        List<String> failures = new ArrayList<String>();
+
+        HeapSampler sampler = createHeapSampler();
+        try {
+            for (String sizeValue : this.sizes) {
+                long size = Long.parseLong(sizeValue.trim());
+                String uri =
+                    getUriBuilder(AttachmentResource.class).build(getWiki(), SPACE, PAGE, "large-" + size + ".bin")
+                        .toString();
+
+                sampler.gc();
+                long baseline = sampler.getHeapUsage();
+                sampler.start();
+                long start = System.nanoTime();
+                byte[] uploadedDigest = upload(uri, size);
+                long uploadTime = System.nanoTime() - start;
+                long uploadGrowth = sampler.stop() - baseline;
+
+                sampler.gc();
+                baseline = sampler.getHeapUsage();
+                sampler.start();
+                start = System.nanoTime();
+                byte[] downloadedDigest = download(uri, size);
+                long downloadTime = System.nanoTime() - start;
+                long downloadGrowth = sampler.stop() - baseline;
+
+                Assert.assertTrue(String.format("The content of the %d bytes attachment is corrupted", size),
+                    Arrays.equals(uploadedDigest, downloadedDigest));
+
+                report.append(String.format(LINE_FORMAT, size / MB, formatRate(size, uploadTime),
+                    formatRate(size, downloadTime), uploadGrowth / MB, downloadGrowth / MB));
+
+                long maxGrowth = this.heapAllowance + (long) (this.maxHeapRatio * size);
+                if (Math.max(uploadGrowth, downloadGrowth) > maxGrowth) {
+                    failures.add(String.format("%dMB attachment (upload +%dMB, download +%dMB, max %dMB)", size / MB,
+                        uploadGrowth / MB, downloadGrowth / MB, maxGrowth / MB));
+                }
+
+                executeDelete(uri, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+                    TestUtils.ADMIN_CREDENTIALS.getPassword());
+            }
+        } finally {
+            sampler.close();
+        }
+
+        writeReport("rest-large-attachments.txt", report.toString());
+
+        Assert.assertTrue("The heap grows with the size of the attachment: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * Uploads generated content, streamed to the server.
+     *
+     * @param uri the URI of the attachment
+     * @param size the size of the attachment
+     * @return the digest of the uploaded content
+     * @throws Exception if the upload fails
+     */
+    private byte[] upload(String uri, long size) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        InputStream content = new DigestInputStream(new GeneratedInputStream(size, size), digest);
+
+        PutMethod putMethod = new PutMethod(uri);
+        putMethod.setRequestEntity(new InputStreamRequestEntity(content, size, "application/octet-stream"));
+        HttpTransport.getInstance().execute(putMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+            TestUtils.ADMIN_CREDENTIALS.getPassword());
+        Assert.assertTrue(getHttpMethodInfo(putMethod), putMethod.getStatusCode() == HttpStatus.SC_CREATED
+            || putMethod.getStatusCode() == HttpStatus.SC_ACCEPTED);
+
+        return digest.digest();
+    }
+
+    /**
+     * Downloads the content, reading it as a stream.
+     *
+     * @param uri the URI of the attachment
+     * @param size the expected size of the attachment
+     * @return the digest of the downloaded content
+     * @throws Exception if the download fails
+     */
+    private byte[] download(String uri, long size) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        long length = 0;
+
+        GetMethod getMethod = new GetMethod(uri);
+        HttpTransport.getInstance().executeStreaming(getMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+            TestUtils.ADMIN_CREDENTIALS.getPassword());
+        try {
+            Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+            InputStream stream = getMethod.getResponseBodyAsStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                digest.update(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            getMethod.releaseConnection();
+        }
+
+        Assert.assertEquals(size, length);
+
+        return digest.digest();
+    }
+
+    /**
+     * @param size the number of transferred bytes
+     * @param nanos the duration of the transfer, in nanoseconds
+     * @return the transfer rate in megabytes per second
+     */
+    private String formatRate(long size, long nanos)
+    {
+        return String.format("%.1f", (double) size / MB / (nanos / (double) TimeUnit.SECONDS.toNanos(1)));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.net.URLEncoder;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.enterprise.rest.resources.objects.ObjectPropertiesResource;
+import org.xwiki.rest.model.jaxb.Object;
+import org.xwiki.rest.model.jaxb.ObjectSummary;
+import org.xwiki.rest.model.jaxb.Objects;
+import org.xwiki.rest.model.jaxb.Property;
+import org.xwiki.rest.resources.objects.ObjectPropertyResource;
+import org.xwiki.rest.resources.objects.ObjectResource;
+import org.xwiki.rest.resources.objects.ObjectsResource;
+import org.xwiki.test.rest.load.framework.AbstractBenchmarkTest;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+import org.xwiki.test.rest.load.framework.XarGenerator;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Compares updating all the properties of many objects of a page with one {@code PUT} per property through the
+ * {@link ObjectPropertyResource}, as done in {@code ObjectsResourceTest#testPUTProperty()}, and with a single
+ * {@code PUT} through the {@link ObjectPropertiesResource}.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class ObjectPropertiesBenchmarkTest extends AbstractBenchmarkTest
+{
+    /** The class of the updated objects. */
+    private static final String CLASS_NAME = "Benchmark.BulkClass";
+
+    /** The space of the updated page. */
+    private static final String SPACE = "Benchmark";
+
+    /** The updated page. */
+    private static final String PAGE = "BulkUpdate";
+
+    /** The properties of {@link #CLASS_NAME}, see {@link XarGenerator#generateClass(String, String)}. */
+    private static final String[] PROPERTIES = new String[] {"category", "amount"};
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-26s %10s %10s %12s %14s%n";
+
+    /** The number of objects of the updated page. */
+    private final int objectCount = LoadConfiguration.getIntProperty("bulk.objects", 100);
+
+    /** The minimum ratio between the duration of the per property updates and of the bulk update. */
+    private final double minSpeedup = LoadConfiguration.getDoubleProperty("bulk.minSpeedup", 1);
+
+    @Test
+    public void testBulkUpdate() throws Exception
+    {
+        importXar(new XarGenerator(getWorkDirectory()).generateClass("bulk-class", CLASS_NAME), "RESET");
+        prepareObjects();
+        int propertyCount = this.objectCount * PROPERTIES.length;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < this.objectCount; i++) {
+            for (String property : PROPERTIES) {
+                String uri =
+                    getUriBuilder(ObjectPropertyResource.class).build(getWiki(), SPACE, PAGE, CLASS_NAME, i, property)
+                        .toString();
+                PutMethod putMethod =
+                    executePut(uri, getValue(property, i, 1), MediaType.TEXT_PLAIN,
+                        TestUtils.ADMIN_CREDENTIALS.getUserName(), TestUtils.ADMIN_CREDENTIALS.getPassword());
+                Assert.assertEquals(getHttpMethodInfo(putMethod), HttpStatus.SC_ACCEPTED, putMethod.getStatusCode());
+            }
+        }
+        long perPropertyDuration = System.nanoTime() - start;
+        assertValues(1);
+
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < this.objectCount; i++) {
+            for (String property : PROPERTIES) {
+                if (form.length() > 0) {
+                    form.append('&');
+                }
+                form.append(URLEncoder.encode(String.format("%s_%d_%s", CLASS_NAME, i, property), "UTF-8"));
+                form.append('=').append(URLEncoder.encode(getValue(property, i, 2), "UTF-8"));
+            }
+        }
+        start = System.nanoTime();
+        PutMethod putMethod =
+            executePut(getUriBuilder(ObjectPropertiesResource.class).build(getWiki(), SPACE, PAGE).toString(),
+                form.toString(), MediaType.APPLICATION_FORM_URLENCODED, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+                TestUtils.ADMIN_CREDENTIALS.getPassword());
+        long bulkDuration = System.nanoTime() - start;
+        Assert.assertEquals(getHttpMethodInfo(putMethod), HttpStatus.SC_ACCEPTED, putMethod.getStatusCode());
+        assertValues(2);
+
+        double speedup = (double) perPropertyDuration / bulkDuration;
+        StringBuilder report =
+            new StringBuilder(String.format("Object property updates (%d objects, %d properties)%n", this.objectCount,
+                propertyCount));
+        report.append(String.format(LINE_FORMAT, "Path", "Requests", "Revisions", "Total (ms)", "Properties/s"));
+        report.append(String.format(LINE_FORMAT, "ObjectPropertyResource", propertyCount, propertyCount,
+            formatMillis(perPropertyDuration), formatThroughput(propertyCount, perPropertyDuration)));
+        report.append(String.format(LINE_FORMAT, "ObjectPropertiesResource", 1, 1, formatMillis(bulkDuration),
+            formatThroughput(propertyCount, bulkDuration)));
+        report.append(String.format("Speedup: %.2f%n", speedup));
+        writeReport("rest-object-properties.txt", report.toString());
+
+        Assert.assertTrue(String.format("The bulk update is only %.2f times faster than the per property updates",
+            speedup), speedup >= this.minSpeedup);
+    }
+
+    /**
+     * Creates the updated page and makes sure it has enough objects.
+     *
+     * @throws Exception if the preparation fails
+     */
+    private void prepareObjects() throws Exception
+    {
+        setPageContent(getWiki(), SPACE, PAGE, "Bulk update benchmark");
+
+        String objectsURI = getUriBuilder(ObjectsResource.class).build(getWiki(), SPACE, PAGE).toString();
+        Objects objects = (Objects) this.unmarshaller.unmarshal(executeGet(objectsURI).getResponseBodyAsStream());
+        int existing = 0;
+        for (ObjectSummary objectSummary : objects.getObjectSummaries()) {
+            if (CLASS_NAME.equals(objectSummary.getClassName())) {
+                existing++;
+            }
+        }
+
+        for (int i = existing; i < this.objectCount; i++) {
+            Object object = this.objectFactory.createObject();
+            object.setClassName(CLASS_NAME);
+            Assert.assertEquals(HttpStatus.SC_CREATED, executePostXml(objectsURI, object,
+                TestUtils.ADMIN_CREDENTIALS.getUserName(), TestUtils.ADMIN_CREDENTIALS.getPassword()).getStatusCode());
+        }
+    }
+
+    /**
+     * Checks that all the properties have the values of the given round of updates.
+     *
+     * @param round the round of updates
+     * @throws Exception if getting an object fails
+     */
+    private void assertValues(int round) throws Exception
+    {
+        for (int i = 0; i < this.objectCount; i++) {
+            GetMethod getMethod =
+                executeGet(getUriBuilder(ObjectResource.class).build(getWiki(), SPACE, PAGE, CLASS_NAME, i)
+                    .toString());
+            Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+            Object object = (Object) this.unmarshaller.unmarshal(getMethod.getResponseBodyAsStream());
+            for (Property property : object.getProperties()) {
+                if (property.getName().equals(PROPERTIES[0]) || property.getName().equals(PROPERTIES[1])) {
+                    Assert.assertEquals(getValue(property.getName(), i, round), property.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param property the name of the property
+     * @param number the number of the object
+     * @param round the round of updates
+     * @return the value of the property after the given round of updates
+     */
+    private static String getValue(String property, int number, int round)
+    {
+        return PROPERTIES[0].equals(property) ? String.format("round%d-%d", round, number) : String
+            .valueOf(round * 1000000 + number);
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the duration in milliseconds, formatted for the report
+     */
+    private static String formatMillis(long nanos)
+    {
+        return String.format("%.0f", nanos / 1000000.0);
+    }
+
+    /**
+     * @param count a number of properties
+     * @param nanos the duration of their update, in nanoseconds
+     * @return the number of properties updated per second, formatted for the report
+     */
+    private static String formatThroughput(int count, long nanos)
+    {
+        return String.format("%.1f", count * 1000000000.0 / nanos);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.UriBuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rest.resources.pages.PagesResource;
+import org.xwiki.rest.resources.spaces.SpacesResource;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.rest.load.framework.AbstractBenchmarkTest;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+import org.xwiki.test.rest.load.framework.XarGenerator;
+
+/**
+ * Fills the wiki with more and more pages and measures how the latency of the {@link PagesResource} and
+ * {@link SpacesResource} listings evolves when paging ({@code start}/{@code number}) at increasing offsets. Half of
+ * the pages go to a single large space, listed by the {@link PagesResource}, and the other half are spread over many
+ * spaces, listed by the {@link SpacesResource}, so that both listings are paged to deep offsets. Fails when the
+ * latency at the deepest offset is too high compared to the first page.
+ * <p>
+ * The wiki sizes are configured with {@code xwiki.test.load.pagination.sizes}, e.g. {@code 10000,100000,1000000}.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class PaginationBenchmarkTest extends AbstractBenchmarkTest
+{
+    /** The prefix of the spaces holding the generated pages. */
+    private static final String SPACE_PREFIX = "Pagination";
+
+    /** The prefix of the large space holding half of the generated pages. */
+    private static final String LARGE_SPACE_PREFIX = "PaginationLarge";
+
+    /** The line format of the text report. */
+    private static final String LINE_FORMAT = "%-10s %-16s %10s %10s %8s%n";
+
+    /** The number of pages of the wiki after each step. */
+    private final String[] sizes = LoadConfiguration.getProperty("pagination.sizes", "10000").split(",");
+
+    /** The number of spaces the pages outside of the large space are spread over. */
+    private final int spaces = LoadConfiguration.getIntProperty("pagination.spaces", 2000);
+
+    /** The number of documents imported at once. */
+    private final int batchSize = LoadConfiguration.getIntProperty("pagination.batch", 2000);
+
+    /** The number of items asked for each page of results. */
+    private final int number = LoadConfiguration.getIntProperty("pagination.number", 50);
+
+    /** The number of measured requests for each offset. */
+    private final int repeat = LoadConfiguration.getIntProperty("pagination.repeat", 5);
+
+    /** The maximum ratio between the deep offset latency and the first page latency. */
+    private final double maxRatio = LoadConfiguration.getDoubleProperty("pagination.maxRatio", 5);
+
+    /** The text report. */
+    private final StringBuilder report = new StringBuilder();
+
+    /** The CSV report, easier to plot. */
+    private final StringBuilder csv = new StringBuilder("size,resource,offset,p50ms,ratio\n");
+
+    /** The description of the listings that degrade too much. */
+    private final List<String> failures = new ArrayList<String>();
+
+    @Test
+    public void testDeepOffsets() throws Exception
+    {
+        XarGenerator generator = new XarGenerator(getWorkDirectory());
+        this.report.append(String.format("Pagination benchmark (1 large space and %d spaces, %d results per page)%n",
+            this.spaces, this.number));
+        this.report.append(String.format(LINE_FORMAT, "Pages", "Resource", "Offset", "p50 (ms)", "Ratio"));
+
+        int pageCount = 0;
+        for (String sizeValue : this.sizes) {
+            int size = Integer.parseInt(sizeValue.trim());
+
+            // Fill the wiki up to the requested size, half in the large space and half in the other spaces.
+            if (pageCount < size) {
+                importDocuments(generator, LARGE_SPACE_PREFIX, 1, pageCount / 2, size / 2, this.batchSize);
+                importDocuments(generator, SPACE_PREFIX, this.spaces, pageCount - pageCount / 2, size - size / 2,
+                    this.batchSize);
+                pageCount = size;
+            }
+
+            measure(size, "PagesResource", getUriBuilder(PagesResource.class), size / 2, LARGE_SPACE_PREFIX + '0');
+            // The large space is listed too.
+            measure(size, "SpacesResource", getUriBuilder(SpacesResource.class),
+                Math.min(this.spaces, size - size / 2) + 1, null);
+        }
+
+        writeReport("rest-pagination.txt", this.report.toString());
+        writeReport("rest-pagination.csv", this.csv.toString());
+
+        Assert.assertTrue(String.format("Deep offsets are more than %s times slower than the first page: %s",
+            this.maxRatio, this.failures), this.failures.isEmpty());
+    }
+
+    /**
+     * Measures the latency of a listing at increasing offsets.
+     *
+     * @param size the number of generated pages
+     * @param resource the name of the listing resource
+     * @param builder the URI builder of the listing resource
+     * @param total the number of items in the listing
+     * @param space the space to list, {@code null} when listing spaces
+     * @throws Exception if a request fails
+     */
+    private void measure(int size, String resource, UriBuilder builder, int total, String space)
+        throws Exception
+    {
+        long firstPage = 0;
+        double ratio = 1;
+        for (int offset = 0; offset < total; offset = offset == 0 ? this.number : offset * 2) {
+            // Always include the last page of results, which is the deepest offset.
+            int start = Math.min(offset, Math.max(total - this.number, 0));
+            UriBuilder uriBuilder =
+                builder.clone().queryParam("start", start).queryParam("number", this.number);
+            String uri =
+                space != null ? uriBuilder.build(getWiki(), space).toString() : uriBuilder.build(getWiki())
+                    .toString();
+
+            // Warm up the caches before measuring.
+            timeGet(uri);
+            LatencyRecorder recorder = new LatencyRecorder(resource);
+            for (int i = 0; i < this.repeat; i++) {
+                recorder.record(timeGet(uri));
+            }
+
+            long latency = recorder.getPercentile(50);
+            if (start == 0) {
+                firstPage = latency;
+            }
+            ratio = firstPage > 0 ? (double) latency / firstPage : 1;
+            this.report.append(String.format(LINE_FORMAT, size, resource, start,
+                String.format("%.2f", LatencyRecorder.toMillis(latency)), String.format("%.2f", ratio)));
+            this.csv.append(String.format("%d,%s,%d,%.3f,%.3f%n", size, resource, start,
+                LatencyRecorder.toMillis(latency), ratio));
+
+            if (start < offset) {
+                break;
+            }
+        }
+
+        if (ratio > this.maxRatio) {
+            this.failures.add(String.format("%s with %d pages (x%.2f)", resource, size, ratio));
+        }
+    }
+}
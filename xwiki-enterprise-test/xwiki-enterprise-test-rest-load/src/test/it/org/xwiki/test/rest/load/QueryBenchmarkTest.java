@@ -0,0 +1,249 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.util.URIUtil;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rest.resources.wikis.WikiSearchQueryResource;
+import org.xwiki.test.rest.framework.HttpTransport;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.rest.load.framework.AbstractBenchmarkTest;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+import org.xwiki.test.rest.load.framework.XarGenerator;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Runs representative HQL and XWQL queries through the {@link WikiSearchQueryResource} against datasets of
+ * increasing size and flags the queries whose latency grows faster than the dataset. The execution plan of the HQL
+ * queries is captured on the largest dataset when the database exposes one (HSQLDB and Derby).
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class QueryBenchmarkTest extends AbstractBenchmarkTest
+{
+    /** The class of the objects attached to the generated documents. */
+    private static final String CLASS_NAME = "Benchmark.QueryClass";
+
+    /** The prefix of the spaces holding the generated documents. */
+    private static final String SPACE_PREFIX = "Query";
+
+    /** The number of spaces the documents are spread over. */
+    private static final int SPACES = 10;
+
+    /** The page used to capture the execution plans. */
+    private static final String PLAN_PAGE = "QueryPlan";
+
+    /** The space of the page used to capture the execution plans. */
+    private static final String PLAN_SPACE = "Benchmark";
+
+    /** The number of results asked for each query. */
+    private static final int RESULT_COUNT = 50;
+
+    /** Below this latency, in milliseconds, the growth is considered as noise. */
+    private static final double MIN_SIGNIFICANT_LATENCY = 10;
+
+    /** The queries of the matrix. */
+    private static final BenchmarkQuery[] QUERIES = new BenchmarkQuery[] {
+        new BenchmarkQuery("HQL by class", "hql",
+            ", BaseObject as obj where doc.fullName = obj.name and obj.className = '" + CLASS_NAME + "'", null),
+        new BenchmarkQuery("HQL by property value", "hql",
+            ", BaseObject as obj, StringProperty as prop where doc.fullName = obj.name and obj.className = '"
+                + CLASS_NAME + "' and prop.id.id = obj.id and prop.id.name = 'category' and prop.value = 'category7'",
+            null),
+        new BenchmarkQuery("HQL by date order", "hql", "where doc.space like '" + SPACE_PREFIX
+            + "%' order by doc.date desc", null),
+        new BenchmarkQuery("HQL with classname", "hql", "where doc.space like '" + SPACE_PREFIX + "%'", CLASS_NAME),
+        new BenchmarkQuery("XWQL by class", "xwql", "from doc.object(" + CLASS_NAME + ") as obj", null),
+        new BenchmarkQuery("XWQL by property value", "xwql", "from doc.object(" + CLASS_NAME
+            + ") as obj where obj.category = 'category7'", null),
+        new BenchmarkQuery("XWQL by date order", "xwql", "where doc.space like '" + SPACE_PREFIX
+            + "%' order by doc.date desc", null)};
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-24s %10s %10s %10s%n";
+
+    /** The numbers of generated documents. */
+    private final String[] sizes = LoadConfiguration.getProperty("query.sizes", "1000,10000").split(",");
+
+    /** The number of measured executions of each query. */
+    private final int repeat = LoadConfiguration.getIntProperty("query.repeat", 10);
+
+    /** The number of documents imported at once. */
+    private final int batchSize = LoadConfiguration.getIntProperty("query.batch", 2000);
+
+    /**
+     * The maximum growth exponent: with a latency growing like {@code size^exponent}, 1 means linear growth.
+     */
+    private final double maxExponent = LoadConfiguration.getDoubleProperty("query.maxGrowthExponent", 1.2);
+
+    /**
+     * A query of the matrix.
+     */
+    private static class BenchmarkQuery
+    {
+        /** The name of the query. */
+        private final String name;
+
+        /** The query language. */
+        private final String type;
+
+        /** The statement, in short form. */
+        private final String statement;
+
+        /** The class name filter, {@code null} for none. */
+        private final String className;
+
+        /**
+         * @param name the name of the query
+         * @param type the query language
+         * @param statement the statement, in short form
+         * @param className the class name filter, {@code null} for none
+         */
+        BenchmarkQuery(String name, String type, String statement, String className)
+        {
+            this.name = name;
+            this.type = type;
+            this.statement = statement;
+            this.className = className;
+        }
+    }
+
+    @Test
+    public void testQueryLatencyMatrix() throws Exception
+    {
+        XarGenerator generator = new XarGenerator(getWorkDirectory()).setObjects(CLASS_NAME, 100);
+        importXar(generator.generateClass("query-class", CLASS_NAME), "RESET");
+
+        StringBuilder report = new StringBuilder("Query latency matrix\n");
+        report.append(String.format(LINE_FORMAT, "Query", "Documents", "p50 (ms)", "Growth"));
+        List<String> failures = new ArrayList<String>();
+
+        long[] previousLatencies = new long[QUERIES.length];
+        int previousSize = 0;
+        for (String sizeValue : this.sizes) {
+            int size = Integer.parseInt(sizeValue.trim());
+            importDocuments(generator, SPACE_PREFIX, SPACES, previousSize, size, this.batchSize);
+
+            for (int i = 0; i < QUERIES.length; i++) {
+                long latency = measure(QUERIES[i]);
+
+                // Exponent of the growth between two sizes: 1 when the latency grows linearly with the size.
+                String growth = "";
+                if (previousSize > 0 && previousLatencies[i] > 0) {
+                    double exponent =
+                        Math.log((double) latency / previousLatencies[i]) / Math.log((double) size / previousSize);
+                    growth = String.format("%.2f", exponent);
+                    if (exponent > this.maxExponent && LatencyRecorder.toMillis(latency) > MIN_SIGNIFICANT_LATENCY) {
+                        failures.add(String.format("%s between %d and %d documents (exponent %.2f)", QUERIES[i].name,
+                            previousSize, size, exponent));
+                    }
+                }
+                previousLatencies[i] = latency;
+                report.append(String.format(LINE_FORMAT, QUERIES[i].name, size,
+                    String.format("%.2f", LatencyRecorder.toMillis(latency)), growth));
+            }
+            previousSize = size;
+        }
+
+        report.append("\nExecution plans\n");
+        installPlanPage();
+        for (BenchmarkQuery query : QUERIES) {
+            if ("hql".equals(query.type)) {
+                report.append(String.format("%n%s%n%s", query.name, getPlan(query)));
+            }
+        }
+
+        writeReport("rest-query-matrix.txt", report.toString());
+
+        Assert.assertTrue("Some queries grow super-linearly: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * @param query the query to run
+     * @return the median latency, in nanoseconds
+     * @throws Exception if the query fails
+     */
+    private long measure(BenchmarkQuery query) throws Exception
+    {
+        String uri =
+            String.format("%s?q=%s&type=%s&number=%d", getUriBuilder(WikiSearchQueryResource.class).build(getWiki()),
+                query.statement, query.type, RESULT_COUNT);
+        if (query.className != null) {
+            uri += "&className=" + query.className;
+        }
+        uri = URIUtil.encodeQuery(uri);
+
+        // Warm up the caches before measuring.
+        timeGet(uri);
+        LatencyRecorder recorder = new LatencyRecorder(query.name);
+        for (int i = 0; i < this.repeat; i++) {
+            recorder.record(timeGet(uri));
+        }
+
+        return recorder.getPercentile(50);
+    }
+
+    /**
+     * Creates the page used to capture the execution plans.
+     *
+     * @throws Exception if the creation fails
+     */
+    private void installPlanPage() throws Exception
+    {
+        InputStream stream = getClass().getResourceAsStream("/QueryPlan.txt");
+        try {
+            setPageContent(getWiki(), PLAN_SPACE, PLAN_PAGE, IOUtils.toString(stream, "UTF-8"));
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * @param query an HQL query
+     * @return the SQL and the execution plan of the query
+     * @throws Exception if the request fails
+     */
+    private String getPlan(BenchmarkQuery query) throws Exception
+    {
+        String hql = "select doc.fullName from XWikiDocument as doc " + query.statement;
+        String uri =
+            String.format("%sget/%s/%s?outputSyntax=plain&basicauth=1&hql=%s", TestUtils.BASE_BIN_URL, PLAN_SPACE,
+                PLAN_PAGE, URLEncoder.encode(hql, "UTF-8"));
+
+        GetMethod getMethod = new GetMethod(uri);
+        HttpTransport.getInstance().execute(getMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+            TestUtils.ADMIN_CREDENTIALS.getPassword());
+        if (getMethod.getStatusCode() != HttpStatus.SC_OK) {
+            return String.format("Failed to get the plan: %s%n", getHttpMethodInfo(getMethod));
+        }
+
+        return getMethod.getResponseBodyAsString();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.io.ByteArrayInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rest.model.jaxb.Object;
+import org.xwiki.rest.resources.attachments.AttachmentResource;
+import org.xwiki.rest.resources.attachments.AttachmentsResource;
+import org.xwiki.rest.resources.objects.ObjectsResource;
+import org.xwiki.rest.resources.pages.PageResource;
+import org.xwiki.rest.resources.pages.PagesResource;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.rest.load.framework.AbstractBenchmarkTest;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Fetches the same {@code Page}, {@code Pages}, {@code Objects} and {@code Attachments} resources as XML and as JSON
+ * and compares the round-trip time of the requests, the payload size and the time needed by the client to parse the
+ * response.
+ * <p>
+ * The round-trip time (RTT) is measured by the client, from sending the request until the response status is read.
+ * It includes the network and the rest of the request processing on the server, so it only bounds the cost of
+ * producing the representation.
+ * <p>
+ * XML responses are unmarshalled into the JAXB model, as the REST tests do, while JSON responses are parsed into a
+ * Jackson tree since there's no JSON binding for the model on the client side.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class RepresentationBenchmarkTest extends AbstractBenchmarkTest
+{
+    /** The space of the page used by the benchmark. */
+    private static final String SPACE = "Benchmark";
+
+    /** The page used by the benchmark. */
+    private static final String PAGE = "Representation";
+
+    /** The number of objects and attachments added to the page. */
+    private static final int ITEM_COUNT = 10;
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-12s %-18s %12s %12s %12s %10s%n";
+
+    /** The number of measured requests for each resource and representation. */
+    private final int iterations = LoadConfiguration.getIntProperty("representation.iterations", 200);
+
+    /** Used to parse the JSON responses. */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testXMLVersusJSON() throws Exception
+    {
+        String wiki = getWiki();
+        preparePage(wiki);
+
+        Map<String, String> resources = new LinkedHashMap<String, String>();
+        resources.put("Page", getUriBuilder(PageResource.class).build(wiki, SPACE, PAGE).toString());
+        resources.put("Pages", getUriBuilder(PagesResource.class).build(wiki, "Main").toString());
+        resources.put("Objects", getUriBuilder(ObjectsResource.class).build(wiki, SPACE, PAGE).toString());
+        resources.put("Attachments", getUriBuilder(AttachmentsResource.class).build(wiki, SPACE, PAGE).toString());
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            "Representation benchmark (%d requests per resource and media type, client round-trip time)%n",
+            this.iterations));
+        report.append(String.format(LINE_FORMAT, "Resource", "Media type", "RTT p50 (ms)", "RTT p95 (ms)", "Bytes",
+            "Parse (ms)"));
+        for (Map.Entry<String, String> resource : resources.entrySet()) {
+            for (String mediaType : new String[] {MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON}) {
+                report.append(measure(resource.getKey(), resource.getValue(), mediaType));
+            }
+        }
+        setAcceptedMediaType(MediaType.APPLICATION_XML);
+
+        writeReport("rest-representations.txt", report.toString());
+    }
+
+    /**
+     * @param name the name of the resource
+     * @param uri the URI of the resource
+     * @param mediaType the media type to ask for
+     * @return the line of the report
+     * @throws Exception if a request fails
+     */
+    private String measure(String name, String uri, String mediaType) throws Exception
+    {
+        setAcceptedMediaType(mediaType);
+        boolean json = MediaType.APPLICATION_JSON.equals(mediaType);
+
+        // Warm up the server and the client.
+        for (int i = 0; i < 10; i++) {
+            parse(executeGet(uri).getResponseBody(), json);
+        }
+
+        LatencyRecorder roundTrips = new LatencyRecorder(name);
+        LatencyRecorder parsing = new LatencyRecorder(name);
+        long bytes = 0;
+        for (int i = 0; i < this.iterations; i++) {
+            long start = System.nanoTime();
+            GetMethod getMethod = executeGet(uri);
+            roundTrips.record(System.nanoTime() - start);
+
+            Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+            Assert.assertTrue(String.format("Expected [%s] but got [%s]", mediaType,
+                getMethod.getResponseHeader("Content-Type")), getMethod.getResponseHeader("Content-Type").getValue()
+                .startsWith(mediaType));
+
+            byte[] body = getMethod.getResponseBody();
+            bytes += body.length;
+
+            start = System.nanoTime();
+            parse(body, json);
+            parsing.record(System.nanoTime() - start);
+        }
+
+        return String.format(LINE_FORMAT, name, mediaType,
+            String.format("%.2f", LatencyRecorder.toMillis(roundTrips.getPercentile(50))),
+            String.format("%.2f", LatencyRecorder.toMillis(roundTrips.getPercentile(95))), bytes / this.iterations,
+            String.format("%.3f", LatencyRecorder.toMillis(parsing.getPercentile(50))));
+    }
+
+    /**
+     * @param body the response body
+     * @param json whether the body is JSON or XML
+     * @throws Exception if the parsing fails
+     */
+    private void parse(byte[] body, boolean json) throws Exception
+    {
+        if (json) {
+            this.objectMapper.readTree(body);
+        } else {
+            this.unmarshaller.unmarshal(new ByteArrayInputStream(body));
+        }
+    }
+
+    /**
+     * Creates the page used by the benchmark, with a few objects and attachments so that the listings are not empty.
+     *
+     * @param wiki the name of the wiki
+     * @throws Exception if the creation fails
+     */
+    private void preparePage(String wiki) throws Exception
+    {
+        if (!createPageIfDoesntExist(SPACE, PAGE, "Representation benchmark")) {
+            return;
+        }
+
+        String admin = TestUtils.ADMIN_CREDENTIALS.getUserName();
+        String password = TestUtils.ADMIN_CREDENTIALS.getPassword();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            Object object = this.objectFactory.createObject();
+            object.setClassName("XWiki.TagClass");
+            Assert.assertEquals(HttpStatus.SC_CREATED,
+                executePostXml(getUriBuilder(ObjectsResource.class).build(wiki, SPACE, PAGE).toString(), object,
+                    admin, password).getStatusCode());
+
+            String attachmentURI =
+                getUriBuilder(AttachmentResource.class).build(wiki, SPACE, PAGE, "attachment" + i + ".txt").toString();
+            Assert.assertEquals(HttpStatus.SC_CREATED,
+                executePut(attachmentURI, "Attachment " + i, MediaType.TEXT_PLAIN, admin, password).getStatusCode());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rest.model.jaxb.Object;
+import org.xwiki.rest.model.jaxb.Objects;
+import org.xwiki.rest.resources.attachments.AttachmentResource;
+import org.xwiki.rest.resources.objects.ObjectsResource;
+import org.xwiki.test.rest.framework.AbstractHttpTest;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+import org.xwiki.test.rest.load.framework.LoadOperation;
+import org.xwiki.test.rest.load.framework.LoadReport;
+import org.xwiki.test.rest.load.framework.LoadWorker;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Sends a configurable mix of requests to the main REST resources from many concurrent workers and reports the
+ * throughput and the latency percentiles of each resource.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class RestLoadTest extends AbstractHttpTest
+{
+    /** The maximum fraction of failed requests. */
+    private static final double MAX_ERROR_RATIO = LoadConfiguration.getDoubleProperty("maxErrorRatio", 0.01);
+
+    @Override
+    @Test
+    public void testRepresentation() throws Exception
+    {
+        /* Everything is done in test methods */
+    }
+
+    @Test
+    public void testMixedLoad() throws Exception
+    {
+        LoadConfiguration configuration = new LoadConfiguration();
+        System.out.println(String.format("Running REST load test with %s", configuration));
+
+        preparePages(configuration.getPages());
+
+        Map<LoadOperation, LatencyRecorder> recorders = new LinkedHashMap<LoadOperation, LatencyRecorder>();
+        for (LoadOperation operation : configuration.getMix().keySet()) {
+            recorders.put(operation, new LatencyRecorder(operation.getLabel()));
+        }
+
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(configuration.getWarmup());
+        long end = measureStart + TimeUnit.SECONDS.toNanos(configuration.getDuration());
+
+        ExecutorService executor = Executors.newFixedThreadPool(configuration.getWorkers());
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < configuration.getWorkers(); i++) {
+                futures.add(executor.submit(new LoadWorker(configuration, recorders, measureStart, end)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        LoadReport report =
+            new LoadReport("rest-load", configuration.toString(), recorders, end - measureStart);
+        report.write(configuration.getReportDirectory());
+
+        for (LatencyRecorder recorder : recorders.values()) {
+            Assert.assertTrue(String.format("No successful request for [%s]", recorder.getName()),
+                recorder.getCount() > 0);
+        }
+        LatencyRecorder total = report.getTotal();
+        double errorRatio = (double) total.getErrorCount() / (total.getCount() + total.getErrorCount());
+        Assert.assertTrue(String.format("Too many failed requests: %.2f%%", errorRatio * 100),
+            errorRatio <= MAX_ERROR_RATIO);
+    }
+
+    /**
+     * Creates the pages used by the load test, each with an attachment and a tag object.
+     *
+     * @param count the number of pages to create
+     */
+    private void preparePages(int count) throws Exception
+    {
+        String wiki = getWiki();
+        String admin = TestUtils.ADMIN_CREDENTIALS.getUserName();
+        String password = TestUtils.ADMIN_CREDENTIALS.getPassword();
+
+        for (int i = 0; i < count; i++) {
+            String page = LoadWorker.getPageName(i);
+            setPageContent(wiki, LoadWorker.SPACE, page, "Load test content");
+
+            PutMethod putMethod =
+                executePut(getUriBuilder(AttachmentResource.class).build(wiki, LoadWorker.SPACE, page,
+                    LoadWorker.ATTACHMENT).toString(), "Load test attachment", MediaType.TEXT_PLAIN, admin, password);
+            Assert.assertTrue(getHttpMethodInfo(putMethod), putMethod.getStatusCode() == HttpStatus.SC_CREATED
+                || putMethod.getStatusCode() == HttpStatus.SC_ACCEPTED);
+
+            String objectsURI = getUriBuilder(ObjectsResource.class).build(wiki, LoadWorker.SPACE, page).toString();
+            Objects objects = (Objects) this.unmarshaller.unmarshal(executeGet(objectsURI).getResponseBodyAsStream());
+            if (objects.getObjectSummaries().isEmpty()) {
+                Object object = this.objectFactory.createObject();
+                object.setClassName("XWiki.TagClass");
+                Assert.assertEquals(HttpStatus.SC_CREATED, executePostXml(objectsURI, object, admin, password)
+                    .getStatusCode());
+            }
+        }
+    }
+}
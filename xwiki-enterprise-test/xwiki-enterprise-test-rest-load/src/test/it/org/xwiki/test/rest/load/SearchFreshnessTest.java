@@ -0,0 +1,263 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.util.URIUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rest.model.jaxb.SearchResult;
+import org.xwiki.rest.model.jaxb.SearchResults;
+import org.xwiki.rest.resources.wikis.WikiSearchQueryResource;
+import org.xwiki.test.rest.framework.JAXBUtils;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.rest.load.framework.AbstractBenchmarkTest;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+
+/**
+ * Writes pages at a steady rate through the {@code PageResource} and measures the lag until each of them can be found
+ * with a Lucene search through the {@link WikiSearchQueryResource}, first on an idle wiki and then while other
+ * clients keep searching. Also reports the indexing throughput, which must keep up with the write rate for the
+ * indexing queue not to grow.
+ * <p>
+ * The lag is measured by polling, so its resolution is {@code xwiki.test.load.search.pollPeriod} milliseconds.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class SearchFreshnessTest extends AbstractBenchmarkTest
+{
+    /** The prefix of the spaces holding the written pages. */
+    private static final String SPACE_PREFIX = "SearchFreshness";
+
+    /** The query sent by the concurrent search clients, matching the Welcome page. */
+    private static final String BACKGROUND_QUERY = "\"easy-to-edit\"";
+
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-18s %8s %10s %10s %10s %14s %14s%n";
+
+    /** The number of pages written in each phase. */
+    private final int documents = LoadConfiguration.getIntProperty("search.documents", 50);
+
+    /** The number of pages written per second. */
+    private final double rate = LoadConfiguration.getDoubleProperty("search.rate", 2);
+
+    /** The number of clients searching concurrently during the second phase. */
+    private final int queryThreads = LoadConfiguration.getIntProperty("search.queryThreads", 4);
+
+    /** The delay between two searches for the written pages, in milliseconds. */
+    private final int pollPeriod = LoadConfiguration.getIntProperty("search.pollPeriod", 200);
+
+    /** How long to wait, in seconds, for a written page to become searchable before failing. */
+    private final int timeout = LoadConfiguration.getIntProperty("search.timeout", 300);
+
+    /** The maximum 95th percentile of the lag, in seconds, 0 to disable the check. */
+    private final double maxLag = LoadConfiguration.getDoubleProperty("search.maxLag", 0);
+
+    /** The errors raised by the writer and the concurrent search clients. */
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void testIndexingLag() throws Exception
+    {
+        StringBuilder report =
+            new StringBuilder(String.format("Search freshness (%d pages written at %.2f pages/s)%n", this.documents,
+                this.rate));
+        report.append(String.format(LINE_FORMAT, "Phase", "Indexed", "Lag p50 (s)", "Lag p95 (s)", "Lag max (s)",
+            "Index (page/s)", "Search p50 (ms)"));
+
+        List<String> failures = new ArrayList<String>();
+        measure(SPACE_PREFIX + "Idle", 0, report, failures);
+        measure(SPACE_PREFIX + "Searched", this.queryThreads, report, failures);
+
+        writeReport("rest-search-freshness.txt", report.toString());
+
+        Assert.assertTrue("Errors while writing or searching: " + this.errors, this.errors.isEmpty());
+        Assert.assertTrue("Search index freshness problems: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * Writes the pages of a phase, waits for all of them to be searchable and appends the result to the report.
+     *
+     * @param space the space where to write the pages
+     * @param searchers the number of clients searching concurrently
+     * @param report the report to append the results to
+     * @param failures the list to append the detected problems to
+     * @throws Exception if searching fails
+     */
+    private void measure(final String space, int searchers, StringBuilder report, List<String> failures)
+        throws Exception
+    {
+        // The content of every page contains a token unique to the phase so that a single search finds them all.
+        final String token = "freshness" + System.currentTimeMillis();
+        final Map<String, Long> written = new ConcurrentHashMap<String, Long>();
+        final AtomicInteger next = new AtomicInteger();
+
+        final LatencyRecorder searchLatency = new LatencyRecorder(space);
+        ExecutorService searchExecutor = searchers > 0 ? Executors.newFixedThreadPool(searchers) : null;
+        for (int i = 0; i < searchers; i++) {
+            searchExecutor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    String uri = getSearchURI(BACKGROUND_QUERY);
+                    while (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            searchLatency.record(timeGet(uri));
+                        } catch (Throwable e) {
+                            if (!Thread.currentThread().isInterrupted()) {
+                                errors.add("Search failed: " + e);
+                            }
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+
+        final String wiki = getWiki();
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+        long firstWrite = System.nanoTime();
+        writer.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int index = next.getAndIncrement();
+                if (index >= documents) {
+                    return;
+                }
+                String page = "Page" + index;
+                try {
+                    setPageContent(wiki, space, page, String.format("Search freshness page %d %s", index, token));
+                    written.put(space + '.' + page, System.nanoTime());
+                } catch (Throwable e) {
+                    errors.add(String.format("Failed to write [%s.%s]: %s", space, page, e));
+                }
+            }
+        }, 0, (long) (TimeUnit.SECONDS.toNanos(1) / this.rate), TimeUnit.NANOSECONDS);
+
+        LatencyRecorder lag = new LatencyRecorder(space);
+        Set<String> indexed = new HashSet<String>();
+        long lastIndexed = firstWrite;
+        long deadline = 0;
+        try {
+            while (indexed.size() < this.documents) {
+                long now = System.nanoTime();
+                if (next.get() >= this.documents) {
+                    // All the pages are written, give the last one the configured time to be indexed.
+                    if (deadline == 0) {
+                        deadline = now + TimeUnit.SECONDS.toNanos(this.timeout);
+                    } else if (now > deadline) {
+                        break;
+                    }
+                }
+
+                for (String fullName : search(token)) {
+                    Long writeTime = written.get(fullName);
+                    if (writeTime != null && indexed.add(fullName)) {
+                        lag.record(now - writeTime);
+                        lastIndexed = now;
+                    }
+                }
+                Thread.sleep(this.pollPeriod);
+            }
+        } finally {
+            writer.shutdownNow();
+            if (searchExecutor != null) {
+                searchExecutor.shutdownNow();
+                searchExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+
+        double indexingThroughput = lag.getThroughput(lastIndexed - firstWrite);
+        report.append(String.format(LINE_FORMAT, searchers > 0 ? searchers + " searchers" : "idle", indexed.size(),
+            formatSeconds(lag.getPercentile(50)), formatSeconds(lag.getPercentile(95)),
+            formatSeconds(lag.getPercentile(100)), String.format("%.2f", indexingThroughput),
+            searchers > 0 ? String.format("%.2f", LatencyRecorder.toMillis(searchLatency.getPercentile(50))) : "-"));
+
+        if (indexed.size() < this.documents) {
+            failures.add(String.format("%d of the %d pages written in [%s] were not searchable after %d seconds",
+                this.documents - indexed.size(), this.documents, space, this.timeout));
+        }
+        if (this.maxLag > 0 && lag.getPercentile(95) > TimeUnit.SECONDS.toNanos(1) * this.maxLag) {
+            failures.add(String.format("the 95th percentile of the lag in [%s] is %s seconds", space,
+                formatSeconds(lag.getPercentile(95))));
+        }
+    }
+
+    /**
+     * @param query a Lucene query
+     * @return the URI searching the main wiki with the given query
+     */
+    private String getSearchURI(String query)
+    {
+        try {
+            return URIUtil.encodeQuery(String.format("%s?q=%s&type=lucene&number=%d",
+                getUriBuilder(WikiSearchQueryResource.class).build(getWiki()), query, this.documents * 2));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to build the search URI", e);
+        }
+    }
+
+    /**
+     * @param query a Lucene query
+     * @return the full names of the pages found
+     * @throws Exception if the search fails
+     */
+    private List<String> search(String query) throws Exception
+    {
+        HttpMethod getMethod = executeGet(getSearchURI(query));
+        Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+        // Borrow an unmarshaller instead of using the one of the test, which isn't thread safe.
+        SearchResults searchResults = JAXBUtils.unmarshal(getMethod.getResponseBodyAsStream(), SearchResults.class);
+        List<String> fullNames = new ArrayList<String>();
+        for (SearchResult searchResult : searchResults.getSearchResults()) {
+            fullNames.add(searchResult.getPageFullName());
+        }
+
+        return fullNames;
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the duration in seconds, formatted for the report
+     */
+    private static String formatSeconds(long nanos)
+    {
+        return String.format("%.2f", nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.rest.resources.wikis.WikiResource;
+import org.xwiki.test.rest.framework.HeapSampler;
+import org.xwiki.test.rest.load.framework.AbstractBenchmarkTest;
+import org.xwiki.test.rest.load.framework.LoadConfiguration;
+import org.xwiki.test.rest.load.framework.XarGenerator;
+
+/**
+ * Imports large generated XAR packages (thousands of documents, large attachments, many revisions) through the
+ * {@link WikiResource} and records the number of imported documents per second and the peak heap usage of the XWiki
+ * instance during each import.
+ * <p>
+ * The revisions are created by importing the same documents again, with different content, keeping the history.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class XarImportBenchmarkTest extends AbstractBenchmarkTest
+{
+    /** The line format of the report. */
+    private static final String LINE_FORMAT = "%-10s %10s %10s %12s %12s %16s%n";
+
+    /** The number of bytes in a megabyte. */
+    private static final double MB = 1024 * 1024;
+
+    /** The number of documents in each package. */
+    private final int documents = LoadConfiguration.getIntProperty("import.documents", 2000);
+
+    /** The number of times the documents are imported, each import creating a new revision. */
+    private final int revisions = LoadConfiguration.getIntProperty("import.revisions", 5);
+
+    /** The size of the attachments, in bytes. */
+    private final int attachmentSize = LoadConfiguration.getIntProperty("import.attachmentSize", 1024 * 1024);
+
+    /** Only one document out of this number gets an attachment. */
+    private final int attachmentPeriod = LoadConfiguration.getIntProperty("import.attachmentPeriod", 50);
+
+    /** The minimum number of imported documents per second, 0 to disable the check. */
+    private final double minThroughput = LoadConfiguration.getDoubleProperty("import.minThroughput", 0);
+
+    @Test
+    public void testImportThroughput() throws Exception
+    {
+        XarGenerator generator =
+            new XarGenerator(getWorkDirectory()).setAttachments(1, this.attachmentSize).setAttachmentPeriod(
+                this.attachmentPeriod);
+
+        List<String> documentNames = new ArrayList<String>();
+        for (int i = 0; i < this.documents; i++) {
+            documentNames.add("Import" + (i / 1000) + ".Page" + i);
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("XAR import benchmark (%d documents, one %d bytes attachment every %d documents)%n",
+            this.documents, this.attachmentSize, this.attachmentPeriod));
+        report.append(String.format(LINE_FORMAT, "Revision", "XAR (MB)", "Time (s)", "Documents/s", "Heap (MB)",
+            "Peak heap (MB)"));
+
+        double lowestThroughput = Double.MAX_VALUE;
+        HeapSampler sampler = createHeapSampler();
+        try {
+            for (int revision = 1; revision <= this.revisions; revision++) {
+                File xar = generator.generate("import-" + revision, documentNames, revision);
+
+                sampler.gc();
+                long baseline = sampler.getHeapUsage();
+                sampler.start();
+                // Keep the history so that each import adds a revision to the documents.
+                long duration = importXar(xar, "ADD");
+                long peak = sampler.stop();
+
+                double throughput = this.documents / (duration / (double) TimeUnit.SECONDS.toNanos(1));
+                lowestThroughput = Math.min(lowestThroughput, throughput);
+                report.append(String.format(LINE_FORMAT, revision, String.format("%.1f", xar.length() / MB),
+                    String.format("%.1f", duration / (double) TimeUnit.SECONDS.toNanos(1)),
+                    String.format("%.1f", throughput), String.format("%.1f", baseline / MB),
+                    String.format("%.1f", peak / MB)));
+
+                xar.delete();
+            }
+        } finally {
+            sampler.close();
+        }
+
+        writeReport("rest-xar-import.txt", report.toString());
+
+        Assert.assertTrue(String.format("Import throughput dropped to %.1f documents/s, expected at least %.1f",
+            lowestThroughput, this.minThroughput), lowestThroughput >= this.minThroughput);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load.framework;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.junit.Assert;
+import org.xwiki.rest.resources.wikis.WikiResource;
+import org.xwiki.test.rest.framework.AbstractHttpTest;
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+import org.xwiki.test.rest.framework.HeapSampler;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * To be extended by the REST benchmarks. Provides helpers to fill the wiki, time requests and write reports.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public abstract class AbstractBenchmarkTest extends AbstractHttpTest
+{
+    /** The JMX port of the XWiki instance, see {@link HeapSampler}. */
+    private static int jmxPort;
+
+    /**
+     * Used so that AllTests can set the JMX port.
+     *
+     * @param port the JMX port of the XWiki instance
+     */
+    public static void setJMXPort(int port)
+    {
+        jmxPort = port;
+    }
+
+    /**
+     * @return a new heap sampler connected to the XWiki instance, which must be closed once done
+     * @throws IOException if the connection fails
+     */
+    protected HeapSampler createHeapSampler() throws IOException
+    {
+        return new HeapSampler(jmxPort);
+    }
+
+    @Override
+    public void testRepresentation() throws Exception
+    {
+        /* Everything is done in test methods */
+    }
+
+    /**
+     * @return the directory where to write the reports
+     */
+    protected File getReportDirectory()
+    {
+        return BenchmarkUtils.getReportDirectory(LoadConfiguration.PREFIX + "reportDirectory", "target/load-reports");
+    }
+
+    /**
+     * @return the directory where to generate temporary files, such as XAR packages
+     */
+    protected File getWorkDirectory()
+    {
+        return new File(getReportDirectory().getParentFile(), "load-work");
+    }
+
+    /**
+     * Writes a report and prints it on the console.
+     *
+     * @param name the name of the report file
+     * @param content the content of the report
+     * @return the written file
+     * @throws IOException if writing the file fails
+     */
+    protected File writeReport(String name, String content) throws IOException
+    {
+        return BenchmarkUtils.writeReport(getReportDirectory(), name, content);
+    }
+
+    /**
+     * Imports a XAR package in the wiki through the {@link WikiResource}.
+     *
+     * @param xar the package to import
+     * @param history what to do with the history of the imported documents ({@code RESET}, {@code REPLACE} or
+     *            {@code ADD})
+     * @return the duration of the import, in nanoseconds
+     * @throws Exception if the import fails
+     */
+    protected long importXar(File xar, String history) throws Exception
+    {
+        String uri = getUriBuilder(WikiResource.class).queryParam("history", history).build(getWiki()).toString();
+
+        InputStream stream = new FileInputStream(xar);
+        try {
+            long start = System.nanoTime();
+            PostMethod postMethod =
+                executePost(uri, stream, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+                    TestUtils.ADMIN_CREDENTIALS.getPassword());
+            long duration = System.nanoTime() - start;
+            Assert.assertEquals(getHttpMethodInfo(postMethod), HttpStatus.SC_OK, postMethod.getStatusCode());
+
+            return duration;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Generates and imports documents named {@code <spacePrefix><i % spaces>.Page<i>} for {@code i} from
+     * {@code from} (included) to {@code to} (excluded), by batches.
+     *
+     * @param generator the generator used to create the packages
+     * @param spacePrefix the prefix of the spaces holding the documents
+     * @param spaces the number of spaces the documents are spread over
+     * @param from the index of the first document to create
+     * @param to the index after the last document to create
+     * @param batchSize the number of documents imported at once
+     * @throws Exception if the import fails
+     */
+    protected void importDocuments(XarGenerator generator, String spacePrefix, int spaces, int from, int to,
+        int batchSize) throws Exception
+    {
+        for (int batchStart = from; batchStart < to; batchStart += batchSize) {
+            int batchEnd = Math.min(batchStart + batchSize, to);
+            List<String> documents = new ArrayList<String>();
+            for (int i = batchStart; i < batchEnd; i++) {
+                documents.add(spacePrefix + (i % spaces) + ".Page" + i);
+            }
+            File xar = generator.generate(spacePrefix.toLowerCase() + '-' + batchStart, documents, 1);
+            importXar(xar, "RESET");
+            xar.delete();
+        }
+    }
+
+    /**
+     * @param uri the URI to get
+     * @return the duration of the request, in nanoseconds
+     * @throws Exception if the request fails
+     */
+    protected long timeGet(String uri) throws Exception
+    {
+        long start = System.nanoTime();
+        HttpMethod getMethod = executeGet(uri);
+        long duration = System.nanoTime() - start;
+        Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+        return duration;
+    }
+}
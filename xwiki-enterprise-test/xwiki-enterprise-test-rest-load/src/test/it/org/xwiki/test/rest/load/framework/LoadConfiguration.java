@@ -0,0 +1,213 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load.framework;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+
+/**
+ * The configuration of a load test run, read from system properties so that it can be changed from the Maven command
+ * line (e.g. {@code mvn install -Dxwiki.test.load.workers=64}).
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class LoadConfiguration
+{
+    /** The prefix of all the load test system properties. */
+    public static final String PREFIX = "xwiki.test.load.";
+
+    /** The default operation mix. */
+    private static final String DEFAULT_MIX =
+        "PAGE_GET:40,PAGE_PUT:10,PAGES_GET:15,ATTACHMENT_GET:20,ATTACHMENT_PUT:5,OBJECTS_GET:10";
+
+    /** The number of concurrent workers. */
+    private final int workers;
+
+    /** The duration of the warm up phase, in seconds. */
+    private final int warmup;
+
+    /** The duration of the measured phase, in seconds. */
+    private final int duration;
+
+    /** The number of pages the traffic is spread over. */
+    private final int pages;
+
+    /** The relative weight of each operation. */
+    private final Map<LoadOperation, Integer> mix;
+
+    /** The sum of all the weights. */
+    private final int totalWeight;
+
+    /** The directory where to write the reports. */
+    private final File reportDirectory;
+
+    /**
+     * Reads the configuration from the system properties.
+     */
+    public LoadConfiguration()
+    {
+        this.workers = getIntProperty("workers", 32);
+        this.warmup = getIntProperty("warmup", 10);
+        this.duration = getIntProperty("duration", 60);
+        this.pages = getIntProperty("pages", 100);
+        this.mix = parseMix(getProperty("mix", DEFAULT_MIX));
+        int sum = 0;
+        for (int weight : this.mix.values()) {
+            sum += weight;
+        }
+        this.totalWeight = sum;
+        this.reportDirectory = BenchmarkUtils.getReportDirectory(PREFIX + "reportDirectory", "target/load-reports");
+    }
+
+    /**
+     * @param name the name of the property, without the {@link #PREFIX}
+     * @param defaultValue the value to use when the property is not set
+     * @return the value of the property
+     */
+    public static String getProperty(String name, String defaultValue)
+    {
+        return BenchmarkUtils.getProperty(PREFIX + name, defaultValue);
+    }
+
+    /**
+     * @param name the name of the property, without the {@link #PREFIX}
+     * @param defaultValue the value to use when the property is not set
+     * @return the value of the property
+     */
+    public static int getIntProperty(String name, int defaultValue)
+    {
+        return BenchmarkUtils.getIntProperty(PREFIX + name, defaultValue);
+    }
+
+    /**
+     * @param name the name of the property, without the {@link #PREFIX}
+     * @param defaultValue the value to use when the property is not set
+     * @return the value of the property
+     */
+    public static double getDoubleProperty(String name, double defaultValue)
+    {
+        return BenchmarkUtils.getDoubleProperty(PREFIX + name, defaultValue);
+    }
+
+    /**
+     * @param value the mix, as a comma separated list of {@code OPERATION:weight}
+     * @return the weight of each operation
+     */
+    private static Map<LoadOperation, Integer> parseMix(String value)
+    {
+        Map<LoadOperation, Integer> result = new LinkedHashMap<LoadOperation, Integer>();
+        for (String entry : StringUtils.split(value, ',')) {
+            String operation = StringUtils.substringBefore(entry, ":").trim();
+            String weight = StringUtils.substringAfter(entry, ":").trim();
+            int parsedWeight = weight.length() > 0 ? Integer.parseInt(weight) : 1;
+            if (parsedWeight < 0) {
+                throw new IllegalArgumentException(String.format("Negative weight in operation mix [%s]", value));
+            } else if (parsedWeight > 0) {
+                result.put(LoadOperation.valueOf(operation), parsedWeight);
+            }
+        }
+
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Empty operation mix [%s]", value));
+        }
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the number of concurrent workers
+     */
+    public int getWorkers()
+    {
+        return this.workers;
+    }
+
+    /**
+     * @return the duration of the warm up phase, in seconds
+     */
+    public int getWarmup()
+    {
+        return this.warmup;
+    }
+
+    /**
+     * @return the duration of the measured phase, in seconds
+     */
+    public int getDuration()
+    {
+        return this.duration;
+    }
+
+    /**
+     * @return the number of pages the traffic is spread over
+     */
+    public int getPages()
+    {
+        return this.pages;
+    }
+
+    /**
+     * @return the relative weight of each operation
+     */
+    public Map<LoadOperation, Integer> getMix()
+    {
+        return this.mix;
+    }
+
+    /**
+     * @return the directory where to write the reports
+     */
+    public File getReportDirectory()
+    {
+        return this.reportDirectory;
+    }
+
+    /**
+     * @param random the random generator to use
+     * @return an operation picked according to the configured weights
+     */
+    public LoadOperation pickOperation(Random random)
+    {
+        int value = random.nextInt(this.totalWeight);
+        for (Map.Entry<LoadOperation, Integer> entry : this.mix.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+
+        // Can't happen since the value is lower than the total weight.
+        throw new IllegalStateException();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("workers=%d, warmup=%ds, duration=%ds, pages=%d, mix=%s", this.workers, this.warmup,
+            this.duration, this.pages, this.mix);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load.framework;
+
+import org.xwiki.rest.resources.attachments.AttachmentResource;
+import org.xwiki.rest.resources.objects.ObjectsResource;
+import org.xwiki.rest.resources.pages.PageResource;
+import org.xwiki.rest.resources.pages.PagesResource;
+
+/**
+ * The operations the load workers can perform, each one targeting a single REST resource.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public enum LoadOperation
+{
+    /** Get a page. */
+    PAGE_GET(PageResource.class, "GET"),
+
+    /** Update the content of a page. */
+    PAGE_PUT(PageResource.class, "PUT"),
+
+    /** List the pages of the load test space. */
+    PAGES_GET(PagesResource.class, "GET"),
+
+    /** Download the attachment of a page. */
+    ATTACHMENT_GET(AttachmentResource.class, "GET"),
+
+    /** Update the attachment of a page. */
+    ATTACHMENT_PUT(AttachmentResource.class, "PUT"),
+
+    /** List the objects of a page. */
+    OBJECTS_GET(ObjectsResource.class, "GET");
+
+    /** The targeted resource. */
+    private final Class< ? > resource;
+
+    /** The HTTP method used. */
+    private final String method;
+
+    /**
+     * @param resource the targeted resource
+     * @param method the HTTP method used
+     */
+    private LoadOperation(Class< ? > resource, String method)
+    {
+        this.resource = resource;
+        this.method = method;
+    }
+
+    /**
+     * @return the targeted resource
+     */
+    public Class< ? > getResource()
+    {
+        return this.resource;
+    }
+
+    /**
+     * @return a human readable description of the operation, e.g. {@code "GET PageResource"}
+     */
+    public String getLabel()
+    {
+        return this.method + ' ' + this.resource.getSimpleName();
+    }
+}
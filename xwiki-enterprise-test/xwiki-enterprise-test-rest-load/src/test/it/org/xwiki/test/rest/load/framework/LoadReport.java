@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+
+/**
+ * Formats the results of a load test: throughput and latency percentiles for each operation, and for all of them.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class LoadReport
+{
+    /** The format of a line of the report. */
+    private static final String LINE_FORMAT = "%-28s %10s %8s %12s %10s %10s %10s%n";
+
+    /** The title of the report. */
+    private final String title;
+
+    /** The description of the configuration used. */
+    private final String configuration;
+
+    /** The latency recorders, one per operation. */
+    private final Map<LoadOperation, LatencyRecorder> recorders;
+
+    /** The duration of the measured phase, in nanoseconds. */
+    private final long elapsed;
+
+    /**
+     * @param title the title of the report
+     * @param configuration the description of the configuration used
+     * @param recorders the latency recorders, one per operation
+     * @param elapsed the duration of the measured phase, in nanoseconds
+     */
+    public LoadReport(String title, String configuration, Map<LoadOperation, LatencyRecorder> recorders,
+        long elapsed)
+    {
+        this.title = title;
+        this.configuration = configuration;
+        this.recorders = recorders;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return the latencies of all the operations together
+     */
+    public LatencyRecorder getTotal()
+    {
+        LatencyRecorder total = new LatencyRecorder("Total");
+        for (LatencyRecorder recorder : this.recorders.values()) {
+            total.add(recorder);
+        }
+
+        return total;
+    }
+
+    /**
+     * Writes the report to a text file named after the title of the report and prints it on the console.
+     *
+     * @param directory the directory where to write the report
+     * @return the written file
+     * @throws IOException if writing the file fails
+     */
+    public File write(File directory) throws IOException
+    {
+        return BenchmarkUtils.writeReport(directory, this.title + ".txt", toString());
+    }
+
+    /**
+     * @param recorder the recorder to format
+     * @return the formatted line
+     */
+    private String formatLine(LatencyRecorder recorder)
+    {
+        return String.format(LINE_FORMAT, recorder.getName(), recorder.getCount(), recorder.getErrorCount(),
+            String.format("%.1f", recorder.getThroughput(this.elapsed)), formatMillis(recorder.getPercentile(50)),
+            formatMillis(recorder.getPercentile(95)), formatMillis(recorder.getPercentile(99)));
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the duration, formatted in milliseconds
+     */
+    private String formatMillis(long nanos)
+    {
+        return String.format("%.2f", LatencyRecorder.toMillis(nanos));
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%s (%s)%n", this.title, this.configuration));
+        builder.append(String.format(LINE_FORMAT, "Operation", "Requests", "Errors", "Requests/s", "p50 (ms)",
+            "p95 (ms)", "p99 (ms)"));
+        for (LatencyRecorder recorder : this.recorders.values()) {
+            builder.append(formatLine(recorder));
+        }
+        builder.append(formatLine(getTotal()));
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load.framework;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.xwiki.rest.resources.attachments.AttachmentResource;
+import org.xwiki.rest.resources.objects.ObjectsResource;
+import org.xwiki.rest.resources.pages.PagesResource;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.rest.framework.RestClient;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Sends requests to the REST resources, according to the configured operation mix, until the end of the load test.
+ * Each worker is meant to be used by a single thread and sends the requests with a {@link RestClient}.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class LoadWorker implements Callable<Void>
+{
+    /** The space holding the pages used by the load test. */
+    public static final String SPACE = "LoadTest";
+
+    /** The name of the attachment of each page. */
+    public static final String ATTACHMENT = "load.txt";
+
+    /** The configuration of the load test. */
+    private final LoadConfiguration configuration;
+
+    /** The latency recorders, one per operation, shared by all the workers. */
+    private final Map<LoadOperation, LatencyRecorder> recorders;
+
+    /** Before this date (as returned by {@link System#nanoTime()}) the latencies are not recorded. */
+    private final long measureStart;
+
+    /** The date (as returned by {@link System#nanoTime()}) when the worker stops sending requests. */
+    private final long end;
+
+    /** Used to send the requests. */
+    private final RestClient client = new RestClient();
+
+    /** Used to pick the operations and the pages. */
+    private final Random random = new Random();
+
+    /** The name of the wiki. */
+    private String wiki;
+
+    /**
+     * @param configuration the configuration of the load test
+     * @param recorders the latency recorders, one per operation, shared by all the workers
+     * @param measureStart before this date (as returned by {@link System#nanoTime()}) the latencies are not recorded
+     * @param end the date (as returned by {@link System#nanoTime()}) when the worker stops sending requests
+     */
+    public LoadWorker(LoadConfiguration configuration, Map<LoadOperation, LatencyRecorder> recorders,
+        long measureStart, long end)
+    {
+        this.configuration = configuration;
+        this.recorders = recorders;
+        this.measureStart = measureStart;
+        this.end = end;
+    }
+
+    /**
+     * @param index the index of the page
+     * @return the name of the page
+     */
+    public static String getPageName(int index)
+    {
+        return "Page" + index;
+    }
+
+    @Override
+    public Void call() throws Exception
+    {
+        this.wiki = this.client.getWiki();
+
+        long now = System.nanoTime();
+        while (now < this.end) {
+            LoadOperation operation = this.configuration.pickOperation(this.random);
+            String page = getPageName(this.random.nextInt(this.configuration.getPages()));
+
+            boolean success;
+            try {
+                success = execute(operation, page);
+            } catch (Throwable e) {
+                // Count assertion failures and transport errors the same way.
+                success = false;
+            }
+
+            long duration = System.nanoTime() - now;
+            if (now >= this.measureStart) {
+                LatencyRecorder recorder = this.recorders.get(operation);
+                if (success) {
+                    recorder.record(duration);
+                } else {
+                    recorder.recordError();
+                }
+            }
+
+            now = System.nanoTime();
+        }
+
+        return null;
+    }
+
+    /**
+     * @param operation the operation to execute
+     * @param page the target page
+     * @return {@code true} if the operation succeeded
+     * @throws Exception if the request fails
+     */
+    private boolean execute(LoadOperation operation, String page) throws Exception
+    {
+        String admin = TestUtils.ADMIN_CREDENTIALS.getUserName();
+        String password = TestUtils.ADMIN_CREDENTIALS.getPassword();
+
+        HttpMethod method;
+        switch (operation) {
+            case PAGE_GET:
+                return this.client.getPageContent(this.wiki, SPACE, page) != null;
+            case PAGE_PUT:
+                this.client.setPageContent(this.wiki, SPACE, page, "Load test content " + this.random.nextLong());
+                return true;
+            case PAGES_GET:
+                method = this.client.executeGet(
+                    this.client.getUriBuilder(PagesResource.class).build(this.wiki, SPACE).toString(), null, null);
+                return method.getStatusCode() == HttpStatus.SC_OK;
+            case ATTACHMENT_GET:
+                method = this.client.executeGet(getAttachmentURI(page), null, null);
+                return method.getStatusCode() == HttpStatus.SC_OK;
+            case ATTACHMENT_PUT:
+                method =
+                    this.client.executePut(getAttachmentURI(page), "Load test attachment " + this.random.nextLong(),
+                        MediaType.TEXT_PLAIN, admin, password);
+                return method.getStatusCode() == HttpStatus.SC_ACCEPTED;
+            case OBJECTS_GET:
+                method = this.client.executeGet(
+                    this.client.getUriBuilder(ObjectsResource.class).build(this.wiki, SPACE, page).toString(), null,
+                    null);
+                return method.getStatusCode() == HttpStatus.SC_OK;
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+
+    /**
+     * @param page the page holding the attachment
+     * @return the URI of the attachment of the given page
+     */
+    private String getAttachmentURI(String page)
+    {
+        return this.client.getUriBuilder(AttachmentResource.class).build(this.wiki, SPACE, page, ATTACHMENT)
+            .toString();
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.load.framework;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Generates XAR packages with many documents, used to quickly fill a wiki through the XAR import of the
+ * {@code WikiResource}. The documents are streamed to the package so that large packages can be generated without
+ * keeping them in memory.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class XarGenerator
+{
+    /** The size of the chunks of attachment content encoded at once; a multiple of 3 so that chunks can be joined. */
+    private static final int BASE64_CHUNK = 3 * 1024 * 16;
+
+    /** The encoding of the generated files. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The directory where to write the packages. */
+    private final File directory;
+
+    /** The size of the content of each document, in characters. */
+    private int contentSize = 100;
+
+    /** The number of attachments of each document. */
+    private int attachmentCount;
+
+    /** The size of each attachment, in bytes. */
+    private int attachmentSize;
+
+    /** Only one document out of this number gets attachments. */
+    private int attachmentPeriod = 1;
+
+    /** The class of the object added to each document, {@code null} for no object. */
+    private String objectClassName;
+
+    /** The number of distinct values of the {@code category} property of the objects. */
+    private int categoryCount;
+
+    /** The date of the first generated document. */
+    private final long startDate = System.currentTimeMillis();
+
+    /** The number of documents generated so far. */
+    private long generatedDocuments;
+
+    /** Used to generate the attachment content. */
+    private final Random random = new Random(0);
+
+    /**
+     * @param directory the directory where to write the packages
+     */
+    public XarGenerator(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * @param contentSize the size of the content of each document, in characters
+     * @return this generator
+     */
+    public XarGenerator setContentSize(int contentSize)
+    {
+        this.contentSize = contentSize;
+        return this;
+    }
+
+    /**
+     * @param attachmentCount the number of attachments of each document
+     * @param attachmentSize the size of each attachment, in bytes
+     * @return this generator
+     */
+    public XarGenerator setAttachments(int attachmentCount, int attachmentSize)
+    {
+        this.attachmentCount = attachmentCount;
+        this.attachmentSize = attachmentSize;
+        return this;
+    }
+
+    /**
+     * @param attachmentPeriod only one document out of this number gets attachments, e.g. 10 to only add attachments
+     *            to 10% of the documents
+     * @return this generator
+     */
+    public XarGenerator setAttachmentPeriod(int attachmentPeriod)
+    {
+        this.attachmentPeriod = attachmentPeriod;
+        return this;
+    }
+
+    /**
+     * Adds an object to each document. The class must be created first, see {@link #generateClass(String, String)}.
+     *
+     * @param className the full name of the class of the objects
+     * @param categoryCount the number of distinct values of the {@code category} property
+     * @return this generator
+     */
+    public XarGenerator setObjects(String className, int categoryCount)
+    {
+        this.objectClassName = className;
+        this.categoryCount = categoryCount;
+        return this;
+    }
+
+    /**
+     * @param name the name of the package, without extension
+     * @param documents the full names ({@code Space.Page}) of the documents to put in the package
+     * @param revision a marker included in the content of the documents, so that importing several packages
+     *            generated with different markers creates new revisions
+     * @return the generated package
+     * @throws IOException if writing the package fails
+     */
+    public File generate(String name, List<String> documents, int revision) throws IOException
+    {
+        this.directory.mkdirs();
+        File file = new File(this.directory, name + ".xar");
+
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            zip.putNextEntry(new ZipEntry("package.xml"));
+            writePackageDescriptor(name, documents, zip);
+            zip.closeEntry();
+
+            for (int i = 0; i < documents.size(); i++) {
+                String document = documents.get(i);
+                zip.putNextEntry(new ZipEntry(document.replace('.', '/') + ".xml"));
+                writeDocument(document, revision, i % this.attachmentPeriod == 0 ? this.attachmentCount : 0, zip);
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * @param name the name of the package
+     * @param documents the full names of the documents in the package
+     * @param stream where to write the descriptor
+     * @throws IOException if writing fails
+     */
+    private void writePackageDescriptor(String name, List<String> documents, OutputStream stream)
+        throws IOException
+    {
+        Writer writer = new OutputStreamWriter(stream, ENCODING);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<package>\n<infos>\n");
+        writer.write("<name>" + escape(name) + "</name>\n");
+        writer.write("<description>Generated by the load tests</description>\n<licence>LGPL</licence>\n");
+        writer.write("<author>XWiki</author>\n<version>1.0.0</version>\n<backupPack>false</backupPack>\n");
+        writer.write("<preserveVersion>false</preserveVersion>\n</infos>\n<files>\n");
+        for (String document : documents) {
+            writer.write("<file defaultAction=\"0\" language=\"\">" + escape(document) + "</file>\n");
+        }
+        writer.write("</files>\n</package>\n");
+        // Don't close the writer, it would close the zip stream.
+        writer.flush();
+    }
+
+    /**
+     * @param document the full name of the document
+     * @param revision the marker to include in the content
+     * @param attachments the number of attachments to add to the document
+     * @param stream where to write the document
+     * @throws IOException if writing fails
+     */
+    private void writeDocument(String document, int revision, int attachments, OutputStream stream)
+        throws IOException
+    {
+        // Give each document a different date so that ordering by date is meaningful.
+        long index = this.generatedDocuments++;
+        long date = this.startDate + index * 1000;
+
+        Writer writer = new OutputStreamWriter(stream, ENCODING);
+        writeDocumentStart(document, date, writer);
+        for (int i = 0; i < attachments; i++) {
+            writeAttachment("attachment" + i + ".bin", date, writer);
+        }
+        if (this.objectClassName != null) {
+            writeObject(document, index, writer);
+        }
+        writer.write("<content>");
+        writer.write(escape(generateContent(document, revision)));
+        writer.write("</content>\n</xwikidoc>\n");
+        writer.flush();
+    }
+
+    /**
+     * Writes the metadata of a document.
+     *
+     * @param document the full name of the document
+     * @param date the date of the document
+     * @param writer where to write the metadata
+     * @throws IOException if writing fails
+     */
+    private void writeDocumentStart(String document, long date, Writer writer) throws IOException
+    {
+        String space = StringUtils.substringBefore(document, ".");
+        String page = StringUtils.substringAfter(document, ".");
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<xwikidoc>\n");
+        writer.write("<web>" + escape(space) + "</web>\n<name>" + escape(page) + "</name>\n");
+        writer.write("<language></language>\n<defaultLanguage>en</defaultLanguage>\n<translation>0</translation>\n");
+        writer.write("<parent>" + escape(space) + ".WebHome</parent>\n");
+        writer.write("<creator>XWiki.Admin</creator>\n<author>XWiki.Admin</author>\n");
+        writer.write("<customClass></customClass>\n<contentAuthor>XWiki.Admin</contentAuthor>\n");
+        writer.write(String.format("<creationDate>%1$d</creationDate>\n<date>%1$d</date>\n", date));
+        writer.write(String.format("<contentUpdateDate>%d</contentUpdateDate>\n", date));
+        writer.write("<version>1.1</version>\n<title>" + escape(page) + "</title>\n");
+        writer.write("<template></template>\n<defaultTemplate></defaultTemplate>\n");
+        writer.write("<validationScript></validationScript>\n<comment></comment>\n<minorEdit>false</minorEdit>\n");
+        writer.write("<syntaxId>xwiki/2.1</syntaxId>\n<hidden>false</hidden>\n");
+    }
+
+    /**
+     * Writes an object of the configured class, with a {@code category} string property taking a limited number of
+     * values and an {@code amount} number property.
+     *
+     * @param document the full name of the document holding the object
+     * @param index the index of the document
+     * @param writer where to write the object
+     * @throws IOException if writing fails
+     */
+    private void writeObject(String document, long index, Writer writer) throws IOException
+    {
+        writer.write("<object>\n<name>" + escape(document) + "</name>\n<number>0</number>\n");
+        writer.write("<className>" + escape(this.objectClassName) + "</className>\n");
+        writer.write("<guid>" + UUID.randomUUID() + "</guid>\n");
+        writer.write("<property>\n<category>category" + (index % this.categoryCount) + "</category>\n</property>\n");
+        writer.write("<property>\n<amount>" + index + "</amount>\n</property>\n");
+        writer.write("</object>\n");
+    }
+
+    /**
+     * Generates a package holding the definition of the class used by {@link #setObjects(String, int)}.
+     *
+     * @param name the name of the package, without extension
+     * @param className the full name of the class document
+     * @return the generated package
+     * @throws IOException if writing the package fails
+     */
+    public File generateClass(String name, String className) throws IOException
+    {
+        this.directory.mkdirs();
+        File file = new File(this.directory, name + ".xar");
+
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            zip.putNextEntry(new ZipEntry("package.xml"));
+            writePackageDescriptor(name, Collections.singletonList(className), zip);
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry(className.replace('.', '/') + ".xml"));
+            Writer writer = new OutputStreamWriter(zip, ENCODING);
+            writeDocumentStart(className, this.startDate, writer);
+            writer.write("<class>\n<name>" + escape(className) + "</name>\n<customClass></customClass>\n");
+            writer.write("<customMapping></customMapping>\n<defaultViewSheet></defaultViewSheet>\n");
+            writer.write("<defaultEditSheet></defaultEditSheet>\n<defaultWeb></defaultWeb>\n<nameField></nameField>\n");
+            writer.write("<validationScript></validationScript>\n");
+            writer.write("<category>\n<disabled>0</disabled>\n<name>category</name>\n<number>1</number>\n");
+            writer.write("<prettyName>Category</prettyName>\n<size>30</size>\n<unmodifiable>0</unmodifiable>\n");
+            writer.write("<classType>com.xpn.xwiki.objects.classes.StringClass</classType>\n</category>\n");
+            writer.write("<amount>\n<disabled>0</disabled>\n<name>amount</name>\n<number>2</number>\n");
+            writer.write("<numberType>long</numberType>\n<prettyName>Amount</prettyName>\n<size>10</size>\n");
+            writer.write("<unmodifiable>0</unmodifiable>\n");
+            writer.write("<classType>com.xpn.xwiki.objects.classes.NumberClass</classType>\n</amount>\n</class>\n");
+            writer.write("<content></content>\n</xwikidoc>\n");
+            writer.flush();
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * @param fileName the name of the attachment
+     * @param date the date of the attachment
+     * @param writer where to write the attachment
+     * @throws IOException if writing fails
+     */
+    private void writeAttachment(String fileName, long date, Writer writer) throws IOException
+    {
+        writer.write("<attachment>\n<filename>" + fileName + "</filename>\n");
+        writer.write("<filesize>" + this.attachmentSize + "</filesize>\n");
+        writer.write("<author>XWiki.Admin</author>\n<date>" + date + "</date>\n");
+        writer.write("<version>1.1</version>\n<comment></comment>\n<content>");
+        byte[] chunk = new byte[BASE64_CHUNK];
+        for (int remaining = this.attachmentSize; remaining > 0; remaining -= BASE64_CHUNK) {
+            int length = Math.min(remaining, BASE64_CHUNK);
+            if (length < chunk.length) {
+                chunk = new byte[length];
+            }
+            this.random.nextBytes(chunk);
+            writer.write(new String(Base64.encodeBase64(chunk), "US-ASCII"));
+        }
+        writer.write("</content>\n</attachment>\n");
+    }
+
+    /**
+     * @param document the full name of the document
+     * @param revision the marker to include in the content
+     * @return the content of the document
+     */
+    private String generateContent(String document, int revision)
+    {
+        StringBuilder content = new StringBuilder();
+        content.append("= ").append(document).append(" =\n\nRevision ").append(revision).append("\n\n");
+        while (content.length() < this.contentSize) {
+            content.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+        }
+
+        return content.toString();
+    }
+
+    /**
+     * @param value the text to escape
+     * @return the text, escaped for XML
+     */
+    private static String escape(String value)
+    {
+        return StringEscapeUtils.escapeXml(value);
+    }
+}
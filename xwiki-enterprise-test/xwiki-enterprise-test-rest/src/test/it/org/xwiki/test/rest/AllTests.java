@@ -19,15 +19,29 @@
  */
 package org.xwiki.test.rest;
 
+import java.io.IOException;
+
+import org.junit.AfterClass;
 import org.junit.runner.RunWith;
 import org.xwiki.test.integration.XWikiExecutorSuite;
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+import org.xwiki.test.rest.framework.HttpTransport;
 
 /**
- * Runs all functional tests found in the classpath and start/stop XWiki before/after the tests (only once).
+ * Runs all functional tests found in the classpath and start/stop XWiki before/after the tests (only once). The
+ * connection reuse statistics of the {@link HttpTransport} are written in the directory configured with
+ * {@code xwiki.test.rest.reportDirectory} once all the tests are done.
  *
  * @version $Id$
  */
 @RunWith(XWikiExecutorSuite.class)
 public class AllTests
 {
+    @AfterClass
+    public static void reportTransportStatistics() throws IOException
+    {
+        BenchmarkUtils.writeReport(
+            BenchmarkUtils.getReportDirectory("xwiki.test.rest.reportDirectory", "target/rest-reports"),
+            "http-transport.txt", HttpTransport.getInstance().toString());
+    }
 }
@@ -26,10 +26,7 @@
 import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.httpclient.Header;
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
@@ -49,6 +46,7 @@
 import org.xwiki.rest.resources.attachments.AttachmentsAtPageVersionResource;
 import org.xwiki.rest.resources.attachments.AttachmentsResource;
 import org.xwiki.test.rest.framework.AbstractHttpTest;
+import org.xwiki.test.rest.framework.HttpTransport;
 import org.xwiki.test.ui.TestUtils;
 
 public class AttachmentsResourceTest extends AbstractHttpTest
@@ -291,13 +289,6 @@ public void testPOSTAttachment() throws Exception
         String attachmentsUri =
             getUriBuilder(AttachmentsResource.class).build(getWiki(), SPACE_NAME, PAGE_NAME, attachmentName).toString();
 
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(
-            AuthScope.ANY,
-            new UsernamePasswordCredentials(TestUtils.ADMIN_CREDENTIALS.getUserName(), TestUtils.ADMIN_CREDENTIALS
-                .getPassword()));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
         Part[] parts = new Part[1];
 
         ByteArrayPartSource baps = new ByteArrayPartSource(attachmentName, content.getBytes());
@@ -306,7 +297,8 @@ public void testPOSTAttachment() throws Exception
         PostMethod postMethod = new PostMethod(attachmentsUri);
         MultipartRequestEntity mpre = new MultipartRequestEntity(parts, postMethod.getParams());
         postMethod.setRequestEntity(mpre);
-        httpClient.executeMethod(postMethod);
+        HttpTransport.getInstance().execute(postMethod, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+            TestUtils.ADMIN_CREDENTIALS.getPassword());
         Assert.assertEquals(getHttpMethodInfo(postMethod), HttpStatus.SC_CREATED, postMethod.getStatusCode());
 
         this.unmarshaller.unmarshal(postMethod.getResponseBodyAsStream());
@@ -0,0 +1,224 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest;
+
+import java.net.URLEncoder;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.enterprise.rest.resources.objects.ObjectPropertiesResource;
+import org.xwiki.rest.model.jaxb.History;
+import org.xwiki.rest.model.jaxb.Object;
+import org.xwiki.rest.model.jaxb.Property;
+import org.xwiki.rest.resources.objects.ObjectResource;
+import org.xwiki.rest.resources.objects.ObjectsResource;
+import org.xwiki.rest.resources.pages.PageHistoryResource;
+import org.xwiki.rest.resources.pages.PageResource;
+import org.xwiki.test.rest.framework.AbstractHttpTest;
+import org.xwiki.test.rest.framework.TestConstants;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Tests the bulk update of object properties through the {@link ObjectPropertiesResource}.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class ObjectPropertiesResourceTest extends AbstractHttpTest
+{
+    private static final String PAGE_NAME = "ObjectProperties";
+
+    private static final String TAG_CLASS = "XWiki.TagClass";
+
+    private static final String COMMENTS_CLASS = "XWiki.XWikiComments";
+
+    private Object firstTag;
+
+    private Object secondTag;
+
+    private Object comment;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        createPageIfDoesntExist(TestConstants.TEST_SPACE_NAME, PAGE_NAME, "");
+        this.firstTag = createObject(TAG_CLASS);
+        this.secondTag = createObject(TAG_CLASS);
+        this.comment = createObject(COMMENTS_CLASS);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Delete the page so that the next test starts with only its own objects.
+        DeleteMethod deleteMethod =
+            executeDelete(getUriBuilder(PageResource.class).build(getWiki(), TestConstants.TEST_SPACE_NAME, PAGE_NAME)
+                .toString(), TestUtils.ADMIN_CREDENTIALS.getUserName(), TestUtils.ADMIN_CREDENTIALS.getPassword());
+        Assert.assertEquals(getHttpMethodInfo(deleteMethod), HttpStatus.SC_NO_CONTENT, deleteMethod.getStatusCode());
+    }
+
+    @Override
+    @Test
+    public void testRepresentation() throws Exception
+    {
+        // The resource has no representation, it only updates the page.
+    }
+
+    @Test
+    public void testPUTProperties() throws Exception
+    {
+        int revisions = getRevisionCount();
+
+        StringBuilder form = new StringBuilder();
+        appendField(form, this.firstTag, "tags", "first");
+        appendField(form, this.secondTag, "tags", "second");
+        appendField(form, this.comment, "comment", "Updated comment");
+        appendField(form, this.comment, "author", "XWiki.Admin");
+
+        PutMethod putMethod = executePutForm(form.toString(), true);
+        Assert.assertEquals(getHttpMethodInfo(putMethod), HttpStatus.SC_ACCEPTED, putMethod.getStatusCode());
+
+        Assert.assertEquals("first", getPropertyValue(this.firstTag, "tags"));
+        Assert.assertEquals("second", getPropertyValue(this.secondTag, "tags"));
+        Assert.assertEquals("Updated comment", getPropertyValue(this.comment, "comment"));
+        Assert.assertEquals("XWiki.Admin", getPropertyValue(this.comment, "author"));
+        Assert.assertEquals("All the objects should be saved in a single revision", revisions + 1,
+            getRevisionCount());
+    }
+
+    @Test
+    public void testPUTPropertiesWithTooLargeObjectNumber() throws Exception
+    {
+        int revisions = getRevisionCount();
+
+        StringBuilder form = new StringBuilder();
+        appendField(form, this.firstTag, "tags", "ignored");
+        form.append('&').append(URLEncoder.encode(TAG_CLASS + "_99999999999999999999_tags", "UTF-8")).append("=value");
+
+        PutMethod putMethod = executePutForm(form.toString(), true);
+        Assert.assertEquals(getHttpMethodInfo(putMethod), HttpStatus.SC_BAD_REQUEST, putMethod.getStatusCode());
+        Assert.assertEquals(revisions, getRevisionCount());
+    }
+
+    @Test
+    public void testPUTPropertiesOfNotExistingObject() throws Exception
+    {
+        int revisions = getRevisionCount();
+
+        StringBuilder form = new StringBuilder();
+        appendField(form, this.firstTag, "tags", "ignored");
+        form.append('&').append(URLEncoder.encode(TAG_CLASS + "_" + Integer.MAX_VALUE + "_tags", "UTF-8"))
+            .append("=value");
+
+        PutMethod putMethod = executePutForm(form.toString(), true);
+        Assert.assertEquals(getHttpMethodInfo(putMethod), HttpStatus.SC_NOT_FOUND, putMethod.getStatusCode());
+        Assert.assertFalse("ignored".equals(getPropertyValue(this.firstTag, "tags")));
+        Assert.assertEquals(revisions, getRevisionCount());
+    }
+
+    @Test
+    public void testPUTPropertiesUnauthorized() throws Exception
+    {
+        StringBuilder form = new StringBuilder();
+        appendField(form, this.firstTag, "tags", "unauthorized");
+
+        PutMethod putMethod = executePutForm(form.toString(), false);
+        Assert.assertEquals(getHttpMethodInfo(putMethod), HttpStatus.SC_UNAUTHORIZED, putMethod.getStatusCode());
+        Assert.assertFalse("unauthorized".equals(getPropertyValue(this.firstTag, "tags")));
+    }
+
+    private Object createObject(String className) throws Exception
+    {
+        Object object = this.objectFactory.createObject();
+        object.setClassName(className);
+
+        PostMethod postMethod =
+            executePostXml(
+                getUriBuilder(ObjectsResource.class).build(getWiki(), TestConstants.TEST_SPACE_NAME, PAGE_NAME)
+                    .toString(), object, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+                TestUtils.ADMIN_CREDENTIALS.getPassword());
+        Assert.assertEquals(getHttpMethodInfo(postMethod), HttpStatus.SC_CREATED, postMethod.getStatusCode());
+
+        return (Object) this.unmarshaller.unmarshal(postMethod.getResponseBodyAsStream());
+    }
+
+    private void appendField(StringBuilder form, Object object, String property, String value) throws Exception
+    {
+        if (form.length() > 0) {
+            form.append('&');
+        }
+        form.append(URLEncoder.encode(
+            String.format("%s_%d_%s", object.getClassName(), object.getNumber(), property), "UTF-8"));
+        form.append('=').append(URLEncoder.encode(value, "UTF-8"));
+    }
+
+    private PutMethod executePutForm(String form, boolean asAdmin) throws Exception
+    {
+        String uri =
+            getUriBuilder(ObjectPropertiesResource.class).build(getWiki(), TestConstants.TEST_SPACE_NAME, PAGE_NAME)
+                .toString();
+        if (asAdmin) {
+            return executePut(uri, form, MediaType.APPLICATION_FORM_URLENCODED,
+                TestUtils.ADMIN_CREDENTIALS.getUserName(), TestUtils.ADMIN_CREDENTIALS.getPassword());
+        }
+
+        return executePut(uri, form, MediaType.APPLICATION_FORM_URLENCODED);
+    }
+
+    private String getPropertyValue(Object object, String propertyName) throws Exception
+    {
+        GetMethod getMethod =
+            executeGet(getUriBuilder(ObjectResource.class).build(getWiki(), TestConstants.TEST_SPACE_NAME, PAGE_NAME,
+                object.getClassName(), object.getNumber()).toString());
+        Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+        Object currentObject = (Object) this.unmarshaller.unmarshal(getMethod.getResponseBodyAsStream());
+        for (Property property : currentObject.getProperties()) {
+            if (property.getName().equals(propertyName)) {
+                return property.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private int getRevisionCount() throws Exception
+    {
+        GetMethod getMethod =
+            executeGet(getUriBuilder(PageHistoryResource.class).build(getWiki(), TestConstants.TEST_SPACE_NAME,
+                PAGE_NAME).toString());
+        Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+        return ((History) this.unmarshaller.unmarshal(getMethod.getResponseBodyAsStream())).getHistorySummaries()
+            .size();
+    }
+}
@@ -19,19 +19,25 @@
  */
 package org.xwiki.test.rest;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.junit.Assert;
 import org.junit.Test;
 import org.xwiki.rest.Relations;
 import org.xwiki.rest.model.jaxb.Link;
+import org.xwiki.rest.model.jaxb.PageSummary;
 import org.xwiki.rest.model.jaxb.Pages;
 import org.xwiki.rest.model.jaxb.Space;
 import org.xwiki.rest.model.jaxb.Spaces;
 import org.xwiki.rest.model.jaxb.Wiki;
 import org.xwiki.rest.model.jaxb.Wikis;
+import org.xwiki.rest.resources.pages.PagesResource;
 import org.xwiki.rest.resources.wikis.WikisResource;
 import org.xwiki.test.rest.framework.AbstractHttpTest;
+import org.xwiki.test.rest.framework.StreamingReader;
 
 public class PagesResourceTest extends AbstractHttpTest
 {
@@ -67,4 +73,29 @@ public void testRepresentation() throws Exception
 
         checkLinks(pages);
     }
+
+    @Test
+    public void testStreamingPageSummaries() throws Exception
+    {
+        GetMethod getMethod = executeGet(getUriBuilder(PagesResource.class).build(getWiki(), "Main").toString());
+        Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
+
+        Pages pages = (Pages) unmarshaller.unmarshal(getMethod.getResponseBodyAsStream());
+        Assert.assertTrue(pages.getPageSummaries().size() > 0);
+
+        List<String> streamedPages = new ArrayList<String>();
+        StreamingReader<PageSummary> reader = StreamingReader.pageSummaries(getMethod.getResponseBodyAsStream());
+        try {
+            while (reader.hasNext()) {
+                streamedPages.add(reader.next().getFullName());
+            }
+        } finally {
+            reader.close();
+        }
+
+        Assert.assertEquals(pages.getPageSummaries().size(), streamedPages.size());
+        for (int i = 0; i < streamedPages.size(); i++) {
+            Assert.assertEquals(pages.getPageSummaries().get(i).getFullName(), streamedPages.get(i));
+        }
+    }
 }
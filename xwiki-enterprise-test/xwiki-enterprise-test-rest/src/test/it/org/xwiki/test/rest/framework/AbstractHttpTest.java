@@ -30,12 +30,9 @@
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.NameValuePair;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
@@ -54,9 +51,7 @@
 import org.xwiki.rest.model.jaxb.Page;
 import org.xwiki.rest.model.jaxb.PageSummary;
 import org.xwiki.rest.model.jaxb.Pages;
-import org.xwiki.rest.model.jaxb.Wikis;
 import org.xwiki.rest.resources.pages.PageResource;
-import org.xwiki.rest.resources.wikis.WikisResource;
 import org.xwiki.test.integration.XWikiExecutor;
 import org.xwiki.test.jmock.AbstractComponentTestCase;
 import org.xwiki.test.ui.TestUtils;
@@ -75,6 +70,9 @@ public abstract class AbstractHttpTest extends AbstractComponentTestCase
 
     protected TestUtils testUtils = new TestUtils();
 
+    /** The media type asked in the Accept header, XML by default since the tests unmarshal the responses. */
+    protected String acceptedMediaType = MediaType.APPLICATION_XML.toString();
+
     @Override
     @Before
     public void setUp() throws Exception
@@ -82,12 +80,18 @@ public void setUp() throws Exception
         super.setUp();
         random = new Random();
 
-        JAXBContext context = JAXBContext.newInstance("org.xwiki.rest.model.jaxb");
+        // The context is expensive to create so it's shared by all the tests.
+        JAXBContext context = JAXBUtils.getContext();
         marshaller = context.createMarshaller();
         unmarshaller = context.createUnmarshaller();
         objectFactory = new ObjectFactory();
     }
 
+    public void setAcceptedMediaType(String acceptedMediaType)
+    {
+        this.acceptedMediaType = acceptedMediaType;
+    }
+
     public void setPort(int port)
     {
         this.port = port;
@@ -125,9 +129,18 @@ protected List<Link> getLinksByRelation(LinkCollection linkCollection, String re
         return result;
     }
 
+    /**
+     * @return a client sending the requests to the instance using the port and media type of this test
+     */
+    protected RestClient getRestClient()
+    {
+        return new RestClient(this.port, this.acceptedMediaType);
+    }
+
     protected String getBaseURL()
     {
-        return TestUtils.BASE_REST_URL.substring(0, TestUtils.BASE_REST_URL.length() - 1);
+        // Take the port into account, otherwise setPort() would have no effect (e.g. when testing a cluster).
+        return getRestClient().getBaseURL();
     }
 
     protected String getFullUri(Class< ? > resourceClass)
@@ -139,34 +152,18 @@ protected String getFullUri(Class< ? > resourceClass)
 
     protected GetMethod executeGet(String uri) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-
-        GetMethod getMethod = new GetMethod(uri);
-        getMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
-        httpClient.executeMethod(getMethod);
-
-        return getMethod;
+        return getRestClient().executeGet(uri, null, null);
     }
 
     protected GetMethod executeGet(String uri, String userName, String password) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
-        GetMethod getMethod = new GetMethod(uri);
-        getMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
-        httpClient.executeMethod(getMethod);
-
-        return getMethod;
+        return getRestClient().executeGet(uri, userName, password);
     }
 
     protected PostMethod executePostXml(String uri, Object object) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-
         PostMethod postMethod = new PostMethod(uri);
-        postMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
+        postMethod.addRequestHeader("Accept", this.acceptedMediaType);
 
         StringWriter writer = new StringWriter();
         marshaller.marshal(object, writer);
@@ -175,19 +172,15 @@ protected PostMethod executePostXml(String uri, Object object) throws Exception
             new StringRequestEntity(writer.toString(), MediaType.APPLICATION_XML.toString(), "UTF-8");
         postMethod.setRequestEntity(entity);
 
-        httpClient.executeMethod(postMethod);
+        HttpTransport.getInstance().execute(postMethod, null, null);
 
         return postMethod;
     }
 
     protected PostMethod executePostXml(String uri, Object object, String userName, String password) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
         PostMethod postMethod = new PostMethod(uri);
-        postMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
+        postMethod.addRequestHeader("Accept", this.acceptedMediaType);
 
         StringWriter writer = new StringWriter();
         marshaller.marshal(object, writer);
@@ -196,24 +189,20 @@ protected PostMethod executePostXml(String uri, Object object, String userName,
             new StringRequestEntity(writer.toString(), MediaType.APPLICATION_XML.toString(), "UTF-8");
         postMethod.setRequestEntity(entity);
 
-        httpClient.executeMethod(postMethod);
+        HttpTransport.getInstance().execute(postMethod, userName, password);
 
         return postMethod;
     }
 
     protected PostMethod executePost(String uri, InputStream is, String userName, String password) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
         PostMethod postMethod = new PostMethod(uri);
-        postMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
+        postMethod.addRequestHeader("Accept", this.acceptedMediaType);
 
         RequestEntity entity = new InputStreamRequestEntity(is);
         postMethod.setRequestEntity(entity);
 
-        httpClient.executeMethod(postMethod);
+        HttpTransport.getInstance().execute(postMethod, userName, password);
 
         return postMethod;
     }
@@ -221,17 +210,13 @@ protected PostMethod executePost(String uri, InputStream is, String userName, St
     protected PostMethod executePost(String uri, String string, String mediaType, String userName, String password)
         throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
         PostMethod postMethod = new PostMethod(uri);
-        postMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
+        postMethod.addRequestHeader("Accept", this.acceptedMediaType);
 
         RequestEntity entity = new StringRequestEntity(string, mediaType, "UTF-8");
         postMethod.setRequestEntity(entity);
 
-        httpClient.executeMethod(postMethod);
+        HttpTransport.getInstance().execute(postMethod, userName, password);
 
         return postMethod;
     }
@@ -239,27 +224,21 @@ protected PostMethod executePost(String uri, String string, String mediaType, St
     protected PostMethod executePostForm(String uri, NameValuePair[] nameValuePairs, String userName, String password)
         throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
         PostMethod postMethod = new PostMethod(uri);
-        postMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
+        postMethod.addRequestHeader("Accept", this.acceptedMediaType);
         postMethod.addRequestHeader("Content-type", MediaType.APPLICATION_WWW_FORM.toString());
 
         postMethod.setRequestBody(nameValuePairs);
 
-        httpClient.executeMethod(postMethod);
+        HttpTransport.getInstance().execute(postMethod, userName, password);
 
         return postMethod;
     }
 
     protected PutMethod executePutXml(String uri, Object object) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-
         PutMethod putMethod = new PutMethod(uri);
-        putMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
+        putMethod.addRequestHeader("Accept", this.acceptedMediaType);
 
         StringWriter writer = new StringWriter();
         marshaller.marshal(object, writer);
@@ -268,19 +247,15 @@ protected PutMethod executePutXml(String uri, Object object) throws Exception
             new StringRequestEntity(writer.toString(), MediaType.APPLICATION_XML.toString(), "UTF-8");
         putMethod.setRequestEntity(entity);
 
-        httpClient.executeMethod(putMethod);
+        HttpTransport.getInstance().execute(putMethod, null, null);
 
         return putMethod;
     }
 
     protected PutMethod executePutXml(String uri, Object object, String userName, String password) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
         PutMethod putMethod = new PutMethod(uri);
-        putMethod.addRequestHeader("Accept", MediaType.APPLICATION_XML.toString());
+        putMethod.addRequestHeader("Accept", this.acceptedMediaType);
 
         StringWriter writer = new StringWriter();
         marshaller.marshal(object, writer);
@@ -289,70 +264,35 @@ protected PutMethod executePutXml(String uri, Object object, String userName, St
             new StringRequestEntity(writer.toString(), MediaType.APPLICATION_XML.toString(), "UTF-8");
         putMethod.setRequestEntity(entity);
 
-        httpClient.executeMethod(putMethod);
+        HttpTransport.getInstance().execute(putMethod, userName, password);
 
         return putMethod;
     }
 
     protected PutMethod executePut(String uri, String string, String mediaType) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-
-        PutMethod putMethod = new PutMethod(uri);
-        RequestEntity entity = new StringRequestEntity(string, mediaType, "UTF-8");
-        putMethod.setRequestEntity(entity);
-
-        httpClient.executeMethod(putMethod);
-
-        return putMethod;
+        return getRestClient().executePut(uri, string, mediaType, null, null);
     }
 
     protected PutMethod executePut(String uri, String string, String mediaType, String userName, String password)
         throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
-        PutMethod putMethod = new PutMethod(uri);
-        RequestEntity entity = new StringRequestEntity(string, mediaType, "UTF-8");
-        putMethod.setRequestEntity(entity);
-
-        httpClient.executeMethod(putMethod);
-
-        return putMethod;
+        return getRestClient().executePut(uri, string, mediaType, userName, password);
     }
 
     protected DeleteMethod executeDelete(String uri) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        DeleteMethod deleteMethod = new DeleteMethod(uri);
-        httpClient.executeMethod(deleteMethod);
-
-        return deleteMethod;
+        return getRestClient().executeDelete(uri, null, null);
     }
 
     protected DeleteMethod executeDelete(String uri, String userName, String password) throws Exception
     {
-        HttpClient httpClient = new HttpClient();
-        httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-        httpClient.getParams().setAuthenticationPreemptive(true);
-
-        DeleteMethod deleteMethod = new DeleteMethod(uri);
-        httpClient.executeMethod(deleteMethod);
-
-        return deleteMethod;
+        return getRestClient().executeDelete(uri, userName, password);
     }
 
     protected String getWiki() throws Exception
     {
-        GetMethod getMethod = executeGet(getFullUri(WikisResource.class));
-        Assert.assertEquals(getHttpMethodInfo(getMethod), HttpStatus.SC_OK, getMethod.getStatusCode());
-
-        Wikis wikis = (Wikis) unmarshaller.unmarshal(getMethod.getResponseBodyAsStream());
-        Assert.assertTrue(wikis.getWikis().size() > 0);
-
-        return wikis.getWikis().get(0).getName();
+        return getRestClient().getWiki();
     }
 
     protected void checkLinks(LinkCollection linkCollection) throws Exception
@@ -369,7 +309,7 @@ protected void checkLinks(LinkCollection linkCollection) throws Exception
 
     protected UriBuilder getUriBuilder(Class< ? > resource)
     {
-        return UriBuilder.fromUri(getBaseURL()).path(resource);
+        return getRestClient().getUriBuilder(resource);
     }
 
     private Page getPage(String wikiName, String spaceName, String pageName) throws Exception
@@ -405,8 +345,7 @@ protected int setPageContent(String wikiName, String spaceName, String pageName,
 
     protected String getHttpMethodInfo(HttpMethod method) throws Exception
     {
-        return String.format("\nName: %s\nURI: %s\nStatus code: %d\nStatus text: %s", method.getName(),
-            method.getURI(), method.getStatusCode(), method.getStatusText());
+        return RestClient.getHttpMethodInfo(method);
     }
 
     protected String getAttachmentsInfo(Attachments attachments)
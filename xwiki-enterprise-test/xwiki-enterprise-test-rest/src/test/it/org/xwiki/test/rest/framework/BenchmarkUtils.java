@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Helpers shared by the benchmarks of the functional test modules, to read their configuration from System Properties
+ * and to write their reports.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public final class BenchmarkUtils
+{
+    private BenchmarkUtils()
+    {
+        // Utility class.
+    }
+
+    /**
+     * @param name the name of the System Property
+     * @param defaultValue the value to use when the property is not set
+     * @return the trimmed value of the property
+     */
+    public static String getProperty(String name, String defaultValue)
+    {
+        String value = System.getProperty(name);
+
+        // Maven passes unresolved or empty values when a property is not defined.
+        return value == null || value.trim().length() == 0 || value.startsWith("${") ? defaultValue : value.trim();
+    }
+
+    /**
+     * @param name the name of the System Property
+     * @param defaultValue the value to use when the property is not set
+     * @return the value of the property
+     */
+    public static int getIntProperty(String name, int defaultValue)
+    {
+        return Integer.parseInt(getProperty(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * @param name the name of the System Property
+     * @param defaultValue the value to use when the property is not set
+     * @return the value of the property
+     */
+    public static double getDoubleProperty(String name, double defaultValue)
+    {
+        return Double.parseDouble(getProperty(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * @param name the name of the System Property holding the directory
+     * @param defaultDirectory the directory to use when the property is not set
+     * @return the directory where to write the reports
+     */
+    public static File getReportDirectory(String name, String defaultDirectory)
+    {
+        return new File(getProperty(name, defaultDirectory));
+    }
+
+    /**
+     * Writes a report in the given directory and prints it on the console.
+     *
+     * @param directory the directory where to write the report, created if needed
+     * @param name the name of the report file
+     * @param content the content of the report
+     * @return the written file
+     * @throws IOException if writing the file fails
+     */
+    public static File writeReport(File directory, String name, String content) throws IOException
+    {
+        System.out.println(content);
+
+        directory.mkdirs();
+        File file = new File(directory, name);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.io.InputStream;
+
+/**
+ * Stream of pseudo-random bytes of a given length, generated on the fly so that very large payloads can be sent
+ * without being kept in memory or on disk. Two streams created with the same seed produce the same bytes.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class GeneratedInputStream extends InputStream
+{
+    /** The total number of bytes to produce. */
+    private final long length;
+
+    /** The number of bytes produced so far. */
+    private long position;
+
+    /** The state of the xorshift generator, never 0. */
+    private long state;
+
+    /** The current generated word, consumed byte after byte. */
+    private long word;
+
+    /** The number of bytes left in {@link #word}. */
+    private int wordBytes;
+
+    /**
+     * @param length the total number of bytes to produce
+     * @param seed the seed of the generator
+     */
+    public GeneratedInputStream(long length, long seed)
+    {
+        this.length = length;
+        this.state = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    /**
+     * @return the total number of bytes produced by this stream
+     */
+    public long getLength()
+    {
+        return this.length;
+    }
+
+    /**
+     * @return the next byte
+     */
+    private int nextByte()
+    {
+        if (this.wordBytes == 0) {
+            this.state ^= this.state << 13;
+            this.state ^= this.state >>> 7;
+            this.state ^= this.state << 17;
+            this.word = this.state;
+            this.wordBytes = 8;
+        }
+
+        int result = (int) (this.word & 0xFF);
+        this.word >>>= 8;
+        this.wordBytes--;
+
+        return result;
+    }
+
+    @Override
+    public int read()
+    {
+        if (this.position >= this.length) {
+            return -1;
+        }
+        this.position++;
+
+        return nextByte();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count)
+    {
+        if (this.position >= this.length) {
+            return -1;
+        }
+
+        int toRead = (int) Math.min(count, this.length - this.position);
+        for (int i = 0; i < toRead; i++) {
+            buffer[offset + i] = (byte) nextByte();
+        }
+        this.position += toRead;
+
+        return toRead;
+    }
+
+    @Override
+    public int available()
+    {
+        return (int) Math.min(Integer.MAX_VALUE, this.length - this.position);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Samples the heap usage of the XWiki instance under test through JMX, to find the peak heap usage during a
+ * benchmark. The instance must be started with the options returned by {@link #getJMXOptions(int)}.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class HeapSampler
+{
+    /** The default sampling period, in milliseconds. */
+    private static final long DEFAULT_PERIOD = 100;
+
+    /** The JMX connection. */
+    private final JMXConnector connector;
+
+    /** The memory bean of the remote JVM. */
+    private final MemoryMXBean memory;
+
+    /** The sampling period, in milliseconds. */
+    private final long period;
+
+    /** Runs the sampling. */
+    private ScheduledExecutorService scheduler;
+
+    /** The maximum heap usage seen since the sampling started, in bytes. */
+    private volatile long peak;
+
+    /**
+     * @param port the JMX port of the XWiki instance
+     * @throws IOException if the connection fails
+     */
+    public HeapSampler(int port) throws IOException
+    {
+        this(port, DEFAULT_PERIOD);
+    }
+
+    /**
+     * @param port the JMX port of the XWiki instance
+     * @param period the sampling period, in milliseconds
+     * @throws IOException if the connection fails
+     */
+    public HeapSampler(int port, long period) throws IOException
+    {
+        JMXServiceURL url = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://localhost:%d/jmxrmi", port));
+        this.connector = JMXConnectorFactory.connect(url);
+        this.memory =
+            ManagementFactory.newPlatformMXBeanProxy(getConnection(), ManagementFactory.MEMORY_MXBEAN_NAME,
+                MemoryMXBean.class);
+        this.period = period;
+    }
+
+    /**
+     * @param port the JMX port to open
+     * @return the JVM options to pass to the XWiki instance so that it can be sampled
+     */
+    public static String getJMXOptions(int port)
+    {
+        return String.format("-Dcom.sun.management.jmxremote.port=%d -Dcom.sun.management.jmxremote.authenticate=false"
+            + " -Dcom.sun.management.jmxremote.ssl=false", port);
+    }
+
+    /**
+     * @return the connection to the remote JVM, to access other management beans
+     * @throws IOException if the connection fails
+     */
+    public MBeanServerConnection getConnection() throws IOException
+    {
+        return this.connector.getMBeanServerConnection();
+    }
+
+    /**
+     * @return the current heap usage of the XWiki instance, in bytes
+     */
+    public long getHeapUsage()
+    {
+        return this.memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Sums the bytes allocated by the live threads of the XWiki instance. The difference between two calls gives the
+     * allocations made in between, as long as the threads doing the work (e.g. the pooled HTTP threads) are still
+     * alive.
+     *
+     * @return the number of bytes allocated by the live threads of the XWiki instance, or -1 if the JVM doesn't
+     *         support measuring thread allocations
+     * @throws IOException if the connection fails
+     */
+    public long getAllocatedBytes() throws IOException
+    {
+        try {
+            ObjectName threading = new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME);
+            long[] threadIds = (long[]) getConnection().getAttribute(threading, "AllThreadIds");
+            long[] allocatedBytes =
+                (long[]) getConnection().invoke(threading, "getThreadAllocatedBytes", new Object[] {threadIds},
+                    new String[] {long[].class.getName()});
+
+            long total = 0;
+            for (long bytes : allocatedBytes) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+
+            return total;
+        } catch (JMException e) {
+            // Not a HotSpot JVM.
+            return -1;
+        }
+    }
+
+    /**
+     * @return the CPU time used by the XWiki instance so far, in nanoseconds, or -1 if the JVM doesn't support
+     *         measuring it
+     * @throws IOException if the connection fails
+     */
+    public long getProcessCpuTime() throws IOException
+    {
+        try {
+            ObjectName system = new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+            return ((Number) getConnection().getAttribute(system, "ProcessCpuTime")).longValue();
+        } catch (JMException e) {
+            // Not a HotSpot JVM.
+            return -1;
+        }
+    }
+
+    /**
+     * Asks the XWiki instance to run a garbage collection, to get a meaningful baseline before measuring.
+     */
+    public void gc()
+    {
+        this.memory.gc();
+    }
+
+    /**
+     * Starts sampling the heap usage in the background and resets the peak.
+     */
+    public synchronized void start()
+    {
+        stop();
+        this.peak = getHeapUsage();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.scheduler.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sample();
+            }
+        }, 0, this.period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling the heap usage.
+     *
+     * @return the peak heap usage since the sampling started, in bytes
+     */
+    public synchronized long stop()
+    {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+            // Don't miss the end of the measured operation.
+            sample();
+        }
+
+        return this.peak;
+    }
+
+    /**
+     * Takes a single sample.
+     */
+    private void sample()
+    {
+        try {
+            long used = getHeapUsage();
+            if (used > this.peak) {
+                this.peak = used;
+            }
+        } catch (RuntimeException e) {
+            // The connection may be lost while XWiki stops, keep the last peak.
+        }
+    }
+
+    /**
+     * Stops sampling and closes the JMX connection.
+     *
+     * @throws IOException if closing the connection fails
+     */
+    public void close() throws IOException
+    {
+        stop();
+        this.connector.close();
+    }
+}
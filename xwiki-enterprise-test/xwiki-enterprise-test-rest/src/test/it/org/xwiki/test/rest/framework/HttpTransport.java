@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+
+/**
+ * Shared HTTP transport used by the REST functional tests. All the requests go through a single
+ * {@link MultiThreadedHttpConnectionManager} so that connections are kept alive and reused between requests, and
+ * there is one {@link HttpClient} per set of credentials so that preemptive authentication is configured only once.
+ * <p>
+ * Responses are buffered before the connection is released back to the pool, so callers can read the response body
+ * (as many times as they want) without having to release the connection themselves.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public final class HttpTransport
+{
+    /** The maximum number of connections kept open to the same host. */
+    private static final int MAX_CONNECTIONS_PER_HOST = 64;
+
+    /** The maximum number of connections kept open overall. */
+    private static final int MAX_TOTAL_CONNECTIONS = 256;
+
+    /** The key used for the client that doesn't send any credentials. */
+    private static final String ANONYMOUS = "";
+
+    /** The transport shared by all the tests running in the same JVM. */
+    private static final HttpTransport INSTANCE = new HttpTransport();
+
+    /** The connection pool shared by all the clients. */
+    private final CountingConnectionManager connectionManager = new CountingConnectionManager();
+
+    /** The clients, indexed by credentials. */
+    private final ConcurrentMap<String, HttpClient> clients = new ConcurrentHashMap<String, HttpClient>();
+
+    /** The name of the main wiki, indexed by REST base URL. */
+    private final ConcurrentMap<String, String> wikiNames = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Connection manager that counts how many of the leased connections were already open, i.e. reused from the pool.
+     */
+    private static class CountingConnectionManager extends MultiThreadedHttpConnectionManager
+    {
+        /** The total number of connections leased from the pool. */
+        private final AtomicLong leased = new AtomicLong();
+
+        /** The number of leased connections that were already open. */
+        private final AtomicLong reused = new AtomicLong();
+
+        @Override
+        public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+            throws ConnectionPoolTimeoutException
+        {
+            HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+
+            this.leased.incrementAndGet();
+            if (connection.isOpen()) {
+                this.reused.incrementAndGet();
+            }
+
+            return connection;
+        }
+    }
+
+    private HttpTransport()
+    {
+        this.connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        this.connectionManager.getParams().setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+        this.connectionManager.getParams().setStaleCheckingEnabled(true);
+    }
+
+    /**
+     * @return the transport shared by all the tests
+     */
+    public static HttpTransport getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @param userName the user name, {@code null} for anonymous requests
+     * @param password the password
+     * @return the client to use for the given credentials
+     */
+    public HttpClient getClient(String userName, String password)
+    {
+        String key = userName == null ? ANONYMOUS : userName + ':' + password;
+
+        HttpClient client = this.clients.get(key);
+        if (client == null) {
+            client = new HttpClient(this.connectionManager);
+            // Each test used to get a brand new client so make sure no state is shared through cookies.
+            client.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+            if (userName != null) {
+                client.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
+                client.getParams().setAuthenticationPreemptive(true);
+            }
+
+            HttpClient existingClient = this.clients.putIfAbsent(key, client);
+            if (existingClient != null) {
+                client = existingClient;
+            }
+        }
+
+        return client;
+    }
+
+    /**
+     * Executes the given method, buffers the response body and releases the connection back to the pool.
+     *
+     * @param method the method to execute
+     * @param userName the user name, {@code null} for anonymous requests
+     * @param password the password
+     * @param <T> the type of method
+     * @return the executed method
+     * @throws IOException if the request fails
+     */
+    public <T extends HttpMethod> T execute(T method, String userName, String password) throws IOException
+    {
+        try {
+            getClient(userName, password).executeMethod(method);
+            // Buffer the response so that the connection can go back to the pool right away.
+            method.getResponseBody();
+        } finally {
+            method.releaseConnection();
+        }
+
+        return method;
+    }
+
+    /**
+     * Executes the given method without buffering the response, which is useful for large responses. The caller must
+     * read the response with {@link HttpMethod#getResponseBodyAsStream()} and then call
+     * {@link HttpMethod#releaseConnection()} to give the connection back to the pool.
+     *
+     * @param method the method to execute
+     * @param userName the user name, {@code null} for anonymous requests
+     * @param password the password
+     * @param <T> the type of method
+     * @return the executed method
+     * @throws IOException if the request fails
+     */
+    public <T extends HttpMethod> T executeStreaming(T method, String userName, String password) throws IOException
+    {
+        try {
+            getClient(userName, password).executeMethod(method);
+        } catch (IOException e) {
+            method.releaseConnection();
+            throw e;
+        }
+
+        return method;
+    }
+
+    /**
+     * @param baseURL the REST base URL
+     * @return the cached name of the main wiki for the given REST base URL, {@code null} if not yet known
+     */
+    public String getWikiName(String baseURL)
+    {
+        return this.wikiNames.get(baseURL);
+    }
+
+    /**
+     * @param baseURL the REST base URL
+     * @param wikiName the name of the main wiki for the given REST base URL
+     */
+    public void setWikiName(String baseURL, String wikiName)
+    {
+        this.wikiNames.put(baseURL, wikiName);
+    }
+
+    /**
+     * @return the number of connections leased from the pool so far
+     */
+    public long getLeasedConnectionCount()
+    {
+        return this.connectionManager.leased.get();
+    }
+
+    /**
+     * @return the number of leased connections that were reused from the pool instead of being opened
+     */
+    public long getReusedConnectionCount()
+    {
+        return this.connectionManager.reused.get();
+    }
+
+    /**
+     * @return the fraction of requests that reused an already open connection, between 0 and 1
+     */
+    public double getConnectionReuseRatio()
+    {
+        long leasedCount = getLeasedConnectionCount();
+
+        return leasedCount == 0 ? 0 : (double) getReusedConnectionCount() / leasedCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HTTP transport: %d requests, %d reused connections (reuse ratio %.2f%%)",
+            getLeasedConnectionCount(), getReusedConnectionCount(), getConnectionReuseRatio() * 100);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Gives access to a process-wide {@link JAXBContext} for the REST model, and to pools of {@link Marshaller}s and
+ * {@link Unmarshaller}s that can be used safely from several threads.
+ * <p>
+ * Creating the context is expensive so it's created only once. Marshallers and unmarshallers are cheap to create but
+ * aren't thread-safe, so the static helpers borrow one from the pool for the duration of the call.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public final class JAXBUtils
+{
+    /** The package containing the REST model. */
+    public static final String MODEL_PACKAGE = "org.xwiki.rest.model.jaxb";
+
+    /** The idle marshallers. */
+    private static final Queue<Marshaller> MARSHALLERS = new ConcurrentLinkedQueue<Marshaller>();
+
+    /** The idle unmarshallers. */
+    private static final Queue<Unmarshaller> UNMARSHALLERS = new ConcurrentLinkedQueue<Unmarshaller>();
+
+    /**
+     * Lazily creates the context the first time it's needed (initialization on demand holder).
+     */
+    private static final class ContextHolder
+    {
+        /** The REST model context. */
+        private static final JAXBContext CONTEXT;
+
+        static {
+            try {
+                CONTEXT = JAXBContext.newInstance(MODEL_PACKAGE);
+            } catch (JAXBException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    private JAXBUtils()
+    {
+        // Utility class.
+    }
+
+    /**
+     * @return the JAXB context of the REST model, shared by the whole process
+     */
+    public static JAXBContext getContext()
+    {
+        return ContextHolder.CONTEXT;
+    }
+
+    /**
+     * @return an idle marshaller, or a new one if the pool is empty; it must be given back with
+     *         {@link #release(Marshaller)}
+     * @throws JAXBException if the marshaller can't be created
+     */
+    public static Marshaller borrowMarshaller() throws JAXBException
+    {
+        Marshaller marshaller = MARSHALLERS.poll();
+
+        return marshaller != null ? marshaller : getContext().createMarshaller();
+    }
+
+    /**
+     * @param marshaller a marshaller obtained with {@link #borrowMarshaller()}, which must not be used anymore
+     */
+    public static void release(Marshaller marshaller)
+    {
+        MARSHALLERS.offer(marshaller);
+    }
+
+    /**
+     * @return an idle unmarshaller, or a new one if the pool is empty; it must be given back with
+     *         {@link #release(Unmarshaller)}
+     * @throws JAXBException if the unmarshaller can't be created
+     */
+    public static Unmarshaller borrowUnmarshaller() throws JAXBException
+    {
+        Unmarshaller unmarshaller = UNMARSHALLERS.poll();
+
+        return unmarshaller != null ? unmarshaller : getContext().createUnmarshaller();
+    }
+
+    /**
+     * @param unmarshaller an unmarshaller obtained with {@link #borrowUnmarshaller()}, which must not be used anymore
+     */
+    public static void release(Unmarshaller unmarshaller)
+    {
+        UNMARSHALLERS.offer(unmarshaller);
+    }
+
+    /**
+     * @param object the REST model object to serialize
+     * @param writer where to write the XML
+     * @throws JAXBException if the serialization fails
+     */
+    public static void marshal(Object object, Writer writer) throws JAXBException
+    {
+        Marshaller marshaller = borrowMarshaller();
+        try {
+            marshaller.marshal(object, writer);
+        } finally {
+            release(marshaller);
+        }
+    }
+
+    /**
+     * @param object the REST model object to serialize
+     * @return the XML
+     * @throws JAXBException if the serialization fails
+     */
+    public static String marshal(Object object) throws JAXBException
+    {
+        StringWriter writer = new StringWriter();
+        marshal(object, writer);
+
+        return writer.toString();
+    }
+
+    /**
+     * @param stream the XML to parse
+     * @param type the expected type of REST model object
+     * @param <T> the expected type of REST model object
+     * @return the parsed object
+     * @throws JAXBException if the parsing fails
+     */
+    public static <T> T unmarshal(InputStream stream, Class<T> type) throws JAXBException
+    {
+        Unmarshaller unmarshaller = borrowUnmarshaller();
+        try {
+            return type.cast(unmarshaller.unmarshal(stream));
+        } finally {
+            release(unmarshaller);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe recorder of latency samples, used by the load and benchmark tests to compute percentiles.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class LatencyRecorder
+{
+    /** The initial capacity of the sample buffer. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The number of characters of the histogram bar of a bucket holding all the samples. */
+    private static final int HISTOGRAM_WIDTH = 50;
+
+    /** The name of what is measured. */
+    private final String name;
+
+    /** The recorded samples, in nanoseconds. Only the first {@link #count} entries are used. */
+    private long[] samples = new long[INITIAL_CAPACITY];
+
+    /** The number of recorded samples. */
+    private int count;
+
+    /** The number of failed operations. */
+    private int errorCount;
+
+    /**
+     * @param name the name of what is measured
+     */
+    public LatencyRecorder(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of what is measured
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @param nanos the duration of an operation, in nanoseconds
+     */
+    public synchronized void record(long nanos)
+    {
+        if (this.count == this.samples.length) {
+            this.samples = Arrays.copyOf(this.samples, this.samples.length * 2);
+        }
+        this.samples[this.count++] = nanos;
+    }
+
+    /**
+     * Records a failed operation. Failed operations are not taken into account in the percentiles.
+     */
+    public synchronized void recordError()
+    {
+        this.errorCount++;
+    }
+
+    /**
+     * @param other the recorder whose samples to add to this one
+     */
+    public void add(LatencyRecorder other)
+    {
+        long[] otherSamples;
+        int otherErrorCount;
+        synchronized (other) {
+            otherSamples = Arrays.copyOf(other.samples, other.count);
+            otherErrorCount = other.errorCount;
+        }
+
+        synchronized (this) {
+            for (long sample : otherSamples) {
+                record(sample);
+            }
+            this.errorCount += otherErrorCount;
+        }
+    }
+
+    /**
+     * @return the number of recorded samples
+     */
+    public synchronized int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the number of failed operations
+     */
+    public synchronized int getErrorCount()
+    {
+        return this.errorCount;
+    }
+
+    /**
+     * @param percentile the percentile to compute, between 0 and 100
+     * @return the value of the given percentile, in nanoseconds, using the nearest-rank method, or 0 if nothing has
+     *         been recorded
+     */
+    public synchronized long getPercentile(double percentile)
+    {
+        if (this.count == 0) {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf(this.samples, this.count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * this.count);
+
+        return sorted[Math.min(Math.max(rank, 1), this.count) - 1];
+    }
+
+    /**
+     * @return the mean of the recorded samples, in nanoseconds, or 0 if nothing has been recorded
+     */
+    public synchronized long getMean()
+    {
+        if (this.count == 0) {
+            return 0;
+        }
+
+        long sum = 0;
+        for (int i = 0; i < this.count; i++) {
+            sum += this.samples[i];
+        }
+
+        return sum / this.count;
+    }
+
+    /**
+     * @param elapsedNanos the duration of the measurement, in nanoseconds
+     * @return the number of successful operations per second
+     */
+    public double getThroughput(long elapsedNanos)
+    {
+        return elapsedNanos <= 0 ? 0 : getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * @return a one line summary of the percentiles, in milliseconds
+     */
+    public String getSummary()
+    {
+        return String.format("%-32s count=%-8d errors=%-6d p50=%8.2fms p95=%8.2fms p99=%8.2fms", getName(),
+            getCount(), getErrorCount(), toMillis(getPercentile(50)), toMillis(getPercentile(95)),
+            toMillis(getPercentile(99)));
+    }
+
+    /**
+     * @return a text histogram of the recorded samples, using buckets of increasing powers of two milliseconds
+     */
+    public synchronized String getHistogram()
+    {
+        if (this.count == 0) {
+            return String.format("%s: no sample%n", getName());
+        }
+
+        // Bucket i holds the samples between 2^(i-1) (included) and 2^i (excluded) milliseconds.
+        int[] buckets = new int[Long.SIZE];
+        int lastBucket = 0;
+        for (int i = 0; i < this.count; i++) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(this.samples[i]);
+            int bucket = Long.SIZE - Long.numberOfLeadingZeros(millis);
+            buckets[bucket]++;
+            lastBucket = Math.max(lastBucket, bucket);
+        }
+
+        StringBuilder histogram = new StringBuilder(String.format("%s:%n", getName()));
+        for (int i = 0; i <= lastBucket; i++) {
+            long from = i == 0 ? 0 : 1L << (i - 1);
+            char[] bar = new char[(int) Math.round(HISTOGRAM_WIDTH * (double) buckets[i] / this.count)];
+            Arrays.fill(bar, '#');
+            histogram.append(String.format("%8d - %-8d ms %8d %s%n", from, 1L << i, buckets[i], new String(bar)));
+        }
+
+        return histogram.toString();
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the same duration in milliseconds
+     */
+    public static double toMillis(long nanos)
+    {
+        return nanos / 1000000.0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getSummary();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.io.IOException;
+
+import javax.ws.rs.core.UriBuilder;
+import javax.xml.bind.JAXBException;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.xwiki.rest.model.jaxb.Page;
+import org.xwiki.rest.model.jaxb.Wikis;
+import org.xwiki.rest.resources.pages.PageResource;
+import org.xwiki.rest.resources.wikis.WikisResource;
+import org.xwiki.test.integration.XWikiExecutor;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Sends requests to the REST resources of an XWiki instance through the shared {@link HttpTransport}. Unlike
+ * {@link AbstractHttpTest} it's not a test, so it can be used by any code sending REST requests, such as the load
+ * generators, and it can be used from several threads since the responses are parsed with the {@link JAXBUtils}
+ * pools.
+ *
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class RestClient
+{
+    /** The port of the XWiki instance. */
+    private final int port;
+
+    /** The media type asked in the Accept header. */
+    private final String acceptedMediaType;
+
+    /**
+     * Creates a client for the default instance, asking for XML.
+     */
+    public RestClient()
+    {
+        this(Integer.valueOf(XWikiExecutor.DEFAULT_PORT), javax.ws.rs.core.MediaType.APPLICATION_XML);
+    }
+
+    /**
+     * @param port the port of the XWiki instance
+     * @param acceptedMediaType the media type asked in the Accept header
+     */
+    public RestClient(int port, String acceptedMediaType)
+    {
+        this.port = port;
+        this.acceptedMediaType = acceptedMediaType;
+    }
+
+    /**
+     * @return the URL of the REST API of the instance, without the trailing slash
+     */
+    public String getBaseURL()
+    {
+        String baseURL =
+            TestUtils.BASE_REST_URL.replace(':' + XWikiExecutor.DEFAULT_PORT + '/', ":" + this.port + '/');
+
+        return baseURL.substring(0, baseURL.length() - 1);
+    }
+
+    /**
+     * @param resource the class of a REST resource
+     * @return a builder of the URIs of the resource
+     */
+    public UriBuilder getUriBuilder(Class< ? > resource)
+    {
+        return UriBuilder.fromUri(getBaseURL()).path(resource);
+    }
+
+    /**
+     * @param uri the URI to get
+     * @param userName the user name, {@code null} to send the request as guest
+     * @param password the password of the user
+     * @return the executed request, whose response is buffered
+     * @throws IOException if the request fails
+     */
+    public GetMethod executeGet(String uri, String userName, String password) throws IOException
+    {
+        GetMethod getMethod = new GetMethod(uri);
+        getMethod.addRequestHeader("Accept", this.acceptedMediaType);
+
+        return HttpTransport.getInstance().execute(getMethod, userName, password);
+    }
+
+    /**
+     * @param uri the URI to put
+     * @param content the content to send
+     * @param mediaType the media type of the content
+     * @param userName the user name, {@code null} to send the request as guest
+     * @param password the password of the user
+     * @return the executed request, whose response is buffered
+     * @throws IOException if the request fails
+     */
+    public PutMethod executePut(String uri, String content, String mediaType, String userName, String password)
+        throws IOException
+    {
+        PutMethod putMethod = new PutMethod(uri);
+        RequestEntity entity = new StringRequestEntity(content, mediaType, "UTF-8");
+        putMethod.setRequestEntity(entity);
+
+        return HttpTransport.getInstance().execute(putMethod, userName, password);
+    }
+
+    /**
+     * @param uri the URI to delete
+     * @param userName the user name, {@code null} to send the request as guest
+     * @param password the password of the user
+     * @return the executed request, whose response is buffered
+     * @throws IOException if the request fails
+     */
+    public DeleteMethod executeDelete(String uri, String userName, String password) throws IOException
+    {
+        DeleteMethod deleteMethod = new DeleteMethod(uri);
+
+        return HttpTransport.getInstance().execute(deleteMethod, userName, password);
+    }
+
+    /**
+     * @return the name of the first wiki of the instance, asked only once per instance
+     * @throws IOException if the request fails
+     * @throws JAXBException if the response cannot be parsed
+     */
+    public String getWiki() throws IOException, JAXBException
+    {
+        String wikiName = HttpTransport.getInstance().getWikiName(getBaseURL());
+        if (wikiName != null) {
+            return wikiName;
+        }
+
+        GetMethod getMethod = executeGet(UriBuilder.fromUri(getBaseURL()).path(WikisResource.class).toString(),
+            null, null);
+        checkStatus(getMethod, HttpStatus.SC_OK);
+        Wikis wikis = JAXBUtils.unmarshal(getMethod.getResponseBodyAsStream(), Wikis.class);
+        if (wikis.getWikis().isEmpty()) {
+            throw new IOException("No wiki found at " + getBaseURL());
+        }
+
+        wikiName = wikis.getWikis().get(0).getName();
+        HttpTransport.getInstance().setWikiName(getBaseURL(), wikiName);
+
+        return wikiName;
+    }
+
+    /**
+     * @param wikiName the wiki holding the page
+     * @param spaceName the space holding the page
+     * @param pageName the name of the page
+     * @return the content of the page
+     * @throws IOException if the request fails
+     * @throws JAXBException if the response cannot be parsed
+     */
+    public String getPageContent(String wikiName, String spaceName, String pageName)
+        throws IOException, JAXBException
+    {
+        String uri = getUriBuilder(PageResource.class).build(wikiName, spaceName, pageName).toString();
+        GetMethod getMethod = executeGet(uri, null, null);
+        checkStatus(getMethod, HttpStatus.SC_OK);
+
+        return JAXBUtils.unmarshal(getMethod.getResponseBodyAsStream(), Page.class).getContent();
+    }
+
+    /**
+     * Sets the content of a page as administrator.
+     *
+     * @param wikiName the wiki holding the page
+     * @param spaceName the space holding the page
+     * @param pageName the name of the page
+     * @param content the new content of the page
+     * @return the status code of the response, {@code 201} if the page was created, {@code 202} if it was updated
+     * @throws IOException if the request fails
+     */
+    public int setPageContent(String wikiName, String spaceName, String pageName, String content) throws IOException
+    {
+        String uri = getUriBuilder(PageResource.class).build(wikiName, spaceName, pageName).toString();
+        PutMethod putMethod =
+            executePut(uri, content, javax.ws.rs.core.MediaType.TEXT_PLAIN, TestUtils.ADMIN_CREDENTIALS.getUserName(),
+                TestUtils.ADMIN_CREDENTIALS.getPassword());
+
+        int code = putMethod.getStatusCode();
+        if (code != HttpStatus.SC_ACCEPTED && code != HttpStatus.SC_CREATED) {
+            throw new IOException("Failed to set page content, " + getHttpMethodInfo(putMethod));
+        }
+
+        return code;
+    }
+
+    /**
+     * @param method an executed request
+     * @return a description of the request and of its response status, for error messages
+     * @throws IOException if the URI of the request is invalid
+     */
+    public static String getHttpMethodInfo(HttpMethod method) throws IOException
+    {
+        return String.format("\nName: %s\nURI: %s\nStatus code: %d\nStatus text: %s", method.getName(),
+            method.getURI(), method.getStatusCode(), method.getStatusText());
+    }
+
+    /**
+     * @param method an executed request
+     * @param expected the expected status code
+     * @throws IOException if the status code of the response is not the expected one
+     */
+    private void checkStatus(HttpMethod method, int expected) throws IOException
+    {
+        if (method.getStatusCode() != expected) {
+            throw new IOException("Unexpected response, " + getHttpMethodInfo(method));
+        }
+    }
+}
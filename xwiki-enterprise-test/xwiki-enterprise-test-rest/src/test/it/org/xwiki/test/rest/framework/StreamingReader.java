@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.rest.framework;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xwiki.rest.model.jaxb.Attachment;
+import org.xwiki.rest.model.jaxb.PageSummary;
+
+/**
+ * Iterates over the elements of a large REST listing (e.g. {@code Pages} or {@code Attachments}) using StAX, only
+ * unmarshalling one element at a time instead of building the whole object tree in memory.
+ * <p>
+ * The reader must be closed once done, so that the unmarshaller it uses goes back to the pool.
+ *
+ * @param <T> the type of the listed elements
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class StreamingReader<T> implements Iterator<T>
+{
+    /** Creating the factory is costly and it's thread-safe once configured. */
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    /** The XML reader. */
+    private final XMLStreamReader reader;
+
+    /** The local name of the elements to read. */
+    private final String elementName;
+
+    /** The type of the elements to read. */
+    private final Class<T> type;
+
+    /** The unmarshaller used to read each element. */
+    private Unmarshaller unmarshaller;
+
+    /**
+     * @param stream the XML listing
+     * @param elementName the local name of the elements to read
+     * @param type the type of the elements to read
+     * @throws JAXBException if the unmarshaller can't be created
+     * @throws XMLStreamException if the stream can't be read
+     */
+    public StreamingReader(InputStream stream, String elementName, Class<T> type) throws JAXBException,
+        XMLStreamException
+    {
+        this.reader = FACTORY.createXMLStreamReader(stream);
+        this.elementName = elementName;
+        this.type = type;
+        this.unmarshaller = JAXBUtils.borrowUnmarshaller();
+    }
+
+    /**
+     * @param stream the XML representation of a {@code Pages} resource
+     * @return a reader iterating over the page summaries
+     * @throws JAXBException if the unmarshaller can't be created
+     * @throws XMLStreamException if the stream can't be read
+     */
+    public static StreamingReader<PageSummary> pageSummaries(InputStream stream) throws JAXBException,
+        XMLStreamException
+    {
+        return new StreamingReader<PageSummary>(stream, "pageSummary", PageSummary.class);
+    }
+
+    /**
+     * @param stream the XML representation of an {@code Attachments} resource
+     * @return a reader iterating over the attachments
+     * @throws JAXBException if the unmarshaller can't be created
+     * @throws XMLStreamException if the stream can't be read
+     */
+    public static StreamingReader<Attachment> attachments(InputStream stream) throws JAXBException,
+        XMLStreamException
+    {
+        return new StreamingReader<Attachment>(stream, "attachment", Attachment.class);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (this.unmarshaller == null) {
+            return false;
+        }
+
+        try {
+            // Move to the start of the next element to read, if any.
+            while (!(this.reader.getEventType() == XMLStreamConstants.START_ELEMENT && this.elementName
+                .equals(this.reader.getLocalName()))) {
+                if (!this.reader.hasNext()) {
+                    close();
+                    return false;
+                }
+                this.reader.next();
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Failed to read the listing", e);
+        }
+
+        return true;
+    }
+
+    @Override
+    public T next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            // Leaves the reader right after the end of the element.
+            return this.unmarshaller.unmarshal(this.reader, this.type).getValue();
+        } catch (JAXBException e) {
+            throw new RuntimeException(String.format("Failed to read [%s] element", this.elementName), e);
+        }
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Releases the resources used by this reader. It's called automatically once the end of the listing is reached.
+     */
+    public void close()
+    {
+        if (this.unmarshaller != null) {
+            JAXBUtils.release(this.unmarshaller);
+            this.unmarshaller = null;
+            try {
+                this.reader.close();
+            } catch (XMLStreamException e) {
+                // Nothing more to read anyway.
+            }
+        }
+    }
+}
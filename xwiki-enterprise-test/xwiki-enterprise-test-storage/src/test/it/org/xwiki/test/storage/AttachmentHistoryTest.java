@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+import org.xwiki.test.storage.profiles.Profile;
+
+/**
+ * Creates an attachment with a long revision history (100 revisions by default, 1000 with the {@code benchmarks}
+ * profile, configured with the {@code xwiki.test.storage.attachmentRevisions} System Property) and measures, with an
+ * empty document cache, the cost of listing its versions, of loading an old revision, of downloading the latest
+ * revision and of rolling the document back. The measures of each configuration profile are added to the storage
+ * benchmark table.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class AttachmentHistoryTest extends AbstractTest
+{
+    private static final String SPACE = "Test";
+
+    private static final String PAGE = "AttachmentHistory";
+
+    private static final String SCRIPT_PAGE = "AttachmentHistoryScript";
+
+    private static final String FILENAME = "history.txt";
+
+    private static final int REVISIONS = Integer.getInteger("xwiki.test.storage.attachmentRevisions", 100);
+
+    /** The number of revisions created by each request. */
+    private static final int BATCH = 100;
+
+    private static final String FLUSH_CACHE = "{{groovy}}xwiki.flushCache(){{/groovy}}";
+
+    @Test
+    public void testLongAttachmentHistory() throws Exception
+    {
+        Profile profile = ForEachProfileSuite.getCurrentProfile();
+        String profileName = profile != null ? profile.getClass().getSimpleName() : "None";
+
+        // Delete the document if it exists.
+        doPostAsAdmin(SPACE, PAGE, null, "delete", "confirm=1", null);
+
+        // Each revision of the attachment is a new version of the document.
+        for (int from = 1; from <= REVISIONS; from += BATCH) {
+            int to = Math.min(from + BATCH - 1, REVISIONS);
+            preview("{{groovy}}\n"
+                + "for (i in " + from + ".." + to + ") {\n"
+                + "  def document = xwiki.getDocument('" + SPACE + '.' + PAGE + "')\n"
+                + "  document.addAttachment('" + FILENAME + "', ('Content of revision ' + i).getBytes('UTF-8'))\n"
+                + "  document.saveAsAuthor()\n"
+                + "}\n"
+                + "{{/groovy}}");
+        }
+
+        // Measure from within the wiki to leave the rendering out. Each upload increments the minor version.
+        String version = "1." + (REVISIONS / 2);
+        preview(FLUSH_CACHE);
+        String result = preview("{{groovy}}\n"
+            + "def start = System.nanoTime()\n"
+            + "def attachment = xwiki.getDocument('" + SPACE + '.' + PAGE + "').getAttachment('" + FILENAME + "')\n"
+            + "def count = attachment.getVersions().size()\n"
+            + "def versions = System.nanoTime() - start\n"
+            + "start = System.nanoTime()\n"
+            + "def revisionAttachment = attachment.getAttachmentRevision('" + version + "')\n"
+            + "if (revisionAttachment == null) {\n"
+            + "  println('Missing revision')\n"
+            + "  return\n"
+            + "}\n"
+            + "def content = revisionAttachment.getContentAsString()\n"
+            + "def revision = System.nanoTime() - start\n"
+            + "println(\"count=${count} versions=${versions} revision=${revision} content=${content}\")\n"
+            + "{{/groovy}}");
+        Assert.assertFalse("Revision [" + version + "] of the attachment not found",
+            result.contains("Missing revision"));
+        Matcher matcher =
+            Pattern.compile("count=(\\d+) versions=(\\d+) revision=(\\d+) content=(.*)</p>").matcher(result);
+        Assert.assertTrue("Unexpected result: " + result, matcher.find());
+        Assert.assertEquals(REVISIONS, Integer.parseInt(matcher.group(1)));
+        Assert.assertEquals("Content of revision " + (REVISIONS / 2), matcher.group(4));
+        put(profileName, "getVersions()", Long.parseLong(matcher.group(2)));
+        put(profileName, "getAttachmentRevision()", Long.parseLong(matcher.group(3)));
+
+        preview(FLUSH_CACHE);
+        long start = System.nanoTime();
+        HttpMethod ret = doPostAsAdmin(SPACE, PAGE, FILENAME, "download", null, null);
+        put(profileName, "Download latest revision", System.nanoTime() - start);
+        Assert.assertEquals("Content of revision " + REVISIONS, new String(ret.getResponseBody(), "UTF-8"));
+
+        preview(FLUSH_CACHE);
+        start = System.nanoTime();
+        ret = doPostAsAdmin(SPACE, PAGE, null, "rollback", "rev=1.1&confirm=1", null);
+        put(profileName, "Rollback to the first revision", System.nanoTime() - start);
+        // The rollback redirects to the document once done.
+        Assert.assertEquals(302, ret.getStatusCode());
+        ret = doPostAsAdmin(SPACE, PAGE, FILENAME, "download", null, null);
+        Assert.assertEquals(200, ret.getStatusCode());
+        Assert.assertEquals("Content of revision 1", new String(ret.getResponseBody(), "UTF-8"));
+
+        BenchmarkTable.write("storage-benchmark.txt");
+    }
+
+    private String preview(String content) throws Exception
+    {
+        HttpMethod ret = doPostAsAdmin(SPACE, SCRIPT_PAGE, null, "preview", "xpage=plain",
+            Collections.singletonMap("content", content));
+        Assert.assertEquals(200, ret.getStatusCode());
+
+        return ret.getResponseBodyAsString();
+    }
+
+    private void put(String profileName, String measure, long nanos)
+    {
+        BenchmarkTable.put(profileName, String.format("%s, %d revisions (ms)", measure, REVISIONS),
+            String.format("%.1f", nanos / 1000000.0));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.rest.framework.GeneratedInputStream;
+import org.xwiki.test.rest.framework.HeapSampler;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.framework.InputStreamPartSource;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+
+/**
+ * Tests the conditional ({@code If-None-Match}, {@code If-Modified-Since}) and partial ({@code Range}) downloads of
+ * attachments through the REST API, and measures the CPU used by the server to download attachments: a
+ * {@code xwiki.test.storage.download.size} MB attachment is downloaded until {@code xwiki.test.storage.download.total}
+ * MB are transferred. That's 5MB until 50MB by default, and 100MB until 1GB with the {@code benchmarks} profile.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class AttachmentRangeTest extends AbstractTest
+{
+    private static final String SPACE = "Test";
+
+    private static final String PAGE = "AttachmentRange";
+
+    private static final String FILENAME = "range.bin";
+
+    private static final String LARGE_FILENAME = "download.bin";
+
+    private static final String RANGE = "Range";
+
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final String ETAG = "ETag";
+
+    private static final long MB = 1024 * 1024;
+
+    private static final long GB = 1024 * MB;
+
+    private static final long SIZE = Long.getLong("xwiki.test.storage.download.size", 5) * MB;
+
+    private static final long TOTAL = Long.getLong("xwiki.test.storage.download.total", 50) * MB;
+
+    private static final byte[] CONTENT = new byte[10000];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @Test
+    public void testPartialContent() throws Exception
+    {
+        upload(CONTENT);
+
+        assertRange("bytes=100-199", "bytes 100-199/10000", 100, 200);
+        assertRange("bytes=9990-", "bytes 9990-9999/10000", 9990, 10000);
+        assertRange("bytes=-50", "bytes 9950-9999/10000", 9950, 10000);
+        assertRange("bytes=9000-20000", "bytes 9000-9999/10000", 9000, 10000);
+
+        HttpMethod ret = get(Collections.singletonMap(RANGE, "bytes=20000-"));
+        Assert.assertEquals(416, ret.getStatusCode());
+        Assert.assertEquals("bytes */10000", ret.getResponseHeader(CONTENT_RANGE).getValue());
+
+        // Several ranges and outdated If-Range are answered with the whole attachment.
+        assertFullContent(get(Collections.singletonMap(RANGE, "bytes=0-9,20-29")));
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(RANGE, "bytes=0-9");
+        headers.put("If-Range", "\"outdated\"");
+        assertFullContent(get(headers));
+
+        // A matching If-Range is taken into account.
+        headers.put("If-Range", get(null).getResponseHeader(ETAG).getValue());
+        Assert.assertEquals(206, get(headers).getStatusCode());
+    }
+
+    @Test
+    public void testNotModified() throws Exception
+    {
+        upload(CONTENT);
+
+        HttpMethod ret = get(null);
+        assertFullContent(ret);
+        Assert.assertEquals("bytes", ret.getResponseHeader("Accept-Ranges").getValue());
+        String etag = ret.getResponseHeader(ETAG).getValue();
+        String lastModified = ret.getResponseHeader("Last-Modified").getValue();
+
+        ret = get(Collections.singletonMap("If-None-Match", etag));
+        Assert.assertEquals(304, ret.getStatusCode());
+        Assert.assertNull(ret.getResponseBody());
+
+        ret = get(Collections.singletonMap("If-Modified-Since", lastModified));
+        Assert.assertEquals(304, ret.getStatusCode());
+
+        // A new version of the attachment gets a new entity tag.
+        byte[] newContent = Arrays.copyOf(CONTENT, CONTENT.length / 2);
+        upload(newContent);
+        ret = get(Collections.singletonMap("If-None-Match", etag));
+        Assert.assertEquals(200, ret.getStatusCode());
+        Assert.assertArrayEquals(newContent, ret.getResponseBody());
+    }
+
+    @Test
+    public void testDownloadCPUPerGB() throws Exception
+    {
+        // Allow the upload.
+        doPostAsAdmin(SPACE, "AttachmentRangeScript", null, "preview", "xpage=plain",
+            Collections.singletonMap("content", "{{groovy}}\n"
+                + "def preferences = xwiki.getDocument('XWiki.XWikiPreferences')\n"
+                + "preferences.getObject('XWiki.XWikiPreferences').set('upload_maxsize', " + (SIZE + 10 * MB)
+                + "L)\npreferences.saveAsAuthor()\n{{/groovy}}"));
+
+        HttpMethod ret = doUploadAsAdmin(SPACE, PAGE, Collections.<PartSource>singletonList(
+            new InputStreamPartSource(LARGE_FILENAME, new GeneratedInputStream(SIZE, SIZE), SIZE)));
+        Assert.assertTrue(ret.getStatusCode() < 400);
+
+        String profileName = ForEachProfileSuite.getCurrentProfile().getClass().getSimpleName();
+        HeapSampler sampler = new HeapSampler(getRMIPort());
+        try {
+            // Warm up.
+            download(null);
+
+            long downloaded = 0;
+            long cpuTime = sampler.getProcessCpuTime();
+            while (downloaded < TOTAL) {
+                downloaded += download(null);
+            }
+            cpuTime = sampler.getProcessCpuTime() - cpuTime;
+            BenchmarkTable.put(profileName, "Download CPU per GB (ms)",
+                String.format("%.1f", cpuTime / 1000000.0 * GB / downloaded));
+
+            // Reading the last MB should not cost reading the whole attachment.
+            long start = System.nanoTime();
+            Assert.assertEquals(MB, download(Collections.singletonMap(RANGE, "bytes=-" + MB)));
+            BenchmarkTable.put(profileName, "Download last MB (ms)",
+                String.format("%.1f", (System.nanoTime() - start) / 1000000.0));
+        } finally {
+            sampler.close();
+        }
+
+        doPostAsAdmin(SPACE, PAGE, LARGE_FILENAME, "delattachment", null, null);
+        BenchmarkTable.write("storage-benchmark.txt");
+    }
+
+    private void upload(byte[] content) throws Exception
+    {
+        HttpMethod ret = doUploadAsAdmin(SPACE, PAGE, Collections.singletonMap(FILENAME, content));
+        Assert.assertTrue(ret.getStatusCode() < 400);
+    }
+
+    private HttpMethod get(Map<String, String> headers) throws Exception
+    {
+        HttpMethod ret = doGetAttachmentAsAdmin(SPACE, PAGE, FILENAME, headers);
+        try {
+            ret.getResponseBody();
+        } finally {
+            ret.releaseConnection();
+        }
+
+        return ret;
+    }
+
+    private void assertRange(String range, String contentRange, int from, int to) throws Exception
+    {
+        HttpMethod ret = get(Collections.singletonMap(RANGE, range));
+        Assert.assertEquals(206, ret.getStatusCode());
+        Assert.assertEquals(contentRange, ret.getResponseHeader(CONTENT_RANGE).getValue());
+        Assert.assertArrayEquals(Arrays.copyOfRange(CONTENT, from, to), ret.getResponseBody());
+    }
+
+    private void assertFullContent(HttpMethod ret) throws Exception
+    {
+        Assert.assertEquals(200, ret.getStatusCode());
+        Assert.assertArrayEquals(CONTENT, ret.getResponseBody());
+    }
+
+    /**
+     * @return the number of bytes downloaded
+     */
+    private long download(Map<String, String> headers) throws Exception
+    {
+        HttpMethod ret = doGetAttachmentAsAdmin(SPACE, PAGE, LARGE_FILENAME, headers);
+        try {
+            Assert.assertTrue(ret.getStatusCode() < 300);
+            InputStream stream = ret.getResponseBodyAsStream();
+            byte[] buffer = new byte[64 * 1024];
+            long count = 0;
+            for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+                count += read;
+            }
+
+            return count;
+        } finally {
+            ret.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.profiles.CompressedAttachmentStorageProfile;
+import org.xwiki.test.storage.profiles.DefaultProfile;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+import org.xwiki.test.storage.profiles.Profile;
+
+/**
+ * Saves two revisions of CSV attachments and compares the disk usage and the read latency of the profiles storing the
+ * attachments on the filesystem, to measure the effect of the {@link CompressedAttachmentStorageProfile}. The sizes of
+ * the attachments are configured in MB with the {@code xwiki.test.storage.compression.sizes} System Property, e.g.
+ * {@code 1,10} (the default).
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class CompressionBenchmarkTest extends AbstractTest
+{
+    private static final String SPACE = "Test";
+
+    private static final String PAGE = "Compression";
+
+    private static final String STORAGE = "storage";
+
+    private static final int MB = 1024 * 1024;
+
+    private static final String[] SIZES = System.getProperty("xwiki.test.storage.compression.sizes", "1,10").split(",");
+
+    private static final int READS = 10;
+
+    @Test
+    public void testTextAttachments() throws Exception
+    {
+        Profile profile = ForEachProfileSuite.getCurrentProfile();
+        // The default profile stores the attachments in the database.
+        Assume.assumeFalse(profile instanceof DefaultProfile);
+
+        doPostAsAdmin(SPACE, PAGE, null, "save", null, null);
+
+        String profileName = profile.getClass().getSimpleName();
+        for (String sizeValue : SIZES) {
+            int size = Integer.parseInt(sizeValue.trim()) * MB;
+            String filename = String.format("data-%dMB.csv", size / MB);
+            byte[] firstRevision = generateCSV(size, 0);
+            byte[] secondRevision = generateCSV(size, 1);
+
+            long before = getDiskUsage(STORAGE);
+            upload(filename, firstRevision);
+            upload(filename, secondRevision);
+            long growth = getDiskUsage(STORAGE) - before;
+
+            LatencyRecorder recorder = new LatencyRecorder(filename);
+            for (int i = 0; i < READS; i++) {
+                long start = System.nanoTime();
+                HttpMethod ret = doPostAsAdmin(SPACE, PAGE, filename, "download", null, null);
+                recorder.record(System.nanoTime() - start);
+                Assert.assertArrayEquals(secondRevision, ret.getResponseBody());
+            }
+
+            // The previous revision is read back from the history.
+            Assert.assertEquals(String.valueOf(firstRevision.length), preview("{{velocity}}$xwiki.getDocument('"
+                + SPACE + '.' + PAGE + "').getAttachment('" + filename
+                + "').getAttachmentRevision('1.1').getContentAsBytes().size(){{/velocity}}"));
+
+            String measure = String.format("CSV %dMB, 2 revisions", size / MB);
+            BenchmarkTable.put(profileName, measure + " disk usage (MB)", String.format("%.2f", growth / (double) MB));
+            BenchmarkTable.put(profileName, measure + " read p50 (ms)",
+                String.format("%.2f", LatencyRecorder.toMillis(recorder.getPercentile(50))));
+
+            if (profile instanceof CompressedAttachmentStorageProfile) {
+                Assert.assertTrue(String.format("Two revisions of [%s] use %d bytes on disk", filename, growth),
+                    growth < size);
+            }
+
+            doPostAsAdmin(SPACE, PAGE, filename, "delattachment", null, null);
+        }
+
+        BenchmarkTable.write("storage-benchmark.txt");
+    }
+
+    /**
+     * @param size the size of the content
+     * @param revision the revision, which changes a column of every line
+     * @return the CSV content, compressible like real tabular data
+     */
+    private byte[] generateCSV(int size, int revision) throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size);
+        for (int i = 0;; i++) {
+            byte[] line = String.format("%d,item-%d,%s,%d.%02d,2013-%02d-%02d%n", i, i % 5000,
+                i % 3 == 0 ? "open" : "closed", (i * 7919 + revision) % 10000, i % 100, i % 12 + 1, i % 28 + 1)
+                .getBytes("US-ASCII");
+            if (output.size() + line.length > size) {
+                return output.toByteArray();
+            }
+            output.write(line);
+        }
+    }
+
+    private void upload(String filename, byte[] content) throws Exception
+    {
+        HttpMethod ret = doUploadAsAdmin(SPACE, PAGE, Collections.singletonMap(filename, content));
+        Assert.assertTrue(ret.getStatusCode() < 400);
+    }
+
+    private String preview(String content) throws Exception
+    {
+        HttpMethod ret = doPostAsAdmin(SPACE, "CompressionScript", null, "preview", "xpage=plain",
+            Collections.singletonMap("content", content));
+        Assert.assertEquals(200, ret.getStatusCode());
+
+        return ret.getResponseBodyAsString().replaceAll("</?p>", "").trim();
+    }
+}
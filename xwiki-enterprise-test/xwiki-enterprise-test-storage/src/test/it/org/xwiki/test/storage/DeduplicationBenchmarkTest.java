@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.xwiki.test.rest.framework.GeneratedInputStream;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.framework.InputStreamPartSource;
+import org.xwiki.test.storage.profiles.DeduplicatingAttachmentStorageProfile;
+import org.xwiki.test.storage.profiles.FilesystemAttachmentStorageProfile;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+import org.xwiki.test.storage.profiles.Profile;
+
+/**
+ * Attaches the same file to many pages and compares the disk usage and the write throughput of the deduplicating
+ * attachment store with the plain filesystem store. The number of pages is configured with the
+ * {@code xwiki.test.storage.dedup.copies} System Property (20 by default) and the size of the file in MB with
+ * {@code xwiki.test.storage.dedup.size} (5 by default).
+ * <p>
+ * Only runs with the {@link FilesystemAttachmentStorageProfile} and the {@link DeduplicatingAttachmentStorageProfile}
+ * since the default profile stores the attachments in the database.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class DeduplicationBenchmarkTest extends AbstractTest
+{
+    private static final String SPACE = "Dedup";
+
+    private static final String FILENAME = "shared.bin";
+
+    private static final long MB = 1024 * 1024;
+
+    private static final int COPIES = Integer.getInteger("xwiki.test.storage.dedup.copies", 20);
+
+    private static final long SIZE = Long.getLong("xwiki.test.storage.dedup.size", 5) * MB;
+
+    private static final String STORAGE = "storage";
+
+    private static final String CONTENTS = "storage/~dedup/contents";
+
+    @Test
+    public void testSameAttachmentOnManyPages() throws Exception
+    {
+        Profile profile = ForEachProfileSuite.getCurrentProfile();
+        boolean deduplicating = profile instanceof DeduplicatingAttachmentStorageProfile;
+        Assume.assumeTrue(deduplicating || profile instanceof FilesystemAttachmentStorageProfile);
+
+        for (int i = 0; i < COPIES; i++) {
+            doPostAsAdmin(SPACE, getPage(i), null, "save", null, null);
+        }
+
+        long storageBefore = getDiskUsage(STORAGE);
+        long contentsBefore = getDiskUsage(CONTENTS);
+        long start = System.nanoTime();
+        for (int i = 0; i < COPIES; i++) {
+            HttpMethod ret = doUploadAsAdmin(SPACE, getPage(i), Collections.<PartSource>singletonList(
+                new InputStreamPartSource(FILENAME, new GeneratedInputStream(SIZE, SIZE), SIZE)));
+            Assert.assertTrue(ret.getStatusCode() < 400);
+        }
+        long duration = System.nanoTime() - start;
+        long storageAfter = getDiskUsage(STORAGE);
+        long contentsAfter = getDiskUsage(CONTENTS);
+
+        String profileName = profile.getClass().getSimpleName();
+        String measure = String.format("Same %dMB file on %d pages", SIZE / MB, COPIES);
+        BenchmarkTable.put(profileName, measure + " disk usage (MB)",
+            String.format("%.1f", (storageAfter - storageBefore) / (double) MB));
+        BenchmarkTable.put(profileName, measure + " (MB/s)",
+            String.format("%.1f", COPIES * SIZE / (double) MB / (duration / 1000000000.0)));
+
+        if (deduplicating) {
+            Assert.assertEquals("The content should be stored once", SIZE, contentsAfter - contentsBefore, MB);
+        }
+
+        // The other pages keep their attachment when it is deleted from one of them.
+        doPostAsAdmin(SPACE, getPage(0), FILENAME, "delattachment", null, null);
+        Assert.assertEquals(SIZE, download(getPage(1)));
+
+        for (int i = 1; i < COPIES; i++) {
+            doPostAsAdmin(SPACE, getPage(i), FILENAME, "delattachment", null, null);
+        }
+        if (deduplicating) {
+            Assert.assertEquals("The content should be deleted with its last attachment", contentsBefore,
+                getDiskUsage(CONTENTS));
+        }
+
+        BenchmarkTable.write("storage-benchmark.txt");
+    }
+
+    private String getPage(int i)
+    {
+        return "Page" + i;
+    }
+
+    /**
+     * @return the number of bytes downloaded
+     */
+    private long download(String page) throws Exception
+    {
+        HttpMethod ret = doGetAttachmentAsAdmin(SPACE, page, FILENAME, null);
+        try {
+            Assert.assertEquals(200, ret.getStatusCode());
+            InputStream stream = ret.getResponseBodyAsStream();
+            byte[] buffer = new byte[64 * 1024];
+            long count = 0;
+            for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+                count += read;
+            }
+
+            return count;
+        } finally {
+            ret.releaseConnection();
+        }
+    }
+}
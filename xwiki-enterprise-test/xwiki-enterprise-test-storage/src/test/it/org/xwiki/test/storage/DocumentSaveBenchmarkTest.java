@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.lang.RandomStringUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.xwiki.test.rest.framework.HeapSampler;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.profiles.DefaultProfile;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+import org.xwiki.test.storage.profiles.Profile;
+
+/**
+ * Saves documents of increasing sizes holding an increasing number of objects through the {@code save} action and
+ * records the save latency, how much the document archive grows with each save and how much memory the server
+ * allocates. The objects are created by a script beforehand since the {@code save} action of this version can only
+ * update existing objects; the measured saves then only change the content, but still have to store all the objects.
+ * <p>
+ * The content sizes (in KB) and the numbers of objects are configured with the
+ * {@code xwiki.test.storage.benchmark.documentSizes} and {@code xwiki.test.storage.benchmark.objects} System
+ * Properties, comma separated. They are kept small by default and raised up to 50000 KB and 10000 objects by the
+ * {@code benchmarks} profile. Documents don't depend on the attachment storage so the benchmark only runs with the
+ * {@link DefaultProfile}.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class DocumentSaveBenchmarkTest extends AbstractTest
+{
+    private static final String SPACE = "SaveBenchmark";
+
+    private static final String SCRIPT_PAGE = "Script";
+
+    private static final String[] SIZES =
+        System.getProperty("xwiki.test.storage.benchmark.documentSizes", "1,10").split(",");
+
+    private static final String[] OBJECTS =
+        System.getProperty("xwiki.test.storage.benchmark.objects", "0,10").split(",");
+
+    /** The number of measured saves of each document. */
+    private static final int REPEAT = 3;
+
+    private static final String LINE_FORMAT = "%10s %8s %8s %12s %16s %16s %14s%n";
+
+    private static final double MB = 1024 * 1024;
+
+    @Test
+    public void testSaveCosts() throws Exception
+    {
+        Profile profile = ForEachProfileSuite.getCurrentProfile();
+        Assume.assumeTrue(profile == null || profile instanceof DefaultProfile);
+
+        StringBuilder report = new StringBuilder(String.format(LINE_FORMAT, "Size (KB)", "Objects", "Status",
+            "p50 (ms)", "Archive (KB/save)", "Allocated (MB/save)", "Alloc. (MB/s)"));
+        HeapSampler sampler = new HeapSampler(getRMIPort());
+        try {
+            for (String objects : OBJECTS) {
+                for (String size : SIZES) {
+                    report.append(measure(sampler, Integer.parseInt(size.trim()), Integer.parseInt(objects.trim())));
+                }
+            }
+        } finally {
+            sampler.close();
+        }
+
+        BenchmarkTable.writeReport("storage-document-save.txt", report.toString());
+    }
+
+    private String measure(HeapSampler sampler, int size, int objects) throws Exception
+    {
+        String pageName = String.format("Document%dKB%dObjects", size, objects);
+        String fullName = SPACE + '.' + pageName;
+
+        // Create the document and its objects.
+        doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+        preview("{{groovy}}\n"
+            + "def document = xwiki.getDocument('" + fullName + "')\n"
+            + "for (i in 0..<" + objects + ") {\n"
+            + "  document.newObject('XWiki.XWikiComments').set('comment', 'Comment ' + i)\n"
+            + "}\n"
+            + "document.saveAsAuthor()\n"
+            + "{{/groovy}}");
+        long archiveSize = getArchiveSize(fullName);
+
+        LatencyRecorder recorder = new LatencyRecorder(pageName);
+        int status = 0;
+        long allocated = sampler.getAllocatedBytes();
+        long elapsed = 0;
+        for (int i = 0; i < REPEAT; i++) {
+            // Different content for each save so that the archive stores a real change.
+            String content = RandomStringUtils.randomAlphanumeric(size * 1024);
+
+            long start = System.nanoTime();
+            HttpMethod ret = doPostAsAdmin(SPACE, pageName, null, "save", null,
+                Collections.singletonMap("content", content));
+            long duration = System.nanoTime() - start;
+            status = ret.getStatusCode();
+            if (status != 302) {
+                // Too big to be saved, no need to insist.
+                break;
+            }
+            recorder.record(duration);
+            elapsed += duration;
+        }
+        allocated = allocated < 0 ? -1 : sampler.getAllocatedBytes() - allocated;
+
+        int saves = recorder.getCount();
+        if (saves == 0) {
+            return String.format(LINE_FORMAT, size, objects, status, "-", "-", "-", "-");
+        }
+        long archiveGrowth = (getArchiveSize(fullName) - archiveSize) / saves;
+
+        return String.format(LINE_FORMAT, size, objects, status,
+            String.format("%.1f", LatencyRecorder.toMillis(recorder.getPercentile(50))),
+            String.format("%.1f", archiveGrowth / 1024.0),
+            allocated < 0 ? "n/a" : String.format("%.1f", allocated / MB / saves),
+            allocated < 0 ? "n/a" : String.format("%.1f", allocated / MB / (elapsed / 1000000000.0)));
+    }
+
+    private long getArchiveSize(String fullName) throws Exception
+    {
+        String result = preview("{{groovy}}\n"
+            + "def document = xwiki.getDocument('" + fullName + "').document\n"
+            + "def archive = document.getDocumentArchive(xcontext.context).getArchive(xcontext.context)\n"
+            + "println('archive=' + archive.length())\n"
+            + "{{/groovy}}");
+        Matcher matcher = Pattern.compile("archive=(\\d+)").matcher(result);
+        Assert.assertTrue("Unexpected result: " + result, matcher.find());
+
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private String preview(String content) throws Exception
+    {
+        HttpMethod ret = doPostAsAdmin(SPACE, SCRIPT_PAGE, null, "preview", "xpage=plain",
+            Collections.singletonMap("content", content));
+        Assert.assertEquals(200, ret.getStatusCode());
+
+        return ret.getResponseBodyAsString();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.Collections;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.profiles.DefaultProfile;
+import org.xwiki.test.storage.profiles.FilesystemAttachmentStorageProfile;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+import org.xwiki.test.storage.profiles.Profile;
+
+/**
+ * Fills the recycle bins with many deleted documents and attachments, then measures how long it takes to list them
+ * and to restore a document, and purges them with the {@code recyclebinpurge} script service while measuring the
+ * latency of the page views. The number of deleted documents (each with one deleted attachment) is configured with
+ * the {@code xwiki.test.storage.recyclebin.items} System Property (1000 by default, 100000 with the
+ * {@code benchmarks} profile).
+ * <p>
+ * Only runs with the {@link DefaultProfile}, which keeps the deleted attachments in the database, and the
+ * {@link FilesystemAttachmentStorageProfile}, which keeps them on the filesystem.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class RecycleBinTest extends AbstractTest
+{
+    private static final String SPACE = "RecycleBin";
+
+    private static final String SCRIPT_PAGE = "Script";
+
+    private static final String FILENAME = "deleted.txt";
+
+    private static final int ITEMS = Integer.getInteger("xwiki.test.storage.recyclebin.items", 1000);
+
+    /** The number of documents created and deleted by each script. */
+    private static final int BATCH = 500;
+
+    /** The number of measured listings and restores. */
+    private static final int REPEAT = 10;
+
+    /** The first page of the recycle bin, as listed by the trash page. */
+    private static final String LIST_DOCUMENTS =
+        "select doc.fullName, doc.date from XWikiDeletedDocument as doc order by doc.date desc";
+
+    private static final String COUNT_DOCUMENTS = "select count(*) from XWikiDeletedDocument as doc";
+
+    private String profileName;
+
+    @Test
+    public void testLargeRecycleBin() throws Exception
+    {
+        Profile profile = ForEachProfileSuite.getCurrentProfile();
+        Assume.assumeTrue(profile == null || profile instanceof DefaultProfile
+            || profile instanceof FilesystemAttachmentStorageProfile);
+        this.profileName = profile == null ? "Default" : profile.getClass().getSimpleName();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITEMS; i += BATCH) {
+            deleteDocuments(i, Math.min(i + BATCH, ITEMS));
+        }
+        put(String.format("Delete %d documents and attachments (s)", ITEMS),
+            String.format("%.1f", (System.nanoTime() - start) / 1000000000.0));
+        Assert.assertTrue(count(COUNT_DOCUMENTS) >= ITEMS);
+
+        putLatency("List the deleted documents", measureQuery(LIST_DOCUMENTS, 50));
+        putLatency("Count the deleted documents", measureQuery(COUNT_DOCUMENTS, 0));
+        putLatency("Trash page", measureView("Main", "AllDocs", "view=deletedDocs"));
+        putLatency("Deleted attachments page", measureView("Main", "AllDocs", "view=deletedAttachments"));
+        putLatency("List the deleted attachments of a document", measureDeletedAttachments());
+        putLatency("Restore a document", measureRestore());
+
+        measurePurge(profile instanceof FilesystemAttachmentStorageProfile);
+
+        BenchmarkTable.write("storage-benchmark.txt");
+    }
+
+    /**
+     * Creates the documents of the given range, each with an attachment, then deletes the attachment and the document
+     * so that both end in the recycle bins.
+     */
+    private void deleteDocuments(int from, int to) throws Exception
+    {
+        String result = preview("{{groovy}}\n"
+            + "def context = xcontext.context\n"
+            + "for (i in " + from + "..<" + to + ") {\n"
+            + "  def document = xwiki.getDocument('" + SPACE + ".Document' + i)\n"
+            + "  document.addAttachment('" + FILENAME + "', ('Attachment ' + i).getBytes())\n"
+            + "  document.saveAsAuthor()\n"
+            + "  def deleted = document.document\n"
+            + "  deleted.deleteAttachment(deleted.getAttachment('" + FILENAME + "'), context)\n"
+            + "  xwiki.getXWiki().deleteDocument(deleted, true, context)\n"
+            + "}\n"
+            + "print('done')\n"
+            + "{{/groovy}}");
+        Assert.assertEquals("Unexpected result: " + result, "done", result);
+    }
+
+    /**
+     * @return the latency of the given query, as measured on the server
+     */
+    private LatencyRecorder measureQuery(String query, int limit) throws Exception
+    {
+        LatencyRecorder recorder = new LatencyRecorder(query);
+        for (int i = 0; i < REPEAT; i++) {
+            String result = preview("{{groovy}}\n"
+                + "def start = System.nanoTime()\n"
+                + "xwiki.getXWiki().getStore().search('" + query + "', " + limit + ", 0, xcontext.context)\n"
+                + "print(System.nanoTime() - start)\n"
+                + "{{/groovy}}");
+            recorder.record(Long.parseLong(result));
+        }
+
+        return recorder;
+    }
+
+    private LatencyRecorder measureView(String space, String page, String query) throws Exception
+    {
+        LatencyRecorder recorder = new LatencyRecorder(space + '.' + page);
+        for (int i = 0; i < REPEAT; i++) {
+            long start = System.nanoTime();
+            HttpMethod ret = doPostAsAdmin(space, page, null, "view", query, null);
+            long duration = System.nanoTime() - start;
+            Assert.assertEquals(200, ret.getStatusCode());
+            recorder.record(duration);
+        }
+
+        return recorder;
+    }
+
+    private LatencyRecorder measureDeletedAttachments() throws Exception
+    {
+        LatencyRecorder recorder = new LatencyRecorder("deleted attachments");
+        for (int i = 0; i < REPEAT; i++) {
+            String fullName = SPACE + ".Document" + i * (ITEMS / REPEAT);
+            String result = preview("{{groovy}}\n"
+                + "def start = System.nanoTime()\n"
+                + "def count = xwiki.getDeletedAttachments('" + fullName + "').size()\n"
+                + "print((count > 0 ? System.nanoTime() - start : -1))\n"
+                + "{{/groovy}}");
+            long duration = Long.parseLong(result);
+            Assert.assertTrue("The attachment should be in the recycle bin", duration >= 0);
+            recorder.record(duration);
+        }
+
+        return recorder;
+    }
+
+    /**
+     * Restores documents spread over the recycle bin through the {@code undelete} action, as the trash page does.
+     */
+    private LatencyRecorder measureRestore() throws Exception
+    {
+        LatencyRecorder recorder = new LatencyRecorder("restore");
+        for (int i = 0; i < REPEAT; i++) {
+            String page = "Document" + (i * (ITEMS / REPEAT) + 1);
+            String id = preview("{{groovy}}print(xwiki.getDeletedDocuments('" + SPACE + '.' + page
+                + "', '')[0].getId()){{/groovy}}");
+
+            long start = System.nanoTime();
+            HttpMethod ret = doPostAsAdmin(SPACE, page, null, "undelete", "id=" + id, null);
+            long duration = System.nanoTime() - start;
+            Assert.assertTrue(ret.getStatusCode() < 400);
+            Assert.assertEquals("true", preview("{{groovy}}print(xwiki.exists('" + SPACE + '.' + page
+                + "')){{/groovy}}"));
+            recorder.record(duration);
+        }
+
+        return recorder;
+    }
+
+    /**
+     * Purges the whole recycle bin while another thread keeps viewing a page, to check that the purge doesn't block
+     * the wiki.
+     */
+    private void measurePurge(boolean attachmentsOnFilesystem) throws Exception
+    {
+        final LatencyRecorder views = new LatencyRecorder("views during purge");
+        final boolean[] purging = new boolean[] {true};
+        Thread reader = new Thread("Page views")
+        {
+            @Override
+            public void run()
+            {
+                while (isPurging()) {
+                    try {
+                        long start = System.nanoTime();
+                        HttpMethod ret = doPostAsAdmin("Main", "WebHome", null, "view", null, null);
+                        if (ret.getStatusCode() == 200) {
+                            views.record(System.nanoTime() - start);
+                        } else {
+                            views.recordError();
+                        }
+                    } catch (Exception e) {
+                        views.recordError();
+                    }
+                }
+            }
+
+            private boolean isPurging()
+            {
+                synchronized (purging) {
+                    return purging[0];
+                }
+            }
+        };
+        reader.start();
+
+        long start = System.nanoTime();
+        String result;
+        try {
+            result = preview("{{groovy}}print(services.recyclebinpurge.purge(0)){{/groovy}}");
+        } finally {
+            synchronized (purging) {
+                purging[0] = false;
+            }
+            reader.join();
+        }
+        long duration = System.nanoTime() - start;
+
+        long purged = Long.parseLong(result);
+        long restored = REPEAT;
+        Assert.assertTrue("Purged " + result, purged >= (attachmentsOnFilesystem ? ITEMS : 2 * ITEMS) - restored);
+        Assert.assertEquals(0, count(COUNT_DOCUMENTS));
+        if (!attachmentsOnFilesystem) {
+            Assert.assertEquals(0, count("select count(*) from DeletedAttachment as attachment"));
+        }
+        Assert.assertEquals(0, views.getErrorCount());
+
+        put("Purge (items/s)", String.format("%.0f", purged / (duration / 1000000000.0)));
+        putLatency("Page view during purge", views);
+    }
+
+    private long count(String query) throws Exception
+    {
+        return Long.parseLong(preview("{{groovy}}print(xwiki.getXWiki().getStore().search('" + query
+            + "', 0, 0, xcontext.context)[0]){{/groovy}}"));
+    }
+
+    private void putLatency(String measure, LatencyRecorder recorder)
+    {
+        put(measure + " p50/p99 (ms)", String.format("%.1f/%.1f", LatencyRecorder.toMillis(recorder.getPercentile(50)),
+            LatencyRecorder.toMillis(recorder.getPercentile(99))));
+    }
+
+    private void put(String measure, String value)
+    {
+        BenchmarkTable.put(this.profileName, String.format("Recycle bin: %s", measure), value);
+    }
+
+    private String preview(String content) throws Exception
+    {
+        HttpMethod ret = doPostAsAdmin(SPACE, SCRIPT_PAGE, null, "preview", "xpage=plain",
+            Collections.singletonMap("content", content));
+        Assert.assertEquals(200, ret.getStatusCode());
+
+        return ret.getResponseBodyAsString().replaceAll("</?p>", "").trim();
+    }
+}
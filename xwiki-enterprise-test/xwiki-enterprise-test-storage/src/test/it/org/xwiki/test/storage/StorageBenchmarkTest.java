@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.rest.framework.LatencyRecorder;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+import org.xwiki.test.storage.profiles.Profile;
+
+/**
+ * Measures the cost of the storage operations in each configuration profile: document save and load latency,
+ * attachment write and read throughput, rollback of an attachment history and deletion to the recycle bins. The
+ * results of all the profiles are gathered in a comparison table written to {@code storage-benchmark.txt}.
+ * <p>
+ * The amount of work is configured with the {@code xwiki.test.storage.benchmark.documents},
+ * {@code xwiki.test.storage.benchmark.attachmentSizes} (in MB, comma separated) and
+ * {@code xwiki.test.storage.benchmark.versions} System Properties.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class StorageBenchmarkTest extends AbstractTest
+{
+    private static final String SPACE = "StorageBenchmark";
+
+    private static final String ATTACHMENTS_PAGE = "Attachments";
+
+    private static final String ROLLBACK_PAGE = "Rollback";
+
+    private static final String ROLLBACK_FILENAME = "history.bin";
+
+    private static final int MB = 1024 * 1024;
+
+    /** The number of times each attachment size is written and read. */
+    private static final int REPEAT = 3;
+
+    private static final int DOCUMENTS = Integer.getInteger("xwiki.test.storage.benchmark.documents", 50);
+
+    private static final String[] ATTACHMENT_SIZES =
+        System.getProperty("xwiki.test.storage.benchmark.attachmentSizes", "1,10").split(",");
+
+    private static final int VERSIONS = Integer.getInteger("xwiki.test.storage.benchmark.versions", 10);
+
+    private static final String CONFIRM = "confirm=1";
+
+    private String profileName;
+
+    @Test
+    public void testStorageCosts() throws Exception
+    {
+        Profile profile = ForEachProfileSuite.getCurrentProfile();
+        this.profileName = profile != null ? profile.getClass().getSimpleName() : "None";
+
+        benchmarkDocuments();
+        benchmarkAttachments();
+        benchmarkRollbackAndRecycleBin();
+
+        BenchmarkTable.write("storage-benchmark.txt");
+    }
+
+    private void benchmarkDocuments() throws Exception
+    {
+        LatencyRecorder save = new LatencyRecorder("save");
+        LatencyRecorder load = new LatencyRecorder("load");
+        for (int i = 0; i < DOCUMENTS; i++) {
+            String pageName = "Document" + i;
+            doPostAsAdmin(SPACE, pageName, null, "delete", CONFIRM, null);
+
+            long start = System.nanoTime();
+            HttpMethod ret = doPostAsAdmin(SPACE, pageName, null, "save", null,
+                Collections.singletonMap("content", String.format("= Document %d =%n%n%0500d", i, i)));
+            save.record(System.nanoTime() - start);
+            assertSuccess(ret);
+        }
+        for (int i = 0; i < DOCUMENTS; i++) {
+            long start = System.nanoTime();
+            HttpMethod ret = doPostAsAdmin(SPACE, "Document" + i, null, "view", "xpage=plain", null);
+            load.record(System.nanoTime() - start);
+            assertSuccess(ret);
+        }
+
+        putLatency("Document save", save);
+        putLatency("Document load", load);
+    }
+
+    private void benchmarkAttachments() throws Exception
+    {
+        doPostAsAdmin(SPACE, ATTACHMENTS_PAGE, null, "delete", CONFIRM, null);
+        doPostAsAdmin(SPACE, ATTACHMENTS_PAGE, null, "save", null, null);
+
+        for (String sizeValue : ATTACHMENT_SIZES) {
+            int size = Integer.parseInt(sizeValue.trim());
+            byte[] content = createContent(size * MB, size);
+
+            double[] writes = new double[REPEAT];
+            double[] reads = new double[REPEAT];
+            for (int i = 0; i < REPEAT; i++) {
+                String filename = String.format("attachment-%dMB-%d.bin", size, i);
+
+                long start = System.nanoTime();
+                assertSuccess(doUploadAsAdmin(SPACE, ATTACHMENTS_PAGE, Collections.singletonMap(filename, content)));
+                writes[i] = getThroughput(content.length, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                HttpMethod ret = doPostAsAdmin(SPACE, ATTACHMENTS_PAGE, filename, "download", null, null);
+                int length = ret.getResponseBody().length;
+                reads[i] = getThroughput(length, System.nanoTime() - start);
+                Assert.assertEquals("Wrong size for " + filename, content.length, length);
+            }
+
+            putThroughput(String.format("Attachment write %dMB (MB/s)", size), writes);
+            putThroughput(String.format("Attachment read %dMB (MB/s)", size), reads);
+        }
+    }
+
+    private void benchmarkRollbackAndRecycleBin() throws Exception
+    {
+        doPostAsAdmin(SPACE, ROLLBACK_PAGE, null, "delete", CONFIRM, null);
+        doPostAsAdmin(SPACE, ROLLBACK_PAGE, null, "save", null, null);
+
+        // Version 1.1 is the empty page, each upload creates a new version of the page and of the attachment.
+        int size = Integer.parseInt(ATTACHMENT_SIZES[0].trim());
+        for (int i = 0; i < VERSIONS; i++) {
+            assertSuccess(doUploadAsAdmin(SPACE, ROLLBACK_PAGE,
+                Collections.singletonMap(ROLLBACK_FILENAME, createContent(size * MB, i))));
+        }
+
+        long start = System.nanoTime();
+        assertSuccess(doPostAsAdmin(SPACE, ROLLBACK_PAGE, null, "rollback", "rev=2.1&confirm=1", null));
+        put(String.format("Rollback %d versions of %dMB (ms)", VERSIONS, size), System.nanoTime() - start);
+        HttpMethod ret = doPostAsAdmin(SPACE, ROLLBACK_PAGE, ROLLBACK_FILENAME, "download", null, null);
+        Assert.assertArrayEquals("Wrong content after rollback", createContent(size * MB, 0), ret.getResponseBody());
+
+        start = System.nanoTime();
+        assertSuccess(doPostAsAdmin(SPACE, ROLLBACK_PAGE, ROLLBACK_FILENAME, "delattachment", null, null));
+        put(String.format("Attachment to recycle bin %dMB (ms)", size), System.nanoTime() - start);
+
+        start = System.nanoTime();
+        assertSuccess(doPostAsAdmin(SPACE, ATTACHMENTS_PAGE, null, "delete", CONFIRM, null));
+        put(String.format("Document with %d attachments to recycle bin (ms)", ATTACHMENT_SIZES.length * REPEAT),
+            System.nanoTime() - start);
+    }
+
+    private void assertSuccess(HttpMethod method) throws Exception
+    {
+        // Actions redirect once done.
+        Assert.assertTrue(String.format("Request [%s] failed with status [%d]", method.getURI(),
+            method.getStatusCode()), method.getStatusCode() < 400);
+    }
+
+    private byte[] createContent(int length, long seed)
+    {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private double getThroughput(long bytes, long nanos)
+    {
+        return (double) bytes / MB / (nanos / 1000000000.0);
+    }
+
+    private void putLatency(String measure, LatencyRecorder recorder)
+    {
+        BenchmarkTable.put(this.profileName, measure + " p50/p95 (ms)", String.format("%.1f / %.1f",
+            LatencyRecorder.toMillis(recorder.getPercentile(50)),
+            LatencyRecorder.toMillis(recorder.getPercentile(95))));
+    }
+
+    private void putThroughput(String measure, double[] values)
+    {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        BenchmarkTable.put(this.profileName, measure, String.format("%.1f", sorted[sorted.length / 2]));
+    }
+
+    private void put(String measure, long nanos)
+    {
+        BenchmarkTable.put(this.profileName, measure, String.format("%.1f", LatencyRecorder.toMillis(nanos)));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.xwiki.test.rest.framework.GeneratedInputStream;
+import org.xwiki.test.rest.framework.HeapSampler;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkTable;
+import org.xwiki.test.storage.framework.InputStreamPartSource;
+import org.xwiki.test.storage.profiles.FilesystemAttachmentStorageProfile;
+import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+
+/**
+ * Uploads a large file (100MB by default, 1GB with the {@code benchmarks} profile, configured in MB with the
+ * {@code xwiki.test.storage.upload.size} System Property) through the {@code upload} action, streaming it from the
+ * test, and checks that the heap of the server doesn't grow with the size of the file, i.e. that the multipart body
+ * is spooled to disk. Both a request of known length and a chunked request of unknown length are sent.
+ * <p>
+ * Only runs with the {@link FilesystemAttachmentStorageProfile} since the database attachment store needs the whole
+ * attachment in memory to save it.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class UploadSpoolingTest extends AbstractTest
+{
+    private static final String SPACE = "Test";
+
+    private static final String PAGE = "UploadSpooling";
+
+    private static final long MB = 1024 * 1024;
+
+    private static final long SIZE = Long.getLong("xwiki.test.storage.upload.size", 100) * MB;
+
+    @Test
+    public void testLargeUploadIsSpooledToDisk() throws Exception
+    {
+        Assume.assumeTrue(ForEachProfileSuite.getCurrentProfile() instanceof FilesystemAttachmentStorageProfile);
+
+        // Allow the upload.
+        preview("{{groovy}}\n"
+            + "def preferences = xwiki.getDocument('XWiki.XWikiPreferences')\n"
+            + "preferences.getObject('XWiki.XWikiPreferences').set('upload_maxsize', " + (SIZE + 10 * MB) + "L)\n"
+            + "preferences.saveAsAuthor()\n"
+            + "{{/groovy}}");
+
+        doPostAsAdmin(SPACE, PAGE, null, "delete", "confirm=1", null);
+        doPostAsAdmin(SPACE, PAGE, null, "save", null, null);
+
+        HeapSampler sampler = new HeapSampler(getRMIPort());
+        try {
+            upload(sampler, "known-length.bin", SIZE);
+            upload(sampler, "unknown-length.bin", -1);
+        } finally {
+            sampler.close();
+        }
+
+        BenchmarkTable.write("storage-benchmark.txt");
+    }
+
+    private void upload(HeapSampler sampler, String filename, long length) throws Exception
+    {
+        List<PartSource> uploads =
+            Collections.<PartSource>singletonList(new InputStreamPartSource(filename, new GeneratedInputStream(SIZE,
+                SIZE), length));
+
+        sampler.gc();
+        long baseline = sampler.getHeapUsage();
+        sampler.start();
+        long start = System.nanoTime();
+        HttpMethod ret = doUploadAsAdmin(SPACE, PAGE, uploads);
+        long duration = System.nanoTime() - start;
+        long growth = sampler.stop() - baseline;
+
+        Assert.assertTrue(String.format("Upload of [%s] failed with status [%d]", filename, ret.getStatusCode()),
+            ret.getStatusCode() < 400);
+        Assert.assertEquals(String.valueOf(SIZE), preview("{{velocity}}$xwiki.getDocument('" + SPACE + '.' + PAGE
+            + "').getAttachment('" + filename + "').getFilesize(){{/velocity}}").replaceAll("</?p>", "").trim());
+
+        String profileName = ForEachProfileSuite.getCurrentProfile().getClass().getSimpleName();
+        String measure = String.format("Upload %dMB, %s", SIZE / MB, length < 0 ? "chunked" : "known length");
+        BenchmarkTable.put(profileName, measure + " heap growth (MB)", String.valueOf(growth / MB));
+        BenchmarkTable.put(profileName, measure + " (MB/s)",
+            String.format("%.1f", SIZE / (double) MB / (duration / 1000000000.0)));
+
+        // The young generation fills up with short lived buffers before being collected, so only a growth close to
+        // the size of the file shows that it was kept in memory.
+        Assert.assertTrue(String.format("The heap grew by %dMB while uploading %dMB", growth / MB, SIZE / MB),
+            growth < SIZE / 2);
+
+        doPostAsAdmin(SPACE, PAGE, filename, "delattachment", null, null);
+    }
+
+    private String preview(String content) throws Exception
+    {
+        HttpMethod ret = doPostAsAdmin(SPACE, "UploadSpoolingScript", null, "preview", "xpage=plain",
+            Collections.singletonMap("content", content));
+        Assert.assertEquals(200, ret.getStatusCode());
+
+        return ret.getResponseBodyAsString();
+    }
+}
@@ -20,11 +20,14 @@
 package org.xwiki.test.storage.framework;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
 import org.junit.Rule;
 import org.junit.rules.TestName;
 import org.xwiki.test.integration.XWikiExecutor;
@@ -38,7 +41,11 @@
  */
 public class AbstractTest
 {
-    private static XWikiExecutor executor;
+    /**
+     * The executor of the configuration profile being tested by the current thread, since the profiles run in
+     * parallel.
+     */
+    private static final ThreadLocal<XWikiExecutor> EXECUTOR = new ThreadLocal<XWikiExecutor>();
 
     @Rule
     public TestName testName = new TestName();
@@ -46,20 +53,29 @@
     /** Cached secret token. TODO cache for each user. */
     private String secretToken = null;
 
-    /** Used so that AllTests can set the executor. */
+    /** Used so that AllTests can set the executor of the current thread. */
     public static void setExecutor(final XWikiExecutor executor)
     {
-        AbstractTest.executor = executor;
+        EXECUTOR.set(executor);
     }
 
     protected short getPort()
     {
-        return (short) executor.getPort();
+        return (short) EXECUTOR.get().getPort();
+    }
+
+    /**
+     * @return the JMX port of the XWiki instance under test
+     * @since 5.1M1
+     */
+    protected int getRMIPort()
+    {
+        return EXECUTOR.get().getRMIPort();
     }
 
     protected String getAddressPrefix()
     {
-        return TestUtils.BASE_BIN_URL;
+        return TestUtils.BASE_BIN_URL.replace(':' + XWikiExecutor.DEFAULT_PORT + '/', ":" + getPort() + '/');
     }
 
     protected String getTestMethodName()
@@ -74,6 +90,27 @@ protected HttpMethod doPostAsAdmin(final String space, final String page, final
         return StoreTestUtils.doPost(url, TestUtils.ADMIN_CREDENTIALS, postParameters);
     }
 
+    /**
+     * Gets an attachment through the REST API, which supports conditional and partial requests. The response is not
+     * read, the caller must release the connection.
+     * 
+     * @param space the space of the page
+     * @param page the name of the page
+     * @param filename the name of the attachment
+     * @param headers the request headers, {@code null} if none
+     * @return the executed method
+     * @throws IOException if the request fails
+     * @since 5.1M1
+     */
+    protected HttpMethod doGetAttachmentAsAdmin(final String space, final String page, final String filename,
+        final Map<String, String> headers) throws IOException
+    {
+        String url =
+            getAddressPrefix().replace("/bin/", "/rest/") + "wikis/xwiki/spaces/" + StoreTestUtils.escapeURL(space)
+                + "/pages/" + StoreTestUtils.escapeURL(page) + "/attachments/" + StoreTestUtils.escapeURL(filename);
+        return StoreTestUtils.doGet(url, TestUtils.ADMIN_CREDENTIALS, headers);
+    }
+
     public HttpMethod doUploadAsAdmin(final String space, final String page, final Map<String, byte[]> uploads)
         throws IOException
     {
@@ -81,6 +118,42 @@ public HttpMethod doUploadAsAdmin(final String space, final String page, final M
         return StoreTestUtils.doUpload(url, TestUtils.ADMIN_CREDENTIALS, uploads);
     }
 
+    /**
+     * Streaming variant of {@link #doUploadAsAdmin(String, String, Map)}, for files which don't fit in memory.
+     * 
+     * @param space the space of the page
+     * @param page the name of the page
+     * @param uploads the files to upload
+     * @return the executed method
+     * @throws IOException if the request fails
+     * @since 5.1M1
+     */
+    public HttpMethod doUploadAsAdmin(final String space, final String page, final List<PartSource> uploads)
+        throws IOException
+    {
+        String url = getURL(space, page, null, "upload", addBasicauth(null));
+        return StoreTestUtils.doUpload(url, TestUtils.ADMIN_CREDENTIALS, uploads);
+    }
+
+    /**
+     * @param path a directory, relative to the permanent directory of the XWiki instance under test
+     * @return the total size in bytes of the files of the given directory, 0 if it doesn't exist
+     * @throws IOException if the request fails
+     * @since 5.1M1
+     */
+    protected long getDiskUsage(final String path) throws IOException
+    {
+        String script = "{{groovy}}\n"
+            + "def directory = new File(com.xpn.xwiki.web.Utils.getComponent(org.xwiki.environment.Environment.class)"
+            + ".getPermanentDirectory(), '" + path + "')\n"
+            + "print(directory.exists() ? org.apache.commons.io.FileUtils.sizeOfDirectory(directory) : 0)\n"
+            + "{{/groovy}}";
+        HttpMethod ret = doPostAsAdmin("Test", "DiskUsage", null, "preview", "xpage=plain",
+            Collections.singletonMap("content", script));
+
+        return Long.parseLong(ret.getResponseBodyAsString().replaceAll("</?p>", "").trim());
+    }
+
     /**
      * Adds basicauth=1 to the query string.
      * 
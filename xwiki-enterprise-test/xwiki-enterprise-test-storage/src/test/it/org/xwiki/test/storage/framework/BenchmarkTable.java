@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.test.rest.framework.BenchmarkUtils;
+
+/**
+ * Collects the measures of the storage benchmarks for each configuration profile and formats them as a table with one
+ * column per profile, so that the storage backends can be compared. Thread-safe since the profiles run in parallel.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public final class BenchmarkTable
+{
+    /** The width of the first column. */
+    private static final int MEASURE_WIDTH = 40;
+
+    /** The width of the profile columns. */
+    private static final int PROFILE_WIDTH = 36;
+
+    /** The profiles, in the order they reported their first measure. */
+    private static final List<String> PROFILES = new ArrayList<String>();
+
+    /** The values, indexed by measure and then by profile. */
+    private static final Map<String, Map<String, String>> VALUES = new LinkedHashMap<String, Map<String, String>>();
+
+    private BenchmarkTable()
+    {
+        // Utility class.
+    }
+
+    /**
+     * @param profile the name of the configuration profile
+     * @param measure the name of the measure, including its unit
+     * @param value the formatted value
+     */
+    public static synchronized void put(String profile, String measure, String value)
+    {
+        if (!PROFILES.contains(profile)) {
+            PROFILES.add(profile);
+        }
+
+        Map<String, String> values = VALUES.get(measure);
+        if (values == null) {
+            values = new LinkedHashMap<String, String>();
+            VALUES.put(measure, values);
+        }
+        values.put(profile, value);
+    }
+
+    /**
+     * @return the table of all the measures recorded so far
+     */
+    public static synchronized String format()
+    {
+        StringBuilder table = new StringBuilder(String.format("%-" + MEASURE_WIDTH + "s", "Measure"));
+        for (String profile : PROFILES) {
+            table.append(String.format(" %" + PROFILE_WIDTH + "s", profile));
+        }
+        table.append(String.format("%n"));
+
+        for (Map.Entry<String, Map<String, String>> measure : VALUES.entrySet()) {
+            table.append(String.format("%-" + MEASURE_WIDTH + "s", measure.getKey()));
+            for (String profile : PROFILES) {
+                String value = measure.getValue().get(profile);
+                table.append(String.format(" %" + PROFILE_WIDTH + "s", value != null ? value : "-"));
+            }
+            table.append(String.format("%n"));
+        }
+
+        return table.toString();
+    }
+
+    /**
+     * Writes the table of all the measures recorded so far in the given file and prints it on the console.
+     * 
+     * @param name the name of the file
+     * @throws IOException if writing the file fails
+     * @see #writeReport(String, String)
+     */
+    public static synchronized void write(String name) throws IOException
+    {
+        writeReport(name, format());
+    }
+
+    /**
+     * Writes a report in the directory configured with the {@code xwiki.test.storage.reportDirectory} System Property
+     * and prints it on the console.
+     * 
+     * @param name the name of the file
+     * @param content the content of the report
+     * @throws IOException if writing the file fails
+     */
+    public static void writeReport(String name, String content) throws IOException
+    {
+        BenchmarkUtils.writeReport(
+            BenchmarkUtils.getReportDirectory("xwiki.test.storage.reportDirectory", "target/storage-reports"), name,
+            content);
+    }
+}
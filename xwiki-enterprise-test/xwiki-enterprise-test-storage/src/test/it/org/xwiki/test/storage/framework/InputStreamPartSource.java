@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+
+/**
+ * Source of an uploaded file read from a stream, so that the file doesn't have to fit in memory. The length can be
+ * unknown, in which case the request is sent with chunked encoding. Since the stream can only be read once, the
+ * request cannot be retried.
+ * 
+ * @version $Id$
+ * @since 5.1M1
+ */
+public class InputStreamPartSource implements PartSource
+{
+    private final String fileName;
+
+    private final long length;
+
+    private InputStream stream;
+
+    /**
+     * @param fileName the name of the uploaded file
+     * @param stream the content of the file, closed once sent
+     * @param length the length of the content, -1 if unknown
+     */
+    public InputStreamPartSource(String fileName, InputStream stream, long length)
+    {
+        this.fileName = fileName;
+        this.stream = stream;
+        this.length = length;
+    }
+
+    @Override
+    public long getLength()
+    {
+        return this.length;
+    }
+
+    @Override
+    public String getFileName()
+    {
+        return this.fileName;
+    }
+
+    @Override
+    public synchronized InputStream createInputStream() throws IOException
+    {
+        if (this.stream == null) {
+            throw new IOException(String.format("The content of [%s] has already been sent", this.fileName));
+        }
+
+        InputStream result = this.stream;
+        this.stream = null;
+
+        return result;
+    }
+}
@@ -22,17 +22,21 @@
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.multipart.ByteArrayPartSource;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
 
 /**
  * Test saving and downloading of attachments.
@@ -69,8 +73,62 @@ public static HttpMethod doPost(final String address, final UsernamePasswordCred
         return method;
     }
 
+    /**
+     * Sends a GET request without reading the response, so that large responses can be streamed with
+     * {@link HttpMethod#getResponseBodyAsStream()}. The caller must release the connection.
+     * 
+     * @param address the URL to get
+     * @param userNameAndPassword the credentials, {@code null} for guest
+     * @param headers the request headers, {@code null} if none
+     * @return the executed method
+     * @throws IOException if the request fails
+     * @since 5.1M1
+     */
+    public static HttpMethod doGet(final String address, final UsernamePasswordCredentials userNameAndPassword,
+        final Map<String, String> headers) throws IOException
+    {
+        final HttpClient client = new HttpClient();
+        final GetMethod method = new GetMethod(address);
+
+        if (userNameAndPassword != null) {
+            client.getState().setCredentials(AuthScope.ANY, userNameAndPassword);
+            client.getParams().setAuthenticationPreemptive(true);
+        }
+
+        if (headers != null) {
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                method.setRequestHeader(e.getKey(), e.getValue());
+            }
+        }
+        client.executeMethod(method);
+        return method;
+    }
+
     public static HttpMethod doUpload(final String address, final UsernamePasswordCredentials userNameAndPassword,
         final Map<String, byte[]> uploads) throws IOException
+    {
+        List<PartSource> sources = new ArrayList<PartSource>();
+        for (Map.Entry<String, byte[]> e : uploads.entrySet()) {
+            sources.add(new ByteArrayPartSource(e.getKey(), e.getValue()));
+        }
+
+        return doUpload(address, userNameAndPassword, sources);
+    }
+
+    /**
+     * Uploads files read from their source while the request is sent, so that they don't have to fit in memory. Use
+     * {@link org.apache.commons.httpclient.methods.multipart.FilePartSource} for files and
+     * {@link InputStreamPartSource} for streams, possibly of unknown length.
+     * 
+     * @param address the URL of the upload action
+     * @param userNameAndPassword the credentials, {@code null} for guest
+     * @param uploads the files to upload
+     * @return the executed method
+     * @throws IOException if the request fails
+     * @since 5.1M1
+     */
+    public static HttpMethod doUpload(final String address, final UsernamePasswordCredentials userNameAndPassword,
+        final List<PartSource> uploads) throws IOException
     {
         final HttpClient client = new HttpClient();
         final PostMethod method = new PostMethod(address);
@@ -82,9 +140,11 @@ public static HttpMethod doUpload(final String address, final UsernamePasswordCr
 
         Part[] parts = new Part[uploads.size()];
         int i = 0;
-        for (Map.Entry<String, byte[]> e : uploads.entrySet()) {
-            parts[i++] = new FilePart("filepath", new ByteArrayPartSource(e.getKey(), e.getValue()));
+        for (PartSource source : uploads) {
+            parts[i++] = new FilePart("filepath", source);
         }
+        // The length of the request is unknown (-1) when the length of a part is unknown, and the request is then
+        // sent with chunked encoding.
         MultipartRequestEntity entity = new MultipartRequestEntity(parts, method.getParams());
         method.setRequestEntity(entity);
 
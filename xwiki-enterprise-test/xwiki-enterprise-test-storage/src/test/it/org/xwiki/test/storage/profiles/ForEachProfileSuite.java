@@ -19,28 +19,48 @@
  */
 package org.xwiki.test.storage.profiles;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.extensions.cpsuite.ClassTester;
 import org.junit.extensions.cpsuite.ClasspathClassesFinder;
 import org.junit.extensions.cpsuite.ClasspathSuite;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
 import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.RunnerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.test.integration.XWikiExecutor;
+import org.xwiki.test.rest.framework.HeapSampler;
 
 /**
  * Run all tests in multiple configuration profiles and start/stop XWiki for each profile. Run all tests found in the
  * current classloader using <a href="http://www.johanneslink.net/projects/cpsuite.jsp">cpsuite</a> (we extend it).
  * Tests can be filtered by passing the "pattern" System Property.
+ * <p>
+ * Each profile runs on its own XWiki instance (with its own ports and its own copy of the execution directory,
+ * including the database). The profiles run concurrently: the number of profiles running at the same time defaults to
+ * the number of available cores, at most {@value #MAX_DEFAULT_THREADS} since each instance needs 1GB of heap, and can
+ * be changed with the "profileThreads" System Property. The results of each profile are reported once the profile is
+ * done, so that the results of the different profiles don't interleave, and a summary of the results per profile is
+ * logged at the end.
  * 
  * @version $Id$
  * @since 3.0RC1
@@ -49,11 +69,33 @@ public class ForEachProfileSuite extends ClasspathSuite
 {
     public static final String PATTERN = ".*" + System.getProperty("pattern", "");
 
+    /** The default maximum number of profiles running at the same time, each instance having a 1GB heap. */
+    public static final int MAX_DEFAULT_THREADS = 4;
+
+    /** The maximum number of profiles running at the same time. */
+    public static final int THREADS = Integer.getInteger("profileThreads",
+        Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_THREADS));
+
+    /** Used to log the summary of the results. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForEachProfileSuite.class);
+
+    /** The configuration profile tested by the current thread. */
+    private static final ThreadLocal<Profile> CURRENT_PROFILE = new ThreadLocal<Profile>();
+
     public ForEachProfileSuite(Class< ? > klass, RunnerBuilder builder) throws InitializationError
     {
         super(klass, builder);
     }
 
+    /**
+     * @return the configuration profile tested by the current thread, {@code null} if the current thread doesn't run
+     *         the tests of a profile
+     */
+    public static Profile getCurrentProfile()
+    {
+        return CURRENT_PROFILE.get();
+    }
+
     @Override
     protected List<Runner> getChildren()
     {
@@ -70,17 +112,27 @@ protected List<Runner> getChildren()
     }
 
     @Override
-    public void run(RunNotifier notifier)
+    public void run(final RunNotifier notifier)
     {
-        // Get the list of test profiles.
+        // Get the list of test profiles, in a stable order so that each profile always gets the same executor.
         final List<Class< ? >> profiles =
-            new ClasspathClassesFinder(IsProfileTester.INSTANCE, "java.class.path").find();
+            new ArrayList<Class< ? >>(new ClasspathClassesFinder(IsProfileTester.INSTANCE, "java.class.path").find());
+        Collections.sort(profiles, new Comparator<Class< ? >>()
+        {
+            @Override
+            public int compare(Class< ? > class1, Class< ? > class2)
+            {
+                return class1.getName().compareTo(class2.getName());
+            }
+        });
 
-        final Map<Profile, XWikiExecutor> executorByProfile = new HashMap<Profile, XWikiExecutor>();
+        // Each profile gets its own executor so that they can run in parallel.
+        final List<Profile> profileInstances = new ArrayList<Profile>();
+        final List<XWikiExecutor> executors = new ArrayList<XWikiExecutor>();
         for (int i = 0; i < profiles.size(); i++) {
             try {
-                // All executors are #0 because they will not be run in parallel.
-                executorByProfile.put(((Class<Profile>) profiles.get(i)).newInstance(), new XWikiExecutor(0));
+                profileInstances.add(((Class<Profile>) profiles.get(i)).newInstance());
+                executors.add(new XWikiExecutor(i));
             } catch (Exception e) {
                 throw new RuntimeException("Failed to instanciate configuration profile.", e);
             }
@@ -88,53 +140,236 @@ public void run(RunNotifier notifier)
 
         // Callback to setup executors in the suite class.
         try {
-            for (Profile profile : executorByProfile.keySet()) {
-                profile.apply(executorByProfile.get(profile));
+            prepareExecutionDirectories(executors);
+            for (XWikiExecutor executor : executors) {
+                // Big enough for the storage benchmarks, which also monitor the instance through JMX.
+                executor.setXWikiOpts("-Xmx1024m -XX:MaxPermSize=192m "
+                    + HeapSampler.getJMXOptions(executor.getRMIPort()));
+            }
+            for (int i = 0; i < profileInstances.size(); i++) {
+                profileInstances.get(i).apply(executors.get(i));
             }
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize XWiki Executors", e);
         }
 
-        for (final Profile profile : executorByProfile.keySet()) {
-            final XWikiExecutor executor = executorByProfile.get(profile);
-            try {
+        // Compute the description before running the children concurrently.
+        getDescription();
 
-                try {
-                    executor.start();
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to start XWiki", e);
+        ExecutorService threads = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, profiles.size())));
+        List<Future<Result>> results = new ArrayList<Future<Result>>();
+        for (int i = 0; i < profileInstances.size(); i++) {
+            final Profile profile = profileInstances.get(i);
+            final XWikiExecutor executor = executors.get(i);
+            results.add(threads.submit(new Callable<Result>()
+            {
+                @Override
+                public Result call()
+                {
+                    return runProfile(profile, executor, notifier);
                 }
+            }));
+        }
+        threads.shutdown();
 
-                try {
-                    Object instance = this.getTestClass().getJavaClass().newInstance();
+        StringBuilder summary = new StringBuilder("Results per configuration profile:\n");
+        for (int i = 0; i < profileInstances.size(); i++) {
+            String profileName = profileInstances.get(i).getClass().getSimpleName();
+            try {
+                Result result = results.get(i).get();
+                summary.append(String.format("  %-40s run: %d, failures: %d, ignored: %d, time: %.1fs%n",
+                    profileName, result.getRunCount(), result.getFailureCount(), result.getIgnoreCount(),
+                    result.getRunTime() / 1000.0));
+                for (Failure failure : result.getFailures()) {
+                    summary.append(String.format("    %s: %s%n", failure.getTestHeader(), failure.getMessage()));
+                }
+            } catch (Exception e) {
+                notifier.fireTestFailure(new Failure(getDescription(), new RuntimeException(
+                    "Failed to run configuration profile " + profileName, e)));
+            }
+        }
+        LOGGER.info(summary.toString());
+    }
 
-                    // If there is a field which is an XWikiExecutor type
-                    // and has an @Inject annotation, inject the current executor.
-                    for (Field field : this.getTestClass().getJavaClass().getDeclaredFields()) {
-                        if (field.getType() == XWikiExecutor.class && field.getAnnotation(Inject.class) != null) {
-                            field.setAccessible(true);
-                            field.set(instance, executor);
-                        }
-                    }
+    /**
+     * Starts the XWiki instance of a profile, runs all the tests against it and stops it. Called from the thread of
+     * the profile, so the tests must only use the executor from this thread.
+     * 
+     * @param profile the configuration profile
+     * @param executor the executor, configured for the profile
+     * @param notifier the notifier of the whole suite, notified once the profile is done
+     * @return the results of the profile
+     */
+    private Result runProfile(Profile profile, XWikiExecutor executor, RunNotifier notifier)
+    {
+        Result result = new Result();
+        RecordingListener recorder = new RecordingListener();
+        RunNotifier profileNotifier = new RunNotifier();
+        profileNotifier.addListener(result.createListener());
+        profileNotifier.addListener(recorder);
+
+        CURRENT_PROFILE.set(profile);
+        profileNotifier.fireTestRunStarted(getDescription());
+        try {
 
-                    // If the class is initializable then call initialize.
-                    final Class< ? >[] interfaces = this.getTestClass().getJavaClass().getInterfaces();
-                    for (int i = 0; i < interfaces.length; i++) {
-                        if (interfaces[i] == Initializable.class) {
-                            this.getTestClass().getJavaClass().getMethod("initialize").invoke(instance);
-                        }
+            try {
+                executor.start();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to start XWiki", e);
+            }
+
+            try {
+                Object instance = this.getTestClass().getJavaClass().newInstance();
+
+                // If there is a field which is an XWikiExecutor type
+                // and has an @Inject annotation, inject the current executor.
+                for (Field field : this.getTestClass().getJavaClass().getDeclaredFields()) {
+                    if (field.getType() == XWikiExecutor.class && field.getAnnotation(Inject.class) != null) {
+                        field.setAccessible(true);
+                        field.set(instance, executor);
                     }
+                }
 
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to prepare tests to run in config profile.", e);
+                // If the class is initializable then call initialize.
+                final Class< ? >[] interfaces = this.getTestClass().getJavaClass().getInterfaces();
+                for (int i = 0; i < interfaces.length; i++) {
+                    if (interfaces[i] == Initializable.class) {
+                        this.getTestClass().getJavaClass().getMethod("initialize").invoke(instance);
+                    }
                 }
 
-                super.run(notifier);
-            } finally {
-                try {
-                    executor.stop();
-                } catch (Exception e) {
-                    // Squash this and let the original exception be thrown.
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to prepare tests to run in config profile.", e);
+            }
+
+            super.run(profileNotifier);
+        } catch (RuntimeException e) {
+            profileNotifier.fireTestFailure(new Failure(getDescription(), e));
+        } finally {
+            try {
+                executor.stop();
+            } catch (Exception e) {
+                // Squash this and let the original exception be thrown.
+            }
+            profileNotifier.fireTestRunFinished(result);
+            CURRENT_PROFILE.remove();
+        }
+
+        recorder.replay(notifier);
+
+        return result;
+    }
+
+    /**
+     * Creates the execution directories of the additional executors by copying the one of the first executor, since
+     * only the first one is unpacked by the build.
+     * 
+     * @param executors the executors of the profiles
+     * @throws Exception if the copy fails
+     */
+    private void prepareExecutionDirectories(List<XWikiExecutor> executors) throws Exception
+    {
+        File reference = new File(executors.get(0).getExecutionDirectory());
+        for (XWikiExecutor executor : executors.subList(1, executors.size())) {
+            // Always start from a fresh copy so that the profiles don't see the data of a previous run.
+            File directory = new File(executor.getExecutionDirectory());
+            FileUtils.deleteDirectory(directory);
+            FileUtils.copyDirectory(reference, directory);
+        }
+    }
+
+    /**
+     * Records the test events of a profile so that they can be sent to the notifier of the suite all at once, without
+     * interleaving with the events of the other profiles.
+     */
+    private static class RecordingListener extends RunListener
+    {
+        /** The type of the recorded events. */
+        private enum Type
+        {
+            STARTED,
+            FAILURE,
+            ASSUMPTION_FAILURE,
+            IGNORED,
+            FINISHED
+        }
+
+        /** The recorded events. */
+        private final List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+
+        /**
+         * A recorded event.
+         */
+        private static class RecordedEvent
+        {
+            private final Type type;
+
+            private final Description description;
+
+            private final Failure failure;
+
+            RecordedEvent(Type type, Description description, Failure failure)
+            {
+                this.type = type;
+                this.description = description;
+                this.failure = failure;
+            }
+        }
+
+        @Override
+        public synchronized void testStarted(Description description)
+        {
+            this.events.add(new RecordedEvent(Type.STARTED, description, null));
+        }
+
+        @Override
+        public synchronized void testFailure(Failure failure)
+        {
+            this.events.add(new RecordedEvent(Type.FAILURE, failure.getDescription(), failure));
+        }
+
+        @Override
+        public synchronized void testAssumptionFailure(Failure failure)
+        {
+            this.events.add(new RecordedEvent(Type.ASSUMPTION_FAILURE, failure.getDescription(), failure));
+        }
+
+        @Override
+        public synchronized void testIgnored(Description description)
+        {
+            this.events.add(new RecordedEvent(Type.IGNORED, description, null));
+        }
+
+        @Override
+        public synchronized void testFinished(Description description)
+        {
+            this.events.add(new RecordedEvent(Type.FINISHED, description, null));
+        }
+
+        /**
+         * @param notifier the notifier to send the recorded events to
+         */
+        public synchronized void replay(RunNotifier notifier)
+        {
+            synchronized (notifier) {
+                for (RecordedEvent event : this.events) {
+                    switch (event.type) {
+                        case STARTED:
+                            notifier.fireTestStarted(event.description);
+                            break;
+                        case FAILURE:
+                            notifier.fireTestFailure(event.failure);
+                            break;
+                        case ASSUMPTION_FAILURE:
+                            notifier.fireTestAssumptionFailed(event.failure);
+                            break;
+                        case IGNORED:
+                            notifier.fireTestIgnored(event.description);
+                            break;
+                        default:
+                            notifier.fireTestFinished(event.description);
+                            break;
+                    }
                 }
             }
         }